@@ -0,0 +1,630 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * embedded HTTP/JSON server over the services, JDK only (com.sun.net.httpserver)
+ *   java -jar app.jar --serve [port]          port defaults to -Dapi.port, 8080
+ * listens on -Dapi.host, 127.0.0.1 unless set (0.0.0.0 for every interface).
+ * one process, one set of services and the shared connection pool for every terminal. each request runs on a
+ * virtual thread when the JVM has them (Java 21+), otherwise on a pool of -Dapi.threads platform threads,
+ * either way the connection pool bounds how many reach the database at once.
+ * a request names its user in the X-User-Id header, looked up once and kept as a UserSession like a console
+ * login until unused for -Dapi.sessionIdleMs (and like the console there is no password). the POST routes
+ * also need the shared token of -Dapi.token in an "Authorization: Bearer <token>" header, without one
+ * configured they are refused. console output of the services is captured per request
+ * and returned as "output" lines, a service that reports an error answers 422.
+ *
+ *   GET  /api/health
+ *   GET  /api/catalog?manufacturer=&category=&limit=  (next page: the after_* values of the last response)
+ *   GET  /api/reports                                 report names
+ *   GET  /api/reports/{name}                          rows as JSON objects, streamed
+ *   GET  /api/recall?lot=&date=&window=
+ *   GET  /api/lots/{lot}/sources
+ *   GET  /metrics                                     operation latencies, Prometheus text format (see Metrics)
+ *   manufacturer:
+ *   GET  /api/products
+ *   GET  /api/products/{id}/active-plan
+ *   GET  /api/products/{id}/recipe-plans
+ *   POST /api/recipe-versions       {"product_id", "version_no"?, "base_plan_id"?, "changes": [{"ingredient_id", "quantity"}], "activate"?}
+ *   POST /api/production-batches    {"product_id", "batch_id", "quantity", "expiration_date", "lots"?: [{"lot_number", "quantity"}]}
+ *   supplier:
+ *   POST /api/ingredient-batches    [{"batch_id", "ingredient_id", "quantity_oz", "unit_cost", "expiration_date"}, ...]
+ */
+public class ApiServer {
+
+    private static final int THREADS = Integer.getInteger("api.threads", 64);
+    private static final int MAX_BODY_BYTES = Integer.getInteger("api.maxBodyBytes", 16 << 20);
+    private static final int CATALOG_PAGE_SIZE = 50;
+    private static final String HOST = System.getProperty("api.host", "127.0.0.1");
+    // shared secret of the write routes, null refuses them
+    private static final String TOKEN = System.getProperty("api.token");
+    // a session unused this long is dropped, the next request looks the user up again
+    private static final long SESSION_IDLE_MS = Long.getLong("api.sessionIdleMs", 30 * 60_000L);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final ConsoleCapture capture = ConsoleCapture.install();
+    private final List<Route> routes = new ArrayList<>();
+    // user id -> session, one lookup per user until it goes idle
+    private final Map<String, UserSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextSessionSweepMs = new AtomicLong();
+
+    private final ProductionService productionService = new ProductionService();
+    private final RecipeService recipeService = new RecipeService();
+    private final IngredientService ingredientService = new IngredientService();
+    private final ProductService productService = new ProductService();
+    private final ExportService exportService = new ExportService();
+
+    /**
+     * an answer that isn't a success, the message goes back as {"error": ...}
+     */
+    private static final class ApiException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+        final Object output;
+
+        ApiException(int status, String message) {
+            this(status, message, null);
+        }
+
+        ApiException(int status, String message, Object output) {
+            super(message);
+            this.status = status;
+            this.output = output;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Endpoint {
+        // null when the endpoint wrote the response itself
+        Response handle(Request request) throws Exception;
+    }
+
+    private static final class Route {
+        final String method;
+        final Pattern path;
+        final String role;
+        final Endpoint endpoint;
+
+        Route(String method, String path, String role, Endpoint endpoint) {
+            this.method = method;
+            this.path = Pattern.compile(path);
+            this.role = role;
+            this.endpoint = endpoint;
+        }
+    }
+
+    private static final class Request {
+        final HttpExchange exchange;
+        final Matcher path;
+        final Map<String, String> query;
+        final UserSession session;
+
+        Request(HttpExchange exchange, Matcher path, Map<String, String> query, UserSession session) {
+            this.exchange = exchange;
+            this.path = path;
+            this.query = query;
+            this.session = session;
+        }
+
+        Object body() throws IOException {
+            byte[] bytes = exchange.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+            if (bytes.length > MAX_BODY_BYTES) {
+                throw new ApiException(413, "Request body over " + MAX_BODY_BYTES + " bytes");
+            }
+            try {
+                return Json.parse(new String(bytes, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                throw new ApiException(400, e.getMessage());
+            }
+        }
+
+        String param(String name) {
+            String value = query.get(name);
+            if (value == null || value.isEmpty()) {
+                throw new ApiException(400, "Missing query parameter " + name);
+            }
+            return value;
+        }
+    }
+
+    private static final class Response {
+        final int status;
+        final Object body;
+
+        Response(int status, Object body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private ApiServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(HOST, port), 0);
+        ExecutorService virtual = virtualThreadExecutor();
+        virtualThreads = virtual != null;
+        executor = virtualThreads ? virtual : Executors.newFixedThreadPool(THREADS, r -> {
+            Thread t = new Thread(r, "api-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/api/", this::dispatch);
+        server.createContext("/metrics", this::dispatch);
+
+        route("GET", "/api/health", null, this::health);
+        route("GET", "/api/catalog", null, this::catalog);
+        route("GET", "/api/reports", null, request -> ok(ExportService.reportNames()));
+        route("GET", "/api/reports/([^/]+)", null, this::report);
+        route("GET", "/api/recall", null, this::recall);
+        route("GET", "/api/lots/([^/]+)/sources", null,
+              request -> console(200, () -> productionService.traceLotSources(request.path.group(1))));
+        route("GET", "/api/products", "MANUFACTURER",
+              request -> ok(products(productService.findProductsByManufacturer(request.session))));
+        route("GET", "/api/products/(\\d+)/active-plan", "MANUFACTURER", this::activePlan);
+        route("GET", "/api/products/(\\d+)/recipe-plans", "MANUFACTURER",
+              request -> console(200, () -> recipeService.viewRecipePlans(Integer.parseInt(request.path.group(1)),
+                                                                          request.session.userId)));
+        route("POST", "/api/recipe-versions", "MANUFACTURER", this::recipeVersion);
+        route("POST", "/api/production-batches", "MANUFACTURER", this::productionBatch);
+        route("POST", "/api/ingredient-batches", "SUPPLIER", this::ingredientBatches);
+        route("GET", "/metrics", null, this::metrics);
+    }
+
+    /**
+     * start serving on port, returns once the server is listening
+     */
+    public static ApiServer start(int port) throws IOException {
+        ApiServer api = new ApiServer(port);
+        api.server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(api::stop, "api-shutdown"));
+        api.capture.console().println("Serving the API on http://" + HOST + ":" + api.server.getAddress().getPort() +
+                                      "/api/ (" + (api.virtualThreads ? "virtual threads" : THREADS + " threads") +
+                                      (TOKEN == null ? ", write routes off without -Dapi.token" : "") + ")");
+        return api;
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() on Java 21+, null before that
+     * looked up at run time so the build keeps targeting Java 17
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private void route(String method, String path, String role, Endpoint endpoint) {
+        routes.add(new Route(method, path, role, endpoint));
+    }
+
+    private void dispatch(HttpExchange exchange) {
+        try (exchange) {
+            Response response;
+            try {
+                response = handle(exchange);
+            } catch (ApiException e) {
+                Map<String, Object> body = new LinkedHashMap<>();
+                body.put("error", e.getMessage());
+                if (e.output != null) {
+                    body.put("output", e.output);
+                }
+                response = new Response(e.status, body);
+            } catch (NumberFormatException | java.time.DateTimeException e) {
+                response = new Response(400, Collections.singletonMap("error", e.getMessage()));
+            } catch (Exception e) {
+                System.err.println("Error handling " + exchange.getRequestMethod() + " " +
+                                   exchange.getRequestURI() + ": " + e);
+                response = new Response(500, Collections.singletonMap("error", String.valueOf(e.getMessage())));
+            }
+            if (response != null) {
+                send(exchange, response);
+            }
+        } catch (IOException e) {
+            // the client went away
+        }
+    }
+
+    private Response handle(HttpExchange exchange) throws Exception {
+        String path = exchange.getRequestURI().getPath();
+        boolean pathFound = false;
+        for (Route route : routes) {
+            Matcher matcher = route.path.matcher(path);
+            if (!matcher.matches()) {
+                continue;
+            }
+            pathFound = true;
+            if (!route.method.equals(exchange.getRequestMethod())) {
+                continue;
+            }
+            if (route.method.equals("POST")) {
+                authorizeWrite(exchange);
+            }
+            UserSession session = route.role == null ? null : session(exchange, route.role);
+            return route.endpoint.handle(new Request(exchange, matcher, query(exchange), session));
+        }
+        throw pathFound ? new ApiException(405, "Method not allowed") : new ApiException(404, "No such endpoint");
+    }
+
+    private void authorizeWrite(HttpExchange exchange) {
+        if (TOKEN == null) {
+            throw new ApiException(403, "Write routes are off, start the server with -Dapi.token");
+        }
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        byte[] given = authorization == null || !authorization.startsWith("Bearer ") ? new byte[0]
+                : authorization.substring("Bearer ".length()).getBytes(StandardCharsets.UTF_8);
+        // constant time, the comparison doesn't tell how much of the token was right
+        if (!MessageDigest.isEqual(given, TOKEN.getBytes(StandardCharsets.UTF_8))) {
+            throw new ApiException(401, "Missing or wrong API token");
+        }
+    }
+
+    private UserSession session(HttpExchange exchange, String role) throws SQLException {
+        String userId = exchange.getRequestHeaders().getFirst("X-User-Id");
+        if (userId == null || userId.isEmpty()) {
+            throw new ApiException(401, "Missing X-User-Id header");
+        }
+        sweepIdleSessions();
+        UserSession session = sessions.get(userId);
+        if (session != null && session.idleMs() > SESSION_IDLE_MS) {
+            sessions.remove(userId, session);
+            session = null;
+        }
+        if (session == null) {
+            // connect to db
+            try (Connection conn = DBConnect.getConnection()) {
+                UserRepository.UserRecord user = new UserRepository(conn).findById(userId);
+                if (user == null) {
+                    throw new ApiException(401, "User " + userId + " not found");
+                }
+                session = sessions.computeIfAbsent(userId, id -> UserSession.of(user));
+            }
+        }
+        session.touch();
+        if (!role.equals(session.roleCode)) {
+            throw new ApiException(403, "Needs a " + role.toLowerCase());
+        }
+        return session;
+    }
+
+    // drop idle sessions, at most once a minute
+    private void sweepIdleSessions() {
+        long now = System.currentTimeMillis();
+        long next = nextSessionSweepMs.get();
+        if (now >= next && nextSessionSweepMs.compareAndSet(next, now + 60_000)) {
+            sessions.values().removeIf(session -> session.idleMs() > SESSION_IDLE_MS);
+        }
+    }
+
+    private Response health(Request request) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("status", "ok");
+        body.put("threads", virtualThreads ? "virtual" : "platform");
+        body.put("sessions", sessions.size());
+        body.put("pool", DBConnect.getPool().getStats().toString());
+        body.put("inventory_snapshot", InventorySnapshot.shared().getStats().toString());
+        return ok(body);
+    }
+
+    private Response metrics(Request request) throws IOException {
+        byte[] bytes = Metrics.shared().prometheusText().getBytes(StandardCharsets.UTF_8);
+        request.exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        request.exchange.sendResponseHeaders(200, bytes.length);
+        request.exchange.getResponseBody().write(bytes);
+        return null;
+    }
+
+    private Response catalog(Request request) throws SQLException {
+        int limit = request.query.containsKey("limit") ? Integer.parseInt(request.query.get("limit")) : CATALOG_PAGE_SIZE;
+        if (limit < 1 || limit > 1000) {
+            throw new ApiException(400, "limit must be 1 to 1000");
+        }
+        ProductCatalogRepository.Entry after = null;
+        if (request.query.containsKey("after_product_id")) {
+            after = new ProductCatalogRepository.Entry(Integer.parseInt(request.param("after_product_id")),
+                    request.param("after_name"), request.param("after_manufacturer"), request.param("after_category"));
+        }
+        ProductCatalogRepository.Entry from = after;
+        List<ProductCatalogRepository.Entry> page = service(() -> productService.browseProducts(
+                request.query.get("manufacturer"), request.query.get("category"), from, limit));
+        List<Object> products = new ArrayList<>();
+        for (ProductCatalogRepository.Entry entry : page) {
+            Map<String, Object> product = new LinkedHashMap<>();
+            product.put("product_id", entry.productId);
+            product.put("name", entry.name);
+            product.put("manufacturer", entry.manufacturerName);
+            product.put("category", entry.categoryName);
+            products.add(product);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("products", products);
+        if (page.size() == limit) {
+            ProductCatalogRepository.Entry last = page.get(page.size() - 1);
+            Map<String, Object> next = new LinkedHashMap<>();
+            next.put("after_manufacturer", last.manufacturerName);
+            next.put("after_category", last.categoryName);
+            next.put("after_name", last.name);
+            next.put("after_product_id", last.productId);
+            body.put("next", next);
+        }
+        return ok(body);
+    }
+
+    private Response report(Request request) throws Exception {
+        String name = request.path.group(1);
+        boolean found = exportService.writeReportJson(name, () -> {
+            request.exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            // chunked, the rows are written as they are read
+            request.exchange.sendResponseHeaders(200, 0);
+            return request.exchange.getResponseBody();
+        });
+        if (!found) {
+            throw new ApiException(404, "Unknown report " + name + ", one of " + ExportService.reportNames());
+        }
+        return null;
+    }
+
+    private Response recall(Request request) {
+        String lot = request.param("lot");
+        String date = request.param("date");
+        int window = request.query.containsKey("window") ? Integer.parseInt(request.query.get("window")) : 1;
+        return console(200, () -> productionService.traceRecall(lot, date, window));
+    }
+
+    private Response activePlan(Request request) {
+        int productId = Integer.parseInt(request.path.group(1));
+        int planId = service(() -> recipeService.getActivePlanId(request.session, productId));
+        if (planId == -1) {
+            throw new ApiException(404, "No active recipe plan found for product " + productId);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("product_id", productId);
+        body.put("plan_id", planId);
+        return ok(body);
+    }
+
+    private Response recipeVersion(Request request) throws IOException {
+        Map<String, Object> body = object(request.body());
+        int productId = integer(body, "product_id");
+        Integer versionNo = body.get("version_no") == null ? null : integer(body, "version_no");
+        Integer basePlanId = body.get("base_plan_id") == null ? null : integer(body, "base_plan_id");
+        boolean activate = Boolean.TRUE.equals(body.get("activate"));
+        Map<Integer, Double> changes = new LinkedHashMap<>();
+        for (Object item : list(body, "changes")) {
+            Map<String, Object> change = object(item);
+            changes.put(integer(change, "ingredient_id"),
+                        change.get("quantity") == null ? null : number(change, "quantity").doubleValue());
+        }
+
+        capture.begin();
+        int planId;
+        ConsoleCapture.Buffer buffer;
+        try {
+            planId = recipeService.createRecipeVersion(productId, request.session.userId, versionNo, basePlanId,
+                                                       changes, activate);
+        } finally {
+            buffer = capture.end();
+            request.session.forgetActivePlan(productId);
+        }
+        if (planId == -1 || buffer.failed()) {
+            throw new ApiException(422, "Recipe plan not created", lines(buffer.text()));
+        }
+        Map<String, Object> created = new LinkedHashMap<>();
+        created.put("plan_id", planId);
+        created.put("output", lines(buffer.text()));
+        return new Response(201, created);
+    }
+
+    private Response productionBatch(Request request) throws IOException {
+        Map<String, Object> body = object(request.body());
+        int productId = integer(body, "product_id");
+        String batchId = text(body, "batch_id");
+        int quantity = integer(body, "quantity");
+        String expirationDate = LocalDate.parse(text(body, "expiration_date")).toString();
+        String lotsJson = body.get("lots") == null ? null : Json.write(list(body, "lots"));
+        UserSession session = request.session;
+
+        int planId = service(() -> recipeService.getActivePlanId(session, productId));
+        if (planId == -1) {
+            throw new ApiException(422, "No active recipe plan found for product " + productId);
+        }
+        return console(201, () -> {
+            if (lotsJson == null) {
+                productionService.createProductBatchFEFO(productId, session.userId, quantity, expirationDate,
+                                                         planId, batchId);
+            } else {
+                productionService.recordProductionBatch(productId, session.userId, quantity, expirationDate,
+                                                        lotsJson, planId, batchId);
+            }
+        });
+    }
+
+    private Response ingredientBatches(Request request) throws IOException {
+        Object body = request.body();
+        List<Object> items = body instanceof List ? castList(body) : Collections.singletonList(body);
+        String supplierId = request.session.userId;
+        List<IngredientBatchRepository.NewBatch> batches = new ArrayList<>();
+        for (Object item : items) {
+            Map<String, Object> fields = object(item);
+            Object supplier = fields.get("supplier_id");
+            if (supplier != null && !supplierId.equalsIgnoreCase(supplier.toString())) {
+                throw new ApiException(400, "supplier_id " + supplier + " is not " + supplierId);
+            }
+            batches.add(new IngredientBatchRepository.NewBatch(text(fields, "batch_id"), integer(fields, "ingredient_id"),
+                    supplierId, number(fields, "quantity_oz"), number(fields, "unit_cost"),
+                    LocalDate.parse(text(fields, "expiration_date"))));
+        }
+        List<IngredientBatchRepository.Outcome> outcomes = service(() -> ingredientService.createIngredientBatches(batches));
+        List<Object> results = new ArrayList<>();
+        for (IngredientBatchRepository.Outcome outcome : outcomes) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("batch_id", outcome.batch.batchId);
+            if (outcome.isReceived()) {
+                result.put("lot_number", outcome.lotNumber);
+            } else {
+                result.put("error", outcome.error);
+            }
+            results.add(result);
+        }
+        return ok(results);
+    }
+
+    /**
+     * run a service call with its console output captured, 422 with the output if it reported an error
+     */
+    private <T> T service(Callable<T> call) {
+        capture.begin();
+        ConsoleCapture.Buffer buffer;
+        T value;
+        try {
+            value = call.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ApiException(500, String.valueOf(e.getMessage()));
+        } finally {
+            buffer = capture.end();
+        }
+        if (buffer.failed()) {
+            throw new ApiException(422, "The request was not completed", lines(buffer.text()));
+        }
+        return value;
+    }
+
+    /**
+     * a service call that answers on the console, its output lines are the response
+     */
+    private Response console(int status, Runnable call) {
+        capture.begin();
+        ConsoleCapture.Buffer buffer;
+        try {
+            call.run();
+        } finally {
+            buffer = capture.end();
+        }
+        List<String> output = lines(buffer.text());
+        if (buffer.failed()) {
+            throw new ApiException(422, "The request was not completed", output);
+        }
+        return new Response(status, Collections.singletonMap("output", output));
+    }
+
+    private static Response ok(Object body) {
+        return new Response(200, body);
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        byte[] bytes = (Json.write(response.body) + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(response.status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static List<Object> products(List<ProductRepository.ProductRecord> records) {
+        List<Object> products = new ArrayList<>();
+        for (ProductRepository.ProductRecord record : records) {
+            Map<String, Object> product = new LinkedHashMap<>();
+            product.put("product_id", record.productId);
+            product.put("name", record.name);
+            product.put("category", record.categoryName);
+            product.put("standard_batch_units", record.standardBatchUnits);
+            products.add(product);
+        }
+        return products;
+    }
+
+    private static List<String> lines(String text) {
+        List<String> lines = new ArrayList<>();
+        for (String line : text.split("\n")) {
+            // stack frames of an exception a service printed
+            if (!line.trim().isEmpty() && !line.startsWith("\t")) {
+                lines.add(line.stripTrailing());
+            }
+        }
+        return lines;
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> query = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return query;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            query.put(name, eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> object(Object value) {
+        if (!(value instanceof Map)) {
+            throw new ApiException(400, "Expected a JSON object");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> castList(Object value) {
+        return (List<Object>) value;
+    }
+
+    private static List<Object> list(Map<String, Object> fields, String name) {
+        Object value = fields.get(name);
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        if (!(value instanceof List)) {
+            throw new ApiException(400, name + " must be an array");
+        }
+        return castList(value);
+    }
+
+    private static String text(Map<String, Object> fields, String name) {
+        Object value = fields.get(name);
+        if (value == null || value.toString().trim().isEmpty()) {
+            throw new ApiException(400, "Missing " + name);
+        }
+        return value.toString().trim();
+    }
+
+    private static BigDecimal number(Map<String, Object> fields, String name) {
+        Object value = fields.get(name);
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+        throw new ApiException(400, value == null ? "Missing " + name : name + " must be a number");
+    }
+
+    private static int integer(Map<String, Object> fields, String name) {
+        try {
+            return number(fields, name).intValueExact();
+        } catch (ArithmeticException e) {
+            throw new ApiException(400, name + " must be a whole number");
+        }
+    }
+}
@@ -0,0 +1,440 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * headless mode of Main: runs a file (or stdin for -) of typed commands directly against the services
+ *   java -jar app.jar --batch commands.txt [--threads N] [--quiet]
+ * one command per line, words split on blanks, '...' or "..." for a word with blanks (JSON goes in '...'),
+ * # starts a comment. commands run as the user of the last "as" line:
+ *   as <userId>
+ *   create-batch <productId> <batchId> <quantity> <expirationDate> [<lotsJson>]   FEFO lots without lotsJson
+ *   intake-lot <ingredientId> <batchId> <quantityOz> <unitCost> <expirationDate>
+ *   import-lots <file>
+ *   trace-recall <lotNumber> <recallDate> [<windowDays>]
+ *   trace-sources <productLotNumber>
+ *   report on-hand | nearly-out-of-stock | almost-expired | health-risk | cost-summary <productLotNumber>
+ *   export <report> <file>
+ *   wait                                  every command above it finishes before the ones below start
+ * with --threads N commands run N at a time, so a command may start before the one above it ended. each
+ * command's console output is kept apart and printed in file order under a line with its status and time,
+ * --quiet prints only those lines. a summary per command closes the run, the exit code is 1 if any command
+ * failed. with more threads than -Ddb.pool.maxSize commands wait for a connection.
+ */
+public class BatchRunner {
+
+    // commands read ahead of the one being printed, per thread
+    private static final int READ_AHEAD = 4;
+
+    private final int threads;
+    private final boolean quiet;
+    private final PrintStream out;
+    private final ProductionService productionService = new ProductionService();
+    private final IngredientService ingredientService = new IngredientService();
+    private final RecipeService recipeService = new RecipeService();
+    private final ExportService exportService = new ExportService();
+    // one login lookup per user for the whole run
+    private final Map<String, UserSession> sessions = new HashMap<>();
+    private final Map<String, Timings> timings = new TreeMap<>();
+
+    /**
+     * a command of the file with the session it runs in
+     */
+    private static final class Command {
+        final int line;
+        final String text;
+        final List<String> words;
+        final UserSession session;
+
+        Command(int line, String text, List<String> words, UserSession session) {
+            this.line = line;
+            this.text = text;
+            this.words = words;
+            this.session = session;
+        }
+    }
+
+    /**
+     * how a command went and what it printed
+     */
+    private static final class Result {
+        final Command command;
+        final boolean failed;
+        final long nanos;
+        final String output;
+
+        Result(Command command, boolean failed, long nanos, String output) {
+            this.command = command;
+            this.failed = failed;
+            this.nanos = nanos;
+            this.output = output;
+        }
+    }
+
+    BatchRunner(int threads, boolean quiet, PrintStream out) {
+        this.threads = threads;
+        this.quiet = quiet;
+        this.out = out;
+    }
+
+    /**
+     * entry point for Main --batch, returns the exit code
+     */
+    public static int run(String[] args) {
+        String source = null;
+        int threads = 1;
+        boolean quiet = false;
+        try {
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("--threads") && i + 1 < args.length) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--quiet")) {
+                    quiet = true;
+                } else if (source == null) {
+                    source = args[i];
+                } else {
+                    source = null;
+                    break;
+                }
+            }
+        } catch (NumberFormatException e) {
+            source = null;
+        }
+        if (source == null || threads < 1) {
+            System.out.println("Usage: --batch <command file, - for stdin> [--threads N] [--quiet]");
+            return 2;
+        }
+
+        ConsoleCapture capture = ConsoleCapture.install();
+        PrintStream console = capture.console();
+        try (BufferedReader reader = source.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(source), StandardCharsets.UTF_8)) {
+            return new BatchRunner(threads, quiet, console).run(reader, capture) ? 0 : 1;
+        } catch (IOException | InvalidPathException e) {
+            console.println("Error reading command file: " + e.getMessage());
+            return 2;
+        } finally {
+            ConsoleCapture.uninstall();
+        }
+    }
+
+    /**
+     * run every command of reader, false if any failed
+     */
+    boolean run(BufferedReader reader, ConsoleCapture capture) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "batch-runner");
+            t.setDaemon(true);
+            return t;
+        });
+        Deque<Future<Result>> running = new ArrayDeque<>();
+        long started = System.nanoTime();
+        int commands = 0;
+        int failed = 0;
+        UserSession session = null;
+        try {
+            int line = 0;
+            String text;
+            while ((text = reader.readLine()) != null) {
+                line++;
+                List<String> words;
+                try {
+                    words = words(text);
+                } catch (IllegalArgumentException e) {
+                    Command unreadable = new Command(line, text.trim(), Collections.singletonList("unreadable"), session);
+                    commands++;
+                    running.add(CompletableFuture.completedFuture(
+                            new Result(unreadable, true, 0, "Error: " + e.getMessage() + "\n")));
+                    continue;
+                }
+                if (words.isEmpty()) {
+                    continue;
+                }
+                Command command = new Command(line, text.trim(), words, session);
+                if (words.get(0).equals("wait")) {
+                    // every command above finishes before the next one starts
+                    while (!running.isEmpty()) {
+                        failed += print(running.poll()) ? 0 : 1;
+                    }
+                    continue;
+                }
+                if (words.get(0).equals("as")) {
+                    // resolved here, in file order, so the commands below it see the new user
+                    Result login = login(command);
+                    if (login.failed) {
+                        session = null;
+                        commands++;
+                        running.add(CompletableFuture.completedFuture(login));
+                    } else {
+                        session = sessions.get(words.get(1));
+                    }
+                    continue;
+                }
+                commands++;
+                running.add(workers.submit(() -> execute(command, capture)));
+                while (running.size() >= threads * READ_AHEAD) {
+                    failed += print(running.poll()) ? 0 : 1;
+                }
+            }
+            while (!running.isEmpty()) {
+                failed += print(running.poll()) ? 0 : 1;
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        summary(commands, failed, System.nanoTime() - started);
+        return failed == 0;
+    }
+
+    private Result login(Command command) {
+        if (command.words.size() != 2) {
+            return new Result(command, true, 0, "Error: as <userId>\n");
+        }
+        String userId = command.words.get(1);
+        if (sessions.containsKey(userId)) {
+            return new Result(command, false, 0, "");
+        }
+        long started = System.nanoTime();
+        try (Connection conn = DBConnect.getConnection()) {
+            UserRepository.UserRecord user = new UserRepository(conn).findById(userId);
+            if (user == null) {
+                return new Result(command, true, System.nanoTime() - started, "Error: User " + userId + " not found.\n");
+            }
+            sessions.put(userId, UserSession.of(user));
+            return new Result(command, false, System.nanoTime() - started, "");
+        } catch (SQLException e) {
+            return new Result(command, true, System.nanoTime() - started, "Error logging in: " + e.getMessage() + "\n");
+        }
+    }
+
+    /**
+     * run one command on a worker thread with its console output captured
+     * it failed when it wrote to System.err, printed a line starting with Error or threw
+     */
+    private Result execute(Command command, ConsoleCapture capture) {
+        capture.begin();
+        long started = System.nanoTime();
+        try {
+            dispatch(command);
+        } catch (RuntimeException e) {
+            System.err.println("Error: " + e);
+        }
+        long nanos = System.nanoTime() - started;
+        ConsoleCapture.Buffer buffer = capture.end();
+        return new Result(command, buffer.failed(), nanos, buffer.text());
+    }
+
+    private void dispatch(Command command) {
+        List<String> w = command.words;
+        UserSession session = command.session;
+        switch (w.get(0)) {
+            case "create-batch": {
+                if (!arguments(w, 4, 5) || !role(session, "MANUFACTURER")) {
+                    return;
+                }
+                int productId = Integer.parseInt(w.get(1));
+                int quantity = Integer.parseInt(w.get(3));
+                int planId = recipeService.getActivePlanId(session, productId);
+                if (planId == -1) {
+                    System.out.println("Error: No active recipe plan found for product " + productId + ".");
+                } else if (w.size() == 5) {
+                    productionService.createProductBatchFEFO(productId, session.userId, quantity, w.get(4), planId, w.get(2));
+                } else {
+                    productionService.recordProductionBatch(productId, session.userId, quantity, w.get(4), w.get(5),
+                            planId, w.get(2));
+                }
+                return;
+            }
+            case "intake-lot":
+                if (arguments(w, 5, 5) && role(session, "SUPPLIER")) {
+                    ingredientService.createIngredientBatch(session.userId, Integer.parseInt(w.get(1)),
+                            Double.parseDouble(w.get(3)), Double.parseDouble(w.get(4)), w.get(5), w.get(2));
+                }
+                return;
+            case "import-lots":
+                if (arguments(w, 1, 1) && role(session, "SUPPLIER")) {
+                    ingredientService.importIngredientBatches(session.userId, w.get(1));
+                }
+                return;
+            case "trace-recall":
+                if (arguments(w, 2, 3)) {
+                    productionService.traceRecall(w.get(1), w.get(2), w.size() > 3 ? Integer.parseInt(w.get(3)) : 1);
+                }
+                return;
+            case "trace-sources":
+                if (arguments(w, 1, 1)) {
+                    productionService.traceLotSources(w.get(1));
+                }
+                return;
+            case "report":
+                if (arguments(w, 1, 2)) {
+                    report(w);
+                }
+                return;
+            case "export":
+                if (arguments(w, 2, 2)) {
+                    exportService.exportReport(w.get(1), w.get(2));
+                }
+                return;
+            default:
+                System.out.println("Error: Unknown command " + w.get(0) + ".");
+        }
+    }
+
+    private void report(List<String> w) {
+        switch (w.get(1)) {
+            case "on-hand":
+                productionService.viewOnHandInventory();
+                return;
+            case "nearly-out-of-stock":
+                productionService.viewNearlyOutOfStock();
+                return;
+            case "almost-expired":
+                productionService.viewAlmostExpired();
+                return;
+            case "health-risk":
+                productionService.viewHealthRiskViolations();
+                return;
+            case "cost-summary":
+                if (w.size() == 3) {
+                    productionService.viewBatchCostSummary(w.get(2));
+                    return;
+                }
+                System.out.println("Error: report cost-summary <productLotNumber>");
+                return;
+            default:
+                System.out.println("Error: Unknown report " + w.get(1) +
+                                   ", one of on-hand, nearly-out-of-stock, almost-expired, health-risk, cost-summary.");
+        }
+    }
+
+    private static boolean arguments(List<String> w, int min, int max) {
+        int count = w.size() - 1;
+        if (count < min || count > max) {
+            System.out.println("Error: " + w.get(0) + " takes " + (min == max ? "" + min : min + " to " + max) +
+                               " arguments, got " + count + ".");
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean role(UserSession session, String roleCode) {
+        if (session == null || !roleCode.equals(session.roleCode)) {
+            System.out.println("Error: Needs a " + roleCode.toLowerCase() + ", use \"as <userId>\" first.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * wait for a command and print its status line and output, false if it failed
+     */
+    private boolean print(Future<Result> running) {
+        Result result;
+        try {
+            result = running.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+        Command command = result.command;
+        out.printf("[%d] %s | %s %.1f ms%n", command.line, command.text, result.failed ? "FAILED" : "ok",
+                result.nanos / 1e6);
+        if (!result.output.isEmpty() && (!quiet || result.failed)) {
+            for (String line : result.output.split("\n")) {
+                if (!line.trim().isEmpty()) {
+                    out.println("    " + line);
+                }
+            }
+        }
+        timings.computeIfAbsent(command.words.get(0), name -> new Timings()).add(result.nanos, result.failed);
+        return !result.failed;
+    }
+
+    private void summary(int commands, int failed, long nanos) {
+        double seconds = nanos / 1e9;
+        out.printf("%nBATCH SUMMARY%ncommands=%d failed=%d threads=%d wall=%.2fs rate=%.0f/min%n",
+                commands, failed, threads, seconds, seconds == 0 ? 0.0 : commands / seconds * 60);
+        for (Map.Entry<String, Timings> entry : timings.entrySet()) {
+            out.println("  " + entry.getKey() + " " + entry.getValue());
+        }
+    }
+
+    /**
+     * the words of a command line, quotes kept out, nothing after an unquoted #
+     */
+    static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = null;
+        char quote = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    word.append(c);
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+                if (word == null) {
+                    word = new StringBuilder();
+                }
+            } else if (c == '#') {
+                break;
+            } else if (Character.isWhitespace(c)) {
+                if (word != null) {
+                    words.add(word.toString());
+                    word = null;
+                }
+            } else {
+                if (word == null) {
+                    word = new StringBuilder();
+                }
+                word.append(c);
+            }
+        }
+        if (quote != 0) {
+            throw new IllegalArgumentException("unterminated quote");
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    /**
+     * run times of one command
+     */
+    private static final class Timings {
+        private final List<Long> nanos = new ArrayList<>();
+        private int failed;
+
+        void add(long nanos, boolean failed) {
+            this.nanos.add(nanos);
+            if (failed) {
+                this.failed++;
+            }
+        }
+
+        @Override
+        public String toString() {
+            List<Long> sorted = new ArrayList<>(nanos);
+            Collections.sort(sorted);
+            long total = 0;
+            for (long n : sorted) {
+                total += n;
+            }
+            return String.format("count=%d failed=%d mean=%.1fms p50=%.1fms p95=%.1fms max=%.1fms",
+                    sorted.size(), failed, total / 1e6 / sorted.size(), percentile(sorted, 0.50) / 1e6,
+                    percentile(sorted, 0.95) / 1e6, sorted.get(sorted.size() - 1) / 1e6);
+        }
+
+        private static long percentile(List<Long> sorted, double p) {
+            return sorted.get((int) Math.min(sorted.size() - 1, Math.ceil(p * sorted.size()) - 1));
+        }
+    }
+}
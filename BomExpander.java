@@ -0,0 +1,242 @@
+import java.sql.*;
+import java.util.*;
+
+/**
+ * multi-level BOM expansion
+ * a compound is resolved through IngredientComposition down to atomic ingredients, level by level, each level
+ * split in proportion to the composition quantities (the same math as refresh_flattened_bom).
+ * the normalized atomic vector of every compound (atomic ingredient -> oz in one oz of the compound) is memoized,
+ * so a sub-assembly shared by many compounds is expanded once. when a composition changes only that compound
+ * and the compounds containing it, at any depth, are dropped from the memo.
+ * an ingredient without composition rows is a leaf, so is a compound nobody has composed yet.
+ */
+public class BomExpander {
+
+    private static final BomExpander SHARED = new BomExpander();
+
+    // parent -> material -> quantity, as in IngredientComposition
+    private Map<Integer, Map<Integer, Double>> compositions = new HashMap<>();
+    // material -> compounds it is part of
+    private Map<Integer, Set<Integer>> parents = new HashMap<>();
+    // compound -> normalized atomic vector
+    private final Map<Integer, Vector> vectors = new HashMap<>();
+    private long fingerprint = -1;
+    private long expansions;
+
+    /**
+     * the expander used by the services
+     */
+    public static BomExpander shared() {
+        return SHARED;
+    }
+
+    /**
+     * reload the compositions if the table changed since the last refresh
+     * costs one aggregate over IngredientComposition when nothing changed
+     */
+    public void refresh(Connection conn) throws SQLException {
+        CompositionRepository repository = new CompositionRepository(conn);
+        long current = repository.findFingerprint();
+        synchronized (this) {
+            if (current == fingerprint) {
+                return;
+            }
+        }
+        Map<Integer, Map<Integer, Double>> loaded = new HashMap<>();
+        repository.forEachComposition((parentId, childId, quantity) ->
+                loaded.computeIfAbsent(parentId, id -> new HashMap<>()).put(childId, quantity));
+        synchronized (this) {
+            Set<Integer> changed = new HashSet<>(compositions.keySet());
+            changed.addAll(loaded.keySet());
+            changed.removeIf(parentId -> Objects.equals(compositions.get(parentId), loaded.get(parentId)));
+            compositions = loaded;
+            parents = new HashMap<>();
+            loaded.forEach((parentId, materials) -> materials.keySet().forEach(childId ->
+                    parents.computeIfAbsent(childId, id -> new HashSet<>()).add(parentId)));
+            changed.forEach(this::invalidate);
+            fingerprint = current;
+        }
+    }
+
+    /**
+     * replace the composition of a compound in memory, an empty map makes it a leaf
+     * the database is not touched, the next refresh brings back what the table says
+     */
+    public synchronized void setComposition(int parentId, Map<Integer, Double> materials) {
+        Map<Integer, Double> old = compositions.remove(parentId);
+        if (old != null) {
+            old.keySet().forEach(childId -> {
+                Set<Integer> childParents = parents.get(childId);
+                childParents.remove(parentId);
+                if (childParents.isEmpty()) {
+                    parents.remove(childId);
+                }
+            });
+        }
+        if (!materials.isEmpty()) {
+            compositions.put(parentId, new HashMap<>(materials));
+            materials.keySet().forEach(childId ->
+                    parents.computeIfAbsent(childId, id -> new HashSet<>()).add(parentId));
+        }
+        invalidate(parentId);
+        fingerprint = -1;
+    }
+
+    /**
+     * atomic ingredient -> oz in one oz of the ingredient, a leaf is all itself
+     * throws IllegalStateException if the ingredient is part of itself
+     */
+    public synchronized Map<Integer, Double> atomicVector(int ingredientId) {
+        return vector(ingredientId, new HashSet<>()).asMap();
+    }
+
+    /**
+     * atomic quantities of a set of ingredient quantities, like a recipe
+     */
+    public synchronized Map<Integer, Double> expand(Map<Integer, Double> quantities) {
+        Map<Integer, Double> atomic = new HashMap<>();
+        quantities.forEach((ingredientId, quantity) -> {
+            Vector vector = vector(ingredientId, new HashSet<>());
+            for (int i = 0; i < vector.ids.length; i++) {
+                atomic.merge(vector.ids[i], quantity * vector.shares[i], Double::sum);
+            }
+        });
+        return atomic;
+    }
+
+    /**
+     * true if adding childId to parentId would make a compound part of itself
+     */
+    public synchronized boolean wouldCreateCycle(int parentId, int childId) {
+        if (parentId == childId) {
+            return true;
+        }
+        // parentId must not be reachable from childId
+        Deque<Integer> stack = new ArrayDeque<>();
+        Set<Integer> seen = new HashSet<>();
+        stack.push(childId);
+        while (!stack.isEmpty()) {
+            Map<Integer, Double> materials = compositions.get(stack.pop());
+            if (materials == null) {
+                continue;
+            }
+            for (int materialId : materials.keySet()) {
+                if (materialId == parentId) {
+                    return true;
+                }
+                if (seen.add(materialId)) {
+                    stack.push(materialId);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * compounds with a memoized vector
+     */
+    public synchronized int memoized() {
+        return vectors.size();
+    }
+
+    /**
+     * vectors computed since the expander was created, a memo hit does not count
+     */
+    public synchronized long expansions() {
+        return expansions;
+    }
+
+    // depth first, visiting holds the compounds on the current path to catch cycles
+    private Vector vector(int ingredientId, Set<Integer> visiting) {
+        Vector vector = vectors.get(ingredientId);
+        if (vector != null) {
+            return vector;
+        }
+        Map<Integer, Double> materials = compositions.get(ingredientId);
+        if (materials == null) {
+            return new Vector(new int[] { ingredientId }, new double[] { 1.0 });
+        }
+        if (!visiting.add(ingredientId)) {
+            throw new IllegalStateException("Ingredient " + ingredientId + " is part of itself");
+        }
+        double total = 0;
+        for (double quantity : materials.values()) {
+            total += quantity;
+        }
+        vector = Vector.EMPTY;
+        for (Map.Entry<Integer, Double> material : materials.entrySet()) {
+            vector = vector.plus(vector(material.getKey(), visiting), material.getValue() / total);
+        }
+        visiting.remove(ingredientId);
+        vectors.put(ingredientId, vector);
+        expansions++;
+        return vector;
+    }
+
+    // drop the vector of a compound and of every compound containing it
+    private void invalidate(int ingredientId) {
+        Deque<Integer> stack = new ArrayDeque<>();
+        Set<Integer> seen = new HashSet<>();
+        stack.push(ingredientId);
+        seen.add(ingredientId);
+        while (!stack.isEmpty()) {
+            int id = stack.pop();
+            vectors.remove(id);
+            for (int parentId : parents.getOrDefault(id, Collections.emptySet())) {
+                if (seen.add(parentId)) {
+                    stack.push(parentId);
+                }
+            }
+        }
+    }
+
+    /**
+     * atomic ids in ascending order with their shares, vectors of a deep BOM cover thousands of
+     * atomic ingredients so they are merged as sorted primitive arrays instead of boxed maps
+     */
+    private static final class Vector {
+        static final Vector EMPTY = new Vector(new int[0], new double[0]);
+
+        final int[] ids;
+        final double[] shares;
+        private Map<Integer, Double> map;
+
+        Vector(int[] ids, double[] shares) {
+            this.ids = ids;
+            this.shares = shares;
+        }
+
+        // this + weight * other, one pass over both
+        Vector plus(Vector other, double weight) {
+            int[] mergedIds = new int[ids.length + other.ids.length];
+            double[] mergedShares = new double[mergedIds.length];
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < ids.length || j < other.ids.length) {
+                if (j == other.ids.length || (i < ids.length && ids[i] < other.ids[j])) {
+                    mergedIds[n] = ids[i];
+                    mergedShares[n++] = shares[i++];
+                } else if (i == ids.length || other.ids[j] < ids[i]) {
+                    mergedIds[n] = other.ids[j];
+                    mergedShares[n++] = weight * other.shares[j++];
+                } else {
+                    mergedIds[n] = ids[i];
+                    mergedShares[n++] = shares[i++] + weight * other.shares[j++];
+                }
+            }
+            return new Vector(Arrays.copyOf(mergedIds, n), Arrays.copyOf(mergedShares, n));
+        }
+
+        Map<Integer, Double> asMap() {
+            if (map == null) {
+                Map<Integer, Double> atomic = new LinkedHashMap<>();
+                for (int i = 0; i < ids.length; i++) {
+                    atomic.put(ids[i], shares[i]);
+                }
+                map = Collections.unmodifiableMap(atomic);
+            }
+            return map;
+        }
+    }
+}
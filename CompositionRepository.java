@@ -0,0 +1,42 @@
+import java.sql.*;
+
+/**
+ * IngredientComposition rows on a borrowed connection
+ */
+public class CompositionRepository extends Repository {
+
+    /**
+     * one composition row, parent compound -> material
+     */
+    @FunctionalInterface
+    public interface CompositionHandler {
+        void composition(int parentId, int childId, double quantity);
+    }
+
+    public CompositionRepository(Connection conn) {
+        super(conn);
+    }
+
+    /**
+     * row count and an order independent checksum of all rows, changes whenever a row is added,
+     * removed or changed
+     */
+    public long findFingerprint() throws SQLException {
+        return queryOne("composition.fingerprint",
+                "SELECT COUNT(*), COALESCE(BIT_XOR(CRC32(CONCAT_WS(':', parent_ingredient_id, " +
+                "child_ingredient_id, quantity))), 0) FROM IngredientComposition",
+                NO_PARAMS,
+                rs -> rs.getLong(1) << 32 ^ rs.getLong(2));
+    }
+
+    /**
+     * every composition row
+     */
+    public void forEachComposition(CompositionHandler handler) throws SQLException {
+        queryEach("composition.all",
+                "SELECT parent_ingredient_id, child_ingredient_id, quantity FROM IngredientComposition",
+                NO_PARAMS,
+                rs -> handler.composition(rs.getInt("parent_ingredient_id"), rs.getInt("child_ingredient_id"),
+                        rs.getDouble("quantity")));
+    }
+}
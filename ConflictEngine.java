@@ -0,0 +1,196 @@
+import java.sql.*;
+import java.util.*;
+
+/**
+ * do-not-combine checks in memory
+ * the ingredients that appear in DoNotCombine get a dense index, every one of them has a bitset row with the
+ * indexes it can't be combined with. a whole ingredient set is checked in one pass: the set becomes a bitset
+ * mask and each member's row is and-ed with it, so every conflicting pair is found without a query per pair.
+ * the rows are an immutable snapshot swapped on refresh, checks don't lock.
+ */
+public class ConflictEngine {
+
+    private static final ConflictEngine SHARED = new ConflictEngine();
+
+    private volatile Graph graph = Graph.EMPTY;
+    private long fingerprint = -1;
+
+    /**
+     * the engine used by the services
+     */
+    public static ConflictEngine shared() {
+        return SHARED;
+    }
+
+    /**
+     * reload the pairs if DoNotCombine changed since the last refresh
+     * costs one aggregate over DoNotCombine when nothing changed
+     */
+    public synchronized void refresh(Connection conn) throws SQLException {
+        DoNotCombineRepository repository = new DoNotCombineRepository(conn);
+        long current = repository.findFingerprint();
+        if (current == fingerprint) {
+            return;
+        }
+        List<Conflict> pairs = new ArrayList<>();
+        repository.forEachPair((ingredientA, nameA, ingredientB, nameB) ->
+                pairs.add(new Conflict(ingredientA, nameA, ingredientB, nameB)));
+        graph = new Graph(pairs);
+        fingerprint = current;
+    }
+
+    /**
+     * replace the pairs in memory, the database is not touched
+     */
+    public synchronized void setPairs(Collection<Conflict> pairs) {
+        graph = new Graph(pairs);
+        fingerprint = -1;
+    }
+
+    /**
+     * every incompatible pair within a set of ingredients, sorted by ingredient ids
+     */
+    public List<Conflict> conflicts(Collection<Integer> ingredientIds) {
+        return graph.conflicts(ingredientIds);
+    }
+
+    /**
+     * every incompatible pair within a set of ingredients and the atomic materials of its compounds,
+     * with both engines refreshed first
+     */
+    public List<Conflict> check(Connection conn, Collection<Integer> ingredientIds) throws SQLException {
+        refresh(conn);
+        if (graph.size() == 0) {
+            return Collections.emptyList();
+        }
+        BomExpander bom = BomExpander.shared();
+        bom.refresh(conn);
+        Set<Integer> ingredients = new HashSet<>(ingredientIds);
+        for (int ingredientId : ingredientIds) {
+            ingredients.addAll(bom.atomicVector(ingredientId).keySet());
+        }
+        return conflicts(ingredients);
+    }
+
+    /**
+     * number of pairs
+     */
+    public int pairCount() {
+        return graph.pairs;
+    }
+
+    /**
+     * "A (1) + B (2), C (3) + D (4)" for messages
+     */
+    public static String describe(List<Conflict> conflicts) {
+        StringBuilder text = new StringBuilder();
+        for (Conflict conflict : conflicts) {
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            text.append(conflict);
+        }
+        return text.toString();
+    }
+
+    /**
+     * one incompatible pair, ingredientA < ingredientB
+     */
+    public static class Conflict {
+        public final int ingredientA;
+        public final String nameA;
+        public final int ingredientB;
+        public final String nameB;
+
+        public Conflict(int ingredientA, String nameA, int ingredientB, String nameB) {
+            this.ingredientA = ingredientA;
+            this.nameA = nameA;
+            this.ingredientB = ingredientB;
+            this.nameB = nameB;
+        }
+
+        @Override
+        public String toString() {
+            return nameA + " (" + ingredientA + ") + " + nameB + " (" + ingredientB + ")";
+        }
+    }
+
+    /**
+     * dense index over the ingredients in DoNotCombine and one bitset row per ingredient
+     * n ingredients take n * n / 8 bytes, a few thousand paired ingredients stay within a few MB
+     */
+    private static final class Graph {
+        static final Graph EMPTY = new Graph(Collections.emptyList());
+
+        // ascending ingredient ids, position is the dense index
+        final int[] ids;
+        final long[][] rows;
+        // dense index pair -> the pair with its names, only looked up for hits
+        final Map<Long, Conflict> byIndexes = new HashMap<>();
+        final int pairs;
+
+        Graph(Collection<Conflict> pairList) {
+            TreeSet<Integer> distinct = new TreeSet<>();
+            for (Conflict pair : pairList) {
+                distinct.add(pair.ingredientA);
+                distinct.add(pair.ingredientB);
+            }
+            ids = distinct.stream().mapToInt(Integer::intValue).toArray();
+            int words = (ids.length + 63) >>> 6;
+            rows = new long[ids.length][words];
+            for (Conflict pair : pairList) {
+                int a = Arrays.binarySearch(ids, pair.ingredientA);
+                int b = Arrays.binarySearch(ids, pair.ingredientB);
+                rows[a][b >>> 6] |= 1L << b;
+                rows[b][a >>> 6] |= 1L << a;
+                byIndexes.put(key(Math.min(a, b), Math.max(a, b)), pair);
+            }
+            pairs = byIndexes.size();
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        List<Conflict> conflicts(Collection<Integer> ingredientIds) {
+            if (ids.length == 0) {
+                return Collections.emptyList();
+            }
+            // the set as a mask over the dense index, ingredients without any pair drop out here
+            long[] mask = new long[(ids.length + 63) >>> 6];
+            int[] members = new int[Math.min(ingredientIds.size(), ids.length)];
+            int memberCount = 0;
+            for (int ingredientId : ingredientIds) {
+                int index = Arrays.binarySearch(ids, ingredientId);
+                if (index >= 0 && (mask[index >>> 6] & 1L << index) == 0) {
+                    mask[index >>> 6] |= 1L << index;
+                    members[memberCount++] = index;
+                }
+            }
+            Arrays.sort(members, 0, memberCount);
+
+            List<Conflict> found = new ArrayList<>();
+            for (int m = 0; m < memberCount; m++) {
+                int a = members[m];
+                long[] row = rows[a];
+                // only partners above a, every pair is reported once
+                for (int word = a >>> 6; word < mask.length; word++) {
+                    long hits = row[word] & mask[word];
+                    if (word == a >>> 6) {
+                        hits &= -2L << (a & 63);
+                    }
+                    while (hits != 0) {
+                        int b = (word << 6) + Long.numberOfTrailingZeros(hits);
+                        found.add(byIndexes.get(key(a, b)));
+                        hits &= hits - 1;
+                    }
+                }
+            }
+            return found;
+        }
+
+        private static long key(int a, int b) {
+            return (long) a << 32 | b;
+        }
+    }
+}
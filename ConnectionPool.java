@@ -0,0 +1,570 @@
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * pooled DataSource behind DBConnect.getConnection()
+ * keeps physical connections open between calls so services stop paying
+ * the TCP + auth handshake for every short operation.
+ * close() on a borrowed connection returns it to the pool.
+ */
+public class ConnectionPool implements DataSource {
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final Config config;
+
+    // idle physical connections, most recently returned first
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    // borrowed connections, checked by the housekeeper for leaks
+    private final Set<Lease> leased = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final ScheduledExecutorService housekeeper;
+    // open physical connections (idle + leased + being created)
+    private int totalConnections = 0;
+    private boolean closed = false;
+
+    // metrics
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong waitNanosTotal = new AtomicLong();
+    private final AtomicLong waitNanosMax = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    public ConnectionPool(String url, String user, String password, Config config) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.config = config;
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(config.leakThresholdMs, config.idleTimeoutMs) / 2);
+        housekeeper.scheduleAtFixedRate(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * borrow a connection, waits up to maxWaitMs when the pool is exhausted
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(config.maxWaitMs);
+
+        while (true) {
+            PooledConnection candidate = null;
+            boolean create = false;
+
+            lock.lock();
+            try {
+                while (true) {
+                    if (closed) {
+                        throw new SQLException("Connection pool is closed.");
+                    }
+                    candidate = idle.pollFirst();
+                    if (candidate != null) {
+                        break;
+                    }
+                    if (totalConnections < config.maxSize) {
+                        // reserve a slot, the connection is opened outside the lock
+                        totalConnections++;
+                        create = true;
+                        break;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        timeoutCount.incrementAndGet();
+                        throw new SQLTimeoutException("Timed out after " + config.maxWaitMs +
+                                " ms waiting for a database connection (pool max " + config.maxSize + ").");
+                    }
+                    waiting.incrementAndGet();
+                    try {
+                        available.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a database connection.", e);
+                    } finally {
+                        waiting.decrementAndGet();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                try {
+                    candidate = openPhysical();
+                } catch (SQLException e) {
+                    releaseSlot();
+                    throw e;
+                }
+            } else if (!validate(candidate)) {
+                // stale connection (server timeout, network drop), drop it and try again
+                validationFailures.incrementAndGet();
+                destroy(candidate);
+                continue;
+            }
+
+            recordWait(System.nanoTime() - start);
+            Lease lease = new Lease(candidate);
+            leased.add(lease);
+            return lease.proxy;
+        }
+    }
+
+    /**
+     * pooled connections always use the configured credentials
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pooled connections use the configured credentials.");
+    }
+
+    /**
+     * close every idle connection and refuse new borrows, leased connections close on return
+     */
+    public void close() {
+        List<PooledConnection> toClose;
+        lock.lock();
+        try {
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        housekeeper.shutdownNow();
+        for (PooledConnection pc : toClose) {
+            destroy(pc);
+        }
+    }
+
+    /**
+     * open minSize connections up front so the first calls don't pay the handshake
+     */
+    public void warmUp() {
+        while (true) {
+            lock.lock();
+            try {
+                if (closed || totalConnections >= config.minSize) {
+                    return;
+                }
+                totalConnections++;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                giveBack(openPhysical());
+            } catch (SQLException e) {
+                releaseSlot();
+                System.err.println("Error warming up connection pool: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * snapshot of pool counters
+     */
+    public Stats getStats() {
+        int idleNow;
+        int total;
+        lock.lock();
+        try {
+            idleNow = idle.size();
+            total = totalConnections;
+        } finally {
+            lock.unlock();
+        }
+        return new Stats(total, idleNow, leased.size(), waiting.get(), borrowCount.get(),
+                waitNanosTotal.get(), waitNanosMax.get(), timeoutCount.get(), createdCount.get(),
+                destroyedCount.get(), validationFailures.get(), leakCount.get());
+    }
+
+    private PooledConnection openPhysical() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, user, password);
+        createdCount.incrementAndGet();
+        return new PooledConnection(physical, config.statementCacheSize);
+    }
+
+    private boolean validate(PooledConnection pc) {
+        long idleMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pc.lastUsedNanos);
+        if (idleMs < config.validateAfterIdleMs) {
+            return true;
+        }
+        try {
+            return pc.physical.isValid(config.validationTimeoutSec);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * called when a lease is closed, resets session state before reuse
+     */
+    private void release(Lease lease) {
+        leased.remove(lease);
+        PooledConnection pc = lease.pooled;
+        // ad-hoc statements die with the lease, cached ones stay with the physical connection
+        lease.closeStatements();
+        try {
+            if (pc.physical.isClosed()) {
+                destroy(pc);
+                return;
+            }
+            // services that return early inside a transaction leave auto commit off
+            if (!pc.physical.getAutoCommit()) {
+                pc.physical.rollback();
+                pc.physical.setAutoCommit(true);
+            }
+            pc.physical.clearWarnings();
+        } catch (SQLException e) {
+            destroy(pc);
+            return;
+        }
+        pc.lastUsedNanos = System.nanoTime();
+        giveBack(pc);
+    }
+
+    private void giveBack(PooledConnection pc) {
+        lock.lock();
+        try {
+            if (!closed) {
+                idle.addFirst(pc);
+                available.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        destroy(pc);
+    }
+
+    private void destroy(PooledConnection pc) {
+        pc.statements.close();
+        try {
+            pc.physical.close();
+        } catch (SQLException e) {
+            // already broken, nothing else to do
+        }
+        destroyedCount.incrementAndGet();
+        releaseSlot();
+    }
+
+    private void releaseSlot() {
+        lock.lock();
+        try {
+            totalConnections--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recordWait(long nanos) {
+        borrowCount.incrementAndGet();
+        waitNanosTotal.addAndGet(nanos);
+        waitNanosMax.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * runs on the housekeeper thread: report leaks, trim idle connections above minSize
+     */
+    private void housekeep() {
+        long now = System.nanoTime();
+
+        for (Lease lease : leased) {
+            if (config.leakThresholdMs <= 0) {
+                break;
+            }
+            long heldMs = TimeUnit.NANOSECONDS.toMillis(now - lease.borrowedNanos);
+            if (heldMs >= config.leakThresholdMs && !lease.leakReported) {
+                lease.leakReported = true;
+                leakCount.incrementAndGet();
+                System.err.println("Possible connection leak: connection held for " + heldMs +
+                        " ms by thread " + lease.threadName + ", borrowed at:");
+                lease.borrowSite.printStackTrace();
+            }
+        }
+
+        List<PooledConnection> expired = new ArrayList<>();
+        lock.lock();
+        try {
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext() && totalConnections - expired.size() > config.minSize) {
+                PooledConnection pc = it.next();
+                if (TimeUnit.NANOSECONDS.toMillis(now - pc.lastUsedNanos) >= config.idleTimeoutMs) {
+                    it.remove();
+                    expired.add(pc);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (PooledConnection pc : expired) {
+            destroy(pc);
+        }
+    }
+
+    // DataSource boilerplate
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        DriverManager.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return DriverManager.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * statement cache of the physical connection behind a borrowed connection,
+     * null if conn did not come from a ConnectionPool
+     */
+    public static StatementCache statementCacheFor(Connection conn) {
+        if (conn != null && Proxy.isProxyClass(conn.getClass())
+                && Proxy.getInvocationHandler(conn) instanceof Lease) {
+            return ((Lease) Proxy.getInvocationHandler(conn)).pooled.statements;
+        }
+        return null;
+    }
+
+    /**
+     * a physical connection owned by the pool
+     */
+    static class PooledConnection {
+        final Connection physical;
+        final StatementCache statements;
+        volatile long lastUsedNanos = System.nanoTime();
+
+        PooledConnection(Connection physical, int statementCacheSize) {
+            this.physical = physical;
+            this.statements = new StatementCache(physical, statementCacheSize);
+        }
+    }
+
+    /**
+     * one borrow of a pooled connection, hands out a proxy whose close() returns it
+     */
+    private class Lease implements InvocationHandler {
+        final PooledConnection pooled;
+        final Connection proxy;
+        final long borrowedNanos = System.nanoTime();
+        final String threadName = Thread.currentThread().getName();
+        // only captured when leak detection is on, stack walking is not free
+        final Throwable borrowSite = config.leakThresholdMs > 0 ? new Throwable("connection borrowed here") : null;
+        volatile boolean leakReported = false;
+        private boolean returned = false;
+        // statements created through this lease, closed when it is returned
+        private final List<Statement> statements = new ArrayList<>();
+
+        Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+            this.proxy = (Connection) Proxy.newProxyInstance(
+                    ConnectionPool.class.getClassLoader(), new Class<?>[] { Connection.class }, this);
+        }
+
+        @Override
+        public Object invoke(Object p, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    synchronized (this) {
+                        if (!returned) {
+                            returned = true;
+                            release(this);
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    synchronized (this) {
+                        return returned || pooled.physical.isClosed();
+                    }
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(pooled.physical)) {
+                        return pooled.physical;
+                    }
+                    break;
+                case "isWrapperFor":
+                    if (((Class<?>) args[0]).isInstance(pooled.physical)) {
+                        return true;
+                    }
+                    break;
+                case "equals":
+                    return p == args[0];
+                case "hashCode":
+                    return System.identityHashCode(p);
+                case "toString":
+                    return "PooledConnection[" + pooled.physical + "]";
+                default:
+                    break;
+            }
+            synchronized (this) {
+                if (returned) {
+                    throw new SQLException("Connection has already been returned to the pool.");
+                }
+            }
+            try {
+                Object result = method.invoke(pooled.physical, args);
+                if (result instanceof Statement) {
+                    result = Metrics.timed((Statement) result);
+                    synchronized (this) {
+                        statements.add((Statement) result);
+                    }
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        synchronized void closeStatements() {
+            for (Statement stmt : statements) {
+                try {
+                    stmt.close();
+                } catch (SQLException e) {
+                    // closing the rest still matters
+                }
+            }
+            statements.clear();
+        }
+    }
+
+    /**
+     * pool settings, read from -Ddb.pool.* system properties
+     */
+    public static class Config {
+        final int minSize;
+        final int maxSize;
+        final long maxWaitMs;
+        final int validationTimeoutSec;
+        final long validateAfterIdleMs;
+        final long leakThresholdMs;
+        final long idleTimeoutMs;
+        final int statementCacheSize;
+
+        public Config(int minSize, int maxSize, long maxWaitMs, int validationTimeoutSec,
+                      long validateAfterIdleMs, long leakThresholdMs, long idleTimeoutMs,
+                      int statementCacheSize) {
+            if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+                throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+            }
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.maxWaitMs = maxWaitMs;
+            this.validationTimeoutSec = validationTimeoutSec;
+            this.validateAfterIdleMs = validateAfterIdleMs;
+            this.leakThresholdMs = leakThresholdMs;
+            this.idleTimeoutMs = idleTimeoutMs;
+            this.statementCacheSize = statementCacheSize;
+        }
+
+        public static Config fromSystemProperties() {
+            return new Config(
+                    Integer.getInteger("db.pool.minSize", 1),
+                    Integer.getInteger("db.pool.maxSize", 10),
+                    Long.getLong("db.pool.maxWaitMs", 30_000L),
+                    Integer.getInteger("db.pool.validationTimeoutSec", 2),
+                    Long.getLong("db.pool.validateAfterIdleMs", 5_000L),
+                    Long.getLong("db.pool.leakThresholdMs", 60_000L),
+                    Long.getLong("db.pool.idleTimeoutMs", 600_000L),
+                    Integer.getInteger("db.pool.statementCacheSize", 64));
+        }
+    }
+
+    /**
+     * point-in-time pool metrics
+     */
+    public static class Stats {
+        public final int total;
+        public final int idle;
+        public final int active;
+        public final int waiting;
+        public final long borrows;
+        public final long waitNanosTotal;
+        public final long waitNanosMax;
+        public final long timeouts;
+        public final long created;
+        public final long destroyed;
+        public final long validationFailures;
+        public final long leaks;
+
+        Stats(int total, int idle, int active, int waiting, long borrows, long waitNanosTotal,
+              long waitNanosMax, long timeouts, long created, long destroyed,
+              long validationFailures, long leaks) {
+            this.total = total;
+            this.idle = idle;
+            this.active = active;
+            this.waiting = waiting;
+            this.borrows = borrows;
+            this.waitNanosTotal = waitNanosTotal;
+            this.waitNanosMax = waitNanosMax;
+            this.timeouts = timeouts;
+            this.created = created;
+            this.destroyed = destroyed;
+            this.validationFailures = validationFailures;
+            this.leaks = leaks;
+        }
+
+        public double averageWaitMillis() {
+            return borrows == 0 ? 0.0 : waitNanosTotal / (double) borrows / 1_000_000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("total=%d idle=%d active=%d waiting=%d borrows=%d " +
+                    "avgWait=%.3fms maxWait=%.3fms timeouts=%d created=%d destroyed=%d " +
+                    "validationFailures=%d leaks=%d",
+                    total, idle, active, waiting, borrows, averageWaitMillis(),
+                    waitNanosMax / 1_000_000.0, timeouts, created, destroyed, validationFailures, leaks);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * per-thread capture of System.out and System.err, for running the console services headless
+ * the services report through the console, so BatchRunner and ApiServer replace System.out and System.err
+ * with streams that send what a thread writes between begin() and end() to that thread's own buffer.
+ * threads not capturing write through to the real streams.
+ */
+final class ConsoleCapture {
+
+    private static ConsoleCapture installed;
+
+    /**
+     * what one thread wrote
+     */
+    static final class Buffer {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private boolean wroteErr;
+
+        String text() {
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * the services report a failure on System.err or as a line starting with Error
+         */
+        boolean failed() {
+            String text = text();
+            return wroteErr || text.startsWith("Error") || text.contains("\nError");
+        }
+    }
+
+    private final ThreadLocal<Buffer> current = new ThreadLocal<>();
+    private final PrintStream console;
+    private final PrintStream consoleErr;
+
+    private ConsoleCapture(PrintStream console, PrintStream consoleErr) {
+        this.console = console;
+        this.consoleErr = consoleErr;
+    }
+
+    /**
+     * replace System.out and System.err, once per process
+     */
+    static synchronized ConsoleCapture install() {
+        if (installed == null) {
+            installed = new ConsoleCapture(System.out, System.err);
+            System.setOut(new PrintStream(installed.new Routed(installed.console, false), true));
+            System.setErr(new PrintStream(installed.new Routed(installed.consoleErr, true), true));
+        }
+        return installed;
+    }
+
+    /**
+     * put the real System.out and System.err back
+     */
+    static synchronized void uninstall() {
+        if (installed != null) {
+            System.setOut(installed.console);
+            System.setErr(installed.consoleErr);
+            installed = null;
+        }
+    }
+
+    /**
+     * the real System.out
+     */
+    PrintStream console() {
+        return console;
+    }
+
+    void begin() {
+        current.set(new Buffer());
+    }
+
+    Buffer end() {
+        System.out.flush();
+        System.err.flush();
+        Buffer buffer = current.get();
+        current.remove();
+        return buffer;
+    }
+
+    private final class Routed extends OutputStream {
+        private final OutputStream fallback;
+        private final boolean isErr;
+
+        Routed(OutputStream fallback, boolean isErr) {
+            this.fallback = fallback;
+            this.isErr = isErr;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            Buffer buffer = current.get();
+            if (buffer == null) {
+                fallback.write(b, off, len);
+                return;
+            }
+            buffer.bytes.write(b, off, len);
+            buffer.wroteErr |= isErr;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (current.get() == null) {
+                fallback.flush();
+            }
+        }
+    }
+}
@@ -1,25 +1,51 @@
 import java.sql.Connection;
 
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class DBConnect {
 
-	private static final String url = "jdbc:mariadb://classdb2.csc.ncsu.edu:3306/wlcarte2";
+	// override with -Ddb.url / -Ddb.user / -Ddb.password to point at another server
+	// server-side prepared statements so StatementCache entries are parsed once per connection
+	private static final String url = System.getProperty("db.url", "jdbc:mariadb://classdb2.csc.ncsu.edu:3306/wlcarte2?useServerPrepStmts=true");
 	//private static final String url = "jdbc:mariadb://152.14.85.57:3306/wlcarte2";
-	private static final String user = "wlcarte2";
-	private static final String pswd = "200189853";
-		
+	private static final String user = System.getProperty("db.user", "wlcarte2");
+	private static final String pswd = System.getProperty("db.password", "200189853");
+
+	/**
+	 * pool is created on first use so loading this class never opens a connection
+	 */
+	private static class PoolHolder {
+		static final ConnectionPool pool = createPool();
+
+		private static ConnectionPool createPool() {
+			ConnectionPool pool = new ConnectionPool(url, user, pswd, ConnectionPool.Config.fromSystemProperties());
+			Runtime.getRuntime().addShutdownHook(new Thread(pool::close, "db-pool-shutdown"));
+			pool.warmUp();
+			return pool;
+		}
+	}
+
+	/**
+	 * borrow a pooled connection, close() hands it back to the pool
+	 */
 	public static Connection getConnection() throws SQLException {
-		return DriverManager.getConnection(url, user, pswd);
+		return PoolHolder.pool.getConnection();
 	}
-		
+
+	/**
+	 * shared pool, for stats and for code that wants a DataSource
+	 */
+	public static ConnectionPool getPool() {
+		return PoolHolder.pool;
+	}
+
 	public static void main(String args[]) {
 		try (Connection conn = getConnection()) {
 			System.out.println("Successfully connected to DB");
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
+		System.out.println("Pool: " + getPool().getStats());
 	}
-	
+
 }
@@ -0,0 +1,45 @@
+import java.sql.*;
+
+/**
+ * DoNotCombine pairs on a borrowed connection
+ */
+public class DoNotCombineRepository extends Repository {
+
+    /**
+     * one incompatible pair with the ingredient names, ingredientA < ingredientB
+     */
+    @FunctionalInterface
+    public interface PairHandler {
+        void pair(int ingredientA, String nameA, int ingredientB, String nameB);
+    }
+
+    public DoNotCombineRepository(Connection conn) {
+        super(conn);
+    }
+
+    /**
+     * row count and an order independent checksum of all pairs, changes whenever a pair is added or removed
+     */
+    public long findFingerprint() throws SQLException {
+        return queryOne("dnc.fingerprint",
+                "SELECT COUNT(*), COALESCE(BIT_XOR(CRC32(CONCAT_WS(':', ingredientA_id, ingredientB_id))), 0) " +
+                "FROM DoNotCombine",
+                NO_PARAMS,
+                rs -> rs.getLong(1) << 32 ^ rs.getLong(2));
+    }
+
+    /**
+     * every pair
+     */
+    public void forEachPair(PairHandler handler) throws SQLException {
+        queryEach("dnc.all",
+                "SELECT dnc.ingredientA_id, ia.ingredient_name AS nameA, " +
+                "dnc.ingredientB_id, ib.ingredient_name AS nameB " +
+                "FROM DoNotCombine dnc " +
+                "JOIN Ingredient ia ON dnc.ingredientA_id = ia.ingredient_id " +
+                "JOIN Ingredient ib ON dnc.ingredientB_id = ib.ingredient_id",
+                NO_PARAMS,
+                rs -> handler.pair(rs.getInt("ingredientA_id"), rs.getString("nameA"),
+                        rs.getInt("ingredientB_id"), rs.getString("nameB")));
+    }
+}
@@ -0,0 +1,277 @@
+import java.sql.*;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * pushes "expiring soon" alerts as ingredient lots cross the expiration thresholds
+ * every lot with stock sits in a TimingWheel of days, at the day it crosses its next threshold
+ * (-Dexpiration.thresholds, days before expiration, default 10,3,1). a background thread moves the wheel to
+ * today every -Dexpiration.tickMs, checks that the lots due still have stock and publishes an Alert for each
+ * to the subscribers. the table is read once at start and then only every -Dexpiration.resyncMs to pick up
+ * lots received by other processes, lots received here are scheduled by IngredientService right away.
+ * a lot that is already past a threshold when it is scheduled gets the alert of the tightest one at once.
+ */
+public class ExpirationScheduler {
+
+    private static final ExpirationScheduler SHARED = new ExpirationScheduler(Clock.systemDefaultZone());
+
+    private static final int[] THRESHOLDS = thresholds(System.getProperty("expiration.thresholds", "10,3,1"));
+    private static final long TICK_MS = Long.getLong("expiration.tickMs", 60_000);
+    private static final long RESYNC_MS = Long.getLong("expiration.resyncMs", 3_600_000);
+
+    /**
+     * a lot crossing a threshold
+     */
+    public static class Alert {
+        public final String lotNumber;
+        public final int ingredientId;
+        public final String ingredientName;
+        public final double onHand;
+        public final LocalDate expirationDate;
+        public final int daysLeft;
+        // the threshold crossed, in days before expiration
+        public final int threshold;
+
+        Alert(String lotNumber, int ingredientId, String ingredientName, double onHand,
+              LocalDate expirationDate, int daysLeft, int threshold) {
+            this.lotNumber = lotNumber;
+            this.ingredientId = ingredientId;
+            this.ingredientName = ingredientName;
+            this.onHand = onHand;
+            this.expirationDate = expirationDate;
+            this.daysLeft = daysLeft;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public String toString() {
+            return "Lot " + lotNumber + " (" + ingredientName + ", " + onHand + " oz) expires " + expirationDate +
+                   ", " + daysLeft + " day" + (daysLeft != 1 ? "s" : "") + " left";
+        }
+    }
+
+    /**
+     * a lot waiting in the wheel for the alert of one threshold
+     */
+    private static final class Pending {
+        final String lotNumber;
+        final long expirationDay;
+        final int threshold;
+
+        Pending(String lotNumber, long expirationDay, int threshold) {
+            this.lotNumber = lotNumber;
+            this.expirationDay = expirationDay;
+            this.threshold = threshold;
+        }
+    }
+
+    private final Clock clock;
+    private final SubmissionPublisher<Alert> publisher = new SubmissionPublisher<>();
+    private ScheduledExecutorService ticker;
+    private TimingWheel<Pending> wheel;
+    // lot -> the tightest threshold already alerted, so a resync doesn't repeat alerts
+    private final Map<String, Integer> alerted = new HashMap<>();
+    private long lastResync;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
+
+    ExpirationScheduler(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * the scheduler used by the menus and services
+     */
+    public static ExpirationScheduler shared() {
+        return SHARED;
+    }
+
+    /**
+     * load the lots and start the background thread, does nothing when already running
+     */
+    public synchronized void start() {
+        if (ticker != null) {
+            return;
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "expiration-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleWithFixedDelay(this::tick, 0, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+    /**
+     * receive every alert from now on, delivered on a separate thread
+     * a subscriber that falls more than Flow.defaultBufferSize() alerts behind loses the newest ones
+     */
+    public void subscribe(Flow.Subscriber<? super Alert> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    public CompletableFuture<Void> subscribe(Consumer<? super Alert> consumer) {
+        return publisher.consume(consumer);
+    }
+
+    /**
+     * a lot was received in this process, schedule it without waiting for the next resync
+     */
+    public synchronized void lotReceived(String lotNumber, LocalDate expirationDate) {
+        if (wheel != null) {
+            schedule(lotNumber, expirationDate.toEpochDay());
+        }
+    }
+
+    /**
+     * move the wheel to today and publish what is due, resync from the table first when it is time
+     */
+    void tick() {
+        try (Connection conn = DBConnect.getConnection()) {
+            tick(conn);
+        } catch (SQLException e) {
+            System.err.println("Error checking lot expirations: " + e.getMessage());
+        }
+    }
+
+    synchronized void tick(Connection conn) throws SQLException {
+        long today = LocalDate.now(clock).toEpochDay();
+        if (wheel == null || System.currentTimeMillis() - lastResync >= RESYNC_MS) {
+            resync(conn, today);
+        }
+        List<Pending> due = new ArrayList<>();
+        wheel.advanceTo(today, due::add);
+        if (!due.isEmpty()) {
+            publish(conn, due, today);
+        }
+    }
+
+    private void resync(Connection conn, long today) throws SQLException {
+        wheel = new TimingWheel<>(today);
+        Set<String> lots = new HashSet<>();
+        new InventoryRepository(conn).forEachUnexpiredLot(LocalDate.ofEpochDay(today), rs -> {
+            String lotNumber = rs.getString("lot_number");
+            lots.add(lotNumber);
+            schedule(lotNumber, rs.getDate("expiration_date").toLocalDate().toEpochDay());
+        });
+        // consumed or expired since the last resync
+        alerted.keySet().retainAll(lots);
+        lastResync = System.currentTimeMillis();
+        resyncs.incrementAndGet();
+    }
+
+    /**
+     * put the lot in the wheel for its next alert, due now when a threshold was crossed already
+     */
+    private void schedule(String lotNumber, long expirationDay) {
+        int alertedThreshold = alerted.getOrDefault(lotNumber, Integer.MAX_VALUE);
+        long daysLeft = expirationDay - wheel.now();
+        int next = -1;
+        // thresholds are in descending order, stop at the tightest one crossed
+        for (int threshold : THRESHOLDS) {
+            if (threshold >= alertedThreshold) {
+                continue;
+            }
+            if (next == -1 || threshold >= daysLeft) {
+                next = threshold;
+            }
+        }
+        if (next != -1) {
+            wheel.schedule(Math.max(wheel.now(), expirationDay - next), new Pending(lotNumber, expirationDay, next));
+        }
+    }
+
+    private void publish(Connection conn, List<Pending> due, long today) throws SQLException {
+        Map<String, Pending> byLot = new LinkedHashMap<>();
+        for (Pending pending : due) {
+            byLot.put(pending.lotNumber, pending);
+        }
+        Set<String> withStock = new HashSet<>();
+        new InventoryRepository(conn).forEachLotWithStock(new ArrayList<>(byLot.keySet()), rs -> {
+            String lotNumber = rs.getString("lot_number");
+            Pending pending = byLot.get(lotNumber);
+            LocalDate expiration = rs.getDate("expiration_date").toLocalDate();
+            if (expiration.toEpochDay() != pending.expirationDay || expiration.toEpochDay() <= today) {
+                return;
+            }
+            withStock.add(lotNumber);
+            Alert alert = new Alert(lotNumber, rs.getInt("ingredient_id"), rs.getString("ingredient_name"),
+                    rs.getDouble("on_hand_oz"), expiration, (int) (pending.expirationDay - today), pending.threshold);
+            publisher.offer(alert, (subscriber, unsent) -> {
+                dropped.incrementAndGet();
+                return false;
+            });
+            published.incrementAndGet();
+            alerted.put(lotNumber, pending.threshold);
+            schedule(lotNumber, pending.expirationDay);
+        });
+        // used up since it was scheduled, nothing left to alert about
+        skipped.addAndGet(byLot.size() - withStock.size());
+        byLot.keySet().removeAll(withStock);
+        alerted.keySet().removeAll(byLot.keySet());
+    }
+
+    private static int[] thresholds(String days) {
+        return Arrays.stream(days.split(","))
+                .map(String::trim)
+                .filter(day -> !day.isEmpty())
+                .mapToInt(Integer::parseInt)
+                .boxed()
+                .sorted(Comparator.reverseOrder())
+                .distinct()
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    public Stats getStats() {
+        synchronized (this) {
+            return new Stats(wheel == null ? 0 : wheel.size(), alerted.size(), published.get(), dropped.get(),
+                    skipped.get(), resyncs.get(), publisher.getNumberOfSubscribers());
+        }
+    }
+
+    /**
+     * point-in-time scheduler metrics
+     * scheduled lots are waiting in the wheel, alerted lots got at least one alert and still have stock,
+     * skipped alerts were due for lots used up in the meantime, dropped ones didn't fit a slow subscriber's buffer
+     */
+    public static class Stats {
+        public final int scheduled;
+        public final int alerted;
+        public final long published;
+        public final long dropped;
+        public final long skipped;
+        public final long resyncs;
+        public final int subscribers;
+
+        Stats(int scheduled, int alerted, long published, long dropped, long skipped, long resyncs, int subscribers) {
+            this.scheduled = scheduled;
+            this.alerted = alerted;
+            this.published = published;
+            this.dropped = dropped;
+            this.skipped = skipped;
+            this.resyncs = resyncs;
+            this.subscribers = subscribers;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("scheduled=%d alerted=%d published=%d dropped=%d skipped=%d resyncs=%d " +
+                    "subscribers=%d thresholds=%s", scheduled, alerted, published, dropped, skipped, resyncs,
+                    subscribers, Arrays.toString(THRESHOLDS));
+        }
+    }
+}
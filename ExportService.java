@@ -0,0 +1,171 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * report exports for downstream jobs, written to a file instead of the console
+ * the rows are streamed from the database into ReportExporter, CSV for a .csv file, the columnar
+ * binary format for a .rcol file, any other name is refused.
+ */
+public class ExportService {
+
+    // exports always stream, whatever -Dreport.fetchSize says for the console reports
+    private static final int FETCH_SIZE = 10_000;
+
+    /**
+     * a report query and its parameters
+     */
+    private static class Report {
+        final String sql;
+        final Repository.Binder binder;
+
+        Report(String sql, Repository.Binder binder) {
+            this.sql = sql;
+            this.binder = binder;
+        }
+    }
+
+    private static final Map<String, Report> REPORTS = new LinkedHashMap<>();
+    static {
+        // the whole consumption history, for the nightly export
+        REPORTS.put("batch-consumption", new Report(
+                "SELECT product_lot_number, ingredient_lot_number, quantity_consumed, consumption_date " +
+                "FROM BatchConsumption", stmt -> { }));
+        REPORTS.put("on-hand-inventory", new Report(InventoryRepository.ON_HAND_SQL, stmt -> { }));
+        REPORTS.put("almost-expired", new Report(InventoryRepository.ALMOST_EXPIRED_SQL, stmt -> stmt.setInt(1, 10)));
+        REPORTS.put("health-risk-violations", new Report(
+                "SELECT * FROM health_risk_violations_last_30_days ORDER BY production_date DESC", stmt -> { }));
+        REPORTS.put("ingredient-batches", new Report(
+                "SELECT batch_id, ingredient_id, supplier_id, lot_number, quantity_oz, on_hand_oz, unit_cost, " +
+                "expiration_date, intake_date FROM IngredientBatch", stmt -> { }));
+        REPORTS.put("product-batches", new Report(
+                "SELECT batch_id, lot_number, product_id, manufacturer_id, quantity, unit_cost, production_date, " +
+                "expiration_date, plan_id FROM ProductBatch", stmt -> { }));
+    }
+
+    /**
+     * names of the reports that can be exported
+     */
+    public static Set<String> reportNames() {
+        return Collections.unmodifiableSet(REPORTS.keySet());
+    }
+
+    /**
+     * export a named report to a file
+     */
+    public void exportReport(String report, String fileName) {
+        Report query = REPORTS.get(report);
+        if (query == null) {
+            System.out.println("Error: Unknown report " + report + ", one of " + REPORTS.keySet());
+            return;
+        }
+        export("export." + report, query.sql, query.binder, fileName);
+    }
+
+    /**
+     * where a streamed report goes, opened once the query has run so a failed query can still be answered
+     * with an error
+     */
+    public interface Sink {
+        OutputStream open() throws IOException;
+    }
+
+    /**
+     * stream a named report as a JSON array of row objects, column label -> value, false if there is no such
+     * report
+     */
+    public boolean writeReportJson(String report, Sink sink) throws SQLException, IOException {
+        Report query = REPORTS.get(report);
+        if (query == null) {
+            return false;
+        }
+        Metrics.Sample sample = Metrics.start("report.json." + report);
+        // connect to db
+        try (Connection conn = DBConnect.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query.sql)) {
+            stmt.setFetchSize(FETCH_SIZE);
+            query.binder.bind(stmt);
+            FlightEvents.ReportRender render = new FlightEvents.ReportRender();
+            render.begin();
+            try (ResultSet rs = stmt.executeQuery();
+                 ReportWriter out = new ReportWriter(sink.open())) {
+                ResultSetMetaData meta = rs.getMetaData();
+                int columns = meta.getColumnCount();
+                StringBuilder row = new StringBuilder();
+                out.text("[");
+                boolean first = true;
+                while (rs.next()) {
+                    row.setLength(0);
+                    row.append(first ? "\n{" : ",\n{");
+                    first = false;
+                    for (int i = 1; i <= columns; i++) {
+                        if (i > 1) {
+                            row.append(',');
+                        }
+                        Json.quote(row, meta.getColumnLabel(i));
+                        row.append(':');
+                        Object value = rs.getObject(i);
+                        Json.write(row, value instanceof java.util.Date ? value.toString() : value);
+                    }
+                    out.text(row.append('}').toString());
+                    render.rows++;
+                }
+                out.text("\n]\n");
+            }
+            render.report = "report.json." + report;
+            render.commit();
+        } catch (SQLException | IOException e) {
+            sample.failed();
+            throw e;
+        } finally {
+            sample.close();
+        }
+        return true;
+    }
+
+    /**
+     * export the results of any query to a file
+     */
+    public void exportQuery(String sql, String fileName) {
+        export("export.query", sql, stmt -> { }, fileName);
+    }
+
+    private void export(String operation, String sql, Repository.Binder binder, String fileName) {
+        Path file;
+        ReportExporter.Format format;
+        try {
+            file = Paths.get(fileName);
+            format = ReportExporter.Format.forFile(file);
+        } catch (IllegalArgumentException e) {
+            // InvalidPathException is one too
+            System.out.println("Error: " + e.getMessage());
+            return;
+        }
+        Metrics.Sample sample = Metrics.start(operation);
+        long started = System.nanoTime();
+        // connect to db
+        try (Connection conn = DBConnect.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setFetchSize(FETCH_SIZE);
+            binder.bind(stmt);
+            FlightEvents.ReportRender render = new FlightEvents.ReportRender();
+            render.begin();
+            try (ResultSet rs = stmt.executeQuery()) {
+                long rows = ReportExporter.export(rs, file, format);
+                render.report = operation;
+                render.rows = rows;
+                render.commit();
+                System.out.printf("Exported %d rows to %s (%s) in %.1f s.%n", rows, file,
+                                  format.name().toLowerCase(), (System.nanoTime() - started) / 1e9);
+            }
+
+        } catch (SQLException | IOException e) {
+            sample.failed();
+            System.err.println("Error exporting report: " + e.getMessage());
+        } finally {
+            sample.close();
+        }
+    }
+}
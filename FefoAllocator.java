@@ -0,0 +1,117 @@
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * multi-lot FEFO (First Expired, First Out) allocation
+ * candidate lots are kept in one priority queue per ingredient ordered by expiration date then batch id.
+ * a requirement is covered greedily from the earliest-expiring lots and split across as many lots as needed,
+ * a partly used lot goes back into the queue with what is left so later allocations see it.
+ */
+public class FefoAllocator {
+
+    // quantities are DECIMAL(10, 2) in the database, anything below half a hundredth is rounding noise
+    private static final double EPSILON = 0.005;
+
+    // lots added since the last allocation, heapified in one pass on first use
+    private final Map<Integer, List<Lot>> pending = new HashMap<>();
+    private final Map<Integer, PriorityQueue<Lot>> lotsByIngredient = new HashMap<>();
+    private final Map<Integer, Double> availableByIngredient = new HashMap<>();
+
+    /**
+     * add a candidate lot for an ingredient, lots with nothing on hand are ignored
+     */
+    public void addLot(int ingredientId, String lotNumber, String batchId,
+                       LocalDate expirationDate, double onHandQty) {
+        if (onHandQty <= EPSILON) {
+            return;
+        }
+        pending.computeIfAbsent(ingredientId, id -> new ArrayList<>())
+               .add(new Lot(lotNumber, batchId, expirationDate.toEpochDay(), onHandQty));
+        availableByIngredient.merge(ingredientId, onHandQty, Double::sum);
+    }
+
+    /**
+     * total quantity still unallocated for an ingredient
+     */
+    public double available(int ingredientId) {
+        return availableByIngredient.getOrDefault(ingredientId, 0.0);
+    }
+
+    /**
+     * true if the unallocated lots of an ingredient cover requiredQty
+     */
+    public boolean canAllocate(int ingredientId, double requiredQty) {
+        return requiredQty <= available(ingredientId) + EPSILON;
+    }
+
+    /**
+     * take requiredQty of an ingredient from the earliest-expiring lots
+     * returns one IngredientLot per lot used, in FEFO order
+     */
+    public List<IngredientLot> allocate(int ingredientId, double requiredQty) {
+        if (!canAllocate(ingredientId, requiredQty)) {
+            throw new IllegalArgumentException("Not enough on hand for ingredient " + ingredientId +
+                    ": need " + requiredQty + " oz, have " + available(ingredientId) + " oz");
+        }
+        PriorityQueue<Lot> lots = queue(ingredientId);
+        List<IngredientLot> allocated = new ArrayList<>();
+        double remaining = requiredQty;
+
+        while (remaining > EPSILON) {
+            Lot lot = lots.poll();
+            if (lot == null) {
+                // only rounding left over
+                break;
+            }
+            if (lot.onHand <= remaining + EPSILON) {
+                // use up the whole lot
+                allocated.add(new IngredientLot(lot.lotNumber, lot.onHand));
+                remaining -= lot.onHand;
+            } else {
+                // split, the rest of the lot stays first in line
+                allocated.add(new IngredientLot(lot.lotNumber, remaining));
+                lots.add(new Lot(lot.lotNumber, lot.batchId, lot.expirationDay, lot.onHand - remaining));
+                remaining = 0;
+            }
+        }
+
+        availableByIngredient.merge(ingredientId, -requiredQty, Double::sum);
+        return allocated;
+    }
+
+    private PriorityQueue<Lot> queue(int ingredientId) {
+        List<Lot> added = pending.remove(ingredientId);
+        PriorityQueue<Lot> lots = lotsByIngredient.get(ingredientId);
+        if (lots == null) {
+            // building from a collection heapifies in O(n) instead of n inserts
+            lots = added == null ? new PriorityQueue<>() : new PriorityQueue<>(added);
+            lotsByIngredient.put(ingredientId, lots);
+        } else if (added != null) {
+            lots.addAll(added);
+        }
+        return lots;
+    }
+
+    /**
+     * one candidate lot, ordered by expiration date then batch id like the FEFO queries
+     */
+    private static class Lot implements Comparable<Lot> {
+        final String lotNumber;
+        final String batchId;
+        final long expirationDay;
+        final double onHand;
+
+        Lot(String lotNumber, String batchId, long expirationDay, double onHand) {
+            this.lotNumber = lotNumber;
+            this.batchId = batchId;
+            this.expirationDay = expirationDay;
+            this.onHand = onHand;
+        }
+
+        @Override
+        public int compareTo(Lot other) {
+            int byDate = Long.compare(expirationDay, other.expirationDay);
+            return byDate != 0 ? byDate : batchId.compareTo(other.batchId);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events for the phases of production, allocation, recall and reporting
+ * recorded only while a recording is running, e.g. -XX:StartFlightRecording or jcmd <pid> JFR.start, and cheap
+ * enough to leave in otherwise. the service sets the fields and commits at the end of the phase.
+ *   jfr print --categories "Food Manufacturing" recording.jfr
+ */
+final class FlightEvents {
+
+    private FlightEvents() {
+    }
+
+    @Name("foodmfg.FefoCandidateLoad")
+    @Label("FEFO Candidate Load")
+    @Category({ "Food Manufacturing", "Production" })
+    @Description("Required ingredients of a recipe plan and their unexpired lots, read in one query")
+    static final class FefoCandidateLoad extends Event {
+        @Label("Plan Id")
+        int planId;
+        @Label("Batch Quantity")
+        int batchQuantity;
+        @Label("Ingredients")
+        int ingredients;
+        @Label("Candidate Lots")
+        int candidateLots;
+    }
+
+    @Name("foodmfg.LotSelection")
+    @Label("Lot Selection")
+    @Category({ "Food Manufacturing", "Production" })
+    @Description("FEFO allocation of one ingredient's requirement across its lots, no lots selected when it is short")
+    static final class LotSelection extends Event {
+        @Label("Plan Id")
+        int planId;
+        @Label("Ingredient Id")
+        int ingredientId;
+        @Label("Required (oz)")
+        double requiredOz;
+        @Label("Available (oz)")
+        double availableOz;
+        @Label("Candidate Lots")
+        int candidateLots;
+        @Label("Lots Selected")
+        int lotsSelected;
+    }
+
+    @Name("foodmfg.LotsJsonBuild")
+    @Label("Lots JSON Build")
+    @Category({ "Food Manufacturing", "Production" })
+    @Description("The selected lots written as the JSON argument of record_production_batch")
+    static final class LotsJsonBuild extends Event {
+        @Label("Lots")
+        int lots;
+        @Label("Characters")
+        int characters;
+    }
+
+    @Name("foodmfg.RecordProductionBatch")
+    @Label("Record Production Batch")
+    @Category({ "Food Manufacturing", "Production" })
+    @Description("The record_production_batch call, with the consumption triggers it sets off")
+    static final class RecordProductionBatch extends Event {
+        @Label("Batch Id")
+        String batchId;
+        @Label("Product Id")
+        int productId;
+        @Label("Manufacturer Id")
+        String manufacturerId;
+        @Label("Plan Id")
+        int planId;
+        @Label("Quantity")
+        int quantity;
+        @Label("Lots")
+        @Description("Lots in the lots JSON, -1 when the caller wrote the JSON")
+        int lots;
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    @Name("foodmfg.RecallTrace")
+    @Label("Recall Trace")
+    @Category({ "Food Manufacturing", "Recall" })
+    @Description("Lots contaminated by a recalled ingredient lot, from the lineage index")
+    static final class RecallTrace extends Event {
+        @Label("Ingredient Lot")
+        String ingredientLot;
+        @Label("Recall Date")
+        String recallDate;
+        @Label("Window (days)")
+        int windowDays;
+        @Label("Contaminated Ingredient Lots")
+        int ingredientLots;
+        @Label("Contaminated Product Lots")
+        int productLots;
+    }
+
+    @Name("foodmfg.ReportRender")
+    @Label("Report Render")
+    @Category({ "Food Manufacturing", "Reports" })
+    @Description("A report read and written out, streamed reports include the wait for their rows")
+    static final class ReportRender extends Event {
+        @Label("Report")
+        String report;
+        @Label("Rows")
+        long rows;
+    }
+}
@@ -0,0 +1,139 @@
+import java.math.BigDecimal;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * IngredientBatch intake on a borrowed connection
+ * batches are inserted CHUNK rows per multi-row INSERT ... RETURNING, so the trigger generated lot numbers come
+ * back from the insert itself. a chunk is one statement: when a row of it fails the chunk is retried row by row
+ * and only the failing rows are reported, the rest of the load goes on. rows that break check_90_day_minimum are
+ * reported without being sent.
+ */
+public class IngredientBatchRepository extends Repository {
+
+    // a power of two, the rest of a load goes in power of two chunks so at most log2(CHUNK) + 1 statements are prepared
+    private static final int CHUNK = 256;
+    private static final int MIN_SHELF_DAYS = 90;
+
+    /**
+     * an ingredient batch to receive
+     */
+    public static class NewBatch {
+        public final String batchId;
+        public final int ingredientId;
+        public final String supplierId;
+        public final BigDecimal quantityOz;
+        public final BigDecimal unitCost;
+        public final LocalDate expirationDate;
+
+        public NewBatch(String batchId, int ingredientId, String supplierId, BigDecimal quantityOz,
+                        BigDecimal unitCost, LocalDate expirationDate) {
+            this.batchId = batchId;
+            this.ingredientId = ingredientId;
+            this.supplierId = supplierId;
+            this.quantityOz = quantityOz;
+            this.unitCost = unitCost;
+            this.expirationDate = expirationDate;
+        }
+    }
+
+    /**
+     * what became of one batch, the generated lot number or why it was not received
+     */
+    public static class Outcome {
+        public final NewBatch batch;
+        public final String lotNumber;
+        public final String error;
+
+        Outcome(NewBatch batch, String lotNumber, String error) {
+            this.batch = batch;
+            this.lotNumber = lotNumber;
+            this.error = error;
+        }
+
+        public boolean isReceived() {
+            return error == null;
+        }
+    }
+
+    public IngredientBatchRepository(Connection conn) {
+        super(conn);
+    }
+
+    /**
+     * insert every batch, one outcome per batch in the same order
+     */
+    public List<Outcome> insertAll(List<NewBatch> batches) throws SQLException {
+        LocalDate today = queryOne("ingredientBatch.today", "SELECT CURDATE()", NO_PARAMS,
+                rs -> rs.getDate(1).toLocalDate());
+        Map<NewBatch, Outcome> outcomes = new IdentityHashMap<>();
+        List<NewBatch> valid = new ArrayList<>();
+        for (NewBatch batch : batches) {
+            // intake_date defaults to CURDATE(), same rule as the check constraint
+            if (batch.expirationDate.isBefore(today.plusDays(MIN_SHELF_DAYS))) {
+                outcomes.put(batch, new Outcome(batch, null, "Expiration is within 90 day window (check_90_day_minimum)."));
+            } else {
+                valid.add(batch);
+            }
+        }
+
+        int from = 0;
+        while (from < valid.size()) {
+            int rows = Math.min(CHUNK, Integer.highestOneBit(valid.size() - from));
+            List<NewBatch> chunk = valid.subList(from, from + rows);
+            try {
+                insertChunk(chunk, outcomes);
+            } catch (SQLException e) {
+                // find the failing rows, the others go in on their own
+                for (NewBatch batch : chunk) {
+                    try {
+                        insertChunk(Collections.singletonList(batch), outcomes);
+                    } catch (SQLException rowError) {
+                        outcomes.put(batch, new Outcome(batch, null, rowError.getMessage()));
+                    }
+                }
+            }
+            from += rows;
+        }
+
+        List<Outcome> ordered = new ArrayList<>(batches.size());
+        for (NewBatch batch : batches) {
+            ordered.add(outcomes.get(batch));
+        }
+        return ordered;
+    }
+
+    private void insertChunk(List<NewBatch> chunk, Map<NewBatch, Outcome> outcomes) throws SQLException {
+        StringBuilder sql = new StringBuilder(
+                "INSERT INTO IngredientBatch (batch_id, ingredient_id, supplier_id, quantity_oz, unit_cost, expiration_date) VALUES ");
+        for (int i = 0; i < chunk.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append("(?, ?, ?, ?, ?, ?)");
+        }
+        // generate_ingredient_lot_number has set lot_number by the time RETURNING reads the row
+        sql.append(" RETURNING lot_number");
+        queryEach("ingredientBatch.insert." + chunk.size(),
+                sql.toString(),
+                stmt -> {
+                    int p = 1;
+                    for (NewBatch batch : chunk) {
+                        stmt.setString(p++, batch.batchId);
+                        stmt.setInt(p++, batch.ingredientId);
+                        stmt.setString(p++, batch.supplierId);
+                        stmt.setBigDecimal(p++, batch.quantityOz);
+                        stmt.setBigDecimal(p++, batch.unitCost);
+                        stmt.setDate(p++, java.sql.Date.valueOf(batch.expirationDate));
+                    }
+                },
+                new RowHandler() {
+                    // RETURNING gives the rows back in the order of the VALUES list
+                    int row = 0;
+
+                    @Override
+                    public void handle(ResultSet rs) throws SQLException {
+                        NewBatch batch = chunk.get(row++);
+                        outcomes.put(batch, new Outcome(batch, rs.getString("lot_number"), null));
+                    }
+                });
+    }
+}
@@ -0,0 +1,13 @@
+/**
+ * helper class, creates IngredientLot object that has lot number and quantity info
+ */
+class IngredientLot {
+	// attributes
+    final String lotNumber;
+    final double quantity;
+    // constructor
+    IngredientLot(String lotNumber, double quantity) {
+        this.lotNumber = lotNumber;
+        this.quantity = quantity;
+    }
+}
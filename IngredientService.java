@@ -1,4 +1,5 @@
 import java.sql.*;
+import java.util.*;
 
 public class IngredientService {
     
@@ -6,6 +7,7 @@ public class IngredientService {
      * view all of the ingredients
      */
     public void viewAllIngredients() {
+        Metrics.Sample sample = Metrics.start("ingredient.viewAllIngredients");
         // connect to the db
         try (Connection conn = DBConnect.getConnection()) {
             // query to select ingredient details, order alphabetically
@@ -25,7 +27,10 @@ public class IngredientService {
             }
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error viewing all ingredients: " + e.getMessage());
+        } finally {
+            sample.close();
         }
     }
     
@@ -33,6 +38,7 @@ public class IngredientService {
      * create a new ingredient
      */
     public void createIngredient(int ingredientId, String name, String type) {
+    	Metrics.Sample sample = Metrics.start("ingredient.createIngredient");
     	// connect to db
         try (Connection conn = DBConnect.getConnection()) {
         	// query insert
@@ -47,7 +53,10 @@ public class IngredientService {
             System.out.println("Ingredient '" + name + "' has been created as " + type + ".");
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error creating ingredient: " + e.getMessage());
+        } finally {
+            sample.close();
         }
     }
 
@@ -55,6 +64,7 @@ public class IngredientService {
      * add a material to a compound ingredient
      */
     public void addIngredientComposition(int parentId, int childId, double quantity) {
+    	Metrics.Sample sample = Metrics.start("ingredient.addIngredientComposition");
     	// connect to db
         try (Connection conn = DBConnect.getConnection()) {
             // verify parent is compound, can't add to atomic
@@ -67,7 +77,16 @@ public class IngredientService {
                 System.out.println("Error: Ingredient " + parentId + " is not a compound ingredient.");
                 return;
             }
-            
+
+            // compounds nest, the material can't be the compound or contain it at any depth
+            BomExpander bom = BomExpander.shared();
+            bom.refresh(conn);
+            if (bom.wouldCreateCycle(parentId, childId)) {
+                System.out.println("Error: Ingredient " + childId + " is or contains compound " + parentId +
+                                   ", it can't be one of its materials.");
+                return;
+            }
+
             // add to composition
             String query = "INSERT INTO IngredientComposition (parent_ingredient_id, child_ingredient_id, quantity) " +
                           "VALUES (?, ?, ?)";
@@ -77,10 +96,37 @@ public class IngredientService {
             stmt.setDouble(3, quantity);
             
             stmt.executeUpdate();
+            // drops the memoized vectors of this compound and the compounds containing it
+            bom.refresh(conn);
             System.out.println("Material successfully added to compound ingredient.");
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error adding ingredient composition: " + e.getMessage());
+        } finally {
+            sample.close();
+        }
+    }
+
+    /**
+     * record an ingredient lot used to make a compound ingredient lot, recalls of the source lot reach the compound lot
+     */
+    public void addSourceLot(String compoundLot, String sourceLot) {
+        Metrics.Sample sample = Metrics.start("ingredient.addSourceLot");
+        // connect to db
+        try (Connection conn = DBConnect.getConnection()) {
+            if (new LotLineageRepository(conn).addSourceLot(compoundLot, sourceLot)) {
+                System.out.println("Source lot recorded.");
+            } else {
+                System.out.println("Error: Source lot not recorded. Both lots must exist, the source ingredient " +
+                                   "must be a material of the compound ingredient and not be recorded already.");
+            }
+            
+        } catch (SQLException e) {
+            sample.failed();
+            System.err.println("Error recording source lot: " + e.getMessage());
+        } finally {
+            sample.close();
         }
     }
 
@@ -90,6 +136,7 @@ public class IngredientService {
     public void createSupplierFormulation(String supplierId, int ingredientId, int versionNo,
                                           double packSize, double pricePerUnit,
                                           String startDate, String endDate) {
+    	Metrics.Sample sample = Metrics.start("ingredient.createSupplierFormulation");
     	// connect to db
         try (Connection conn = DBConnect.getConnection()) {
         	// query
@@ -110,7 +157,10 @@ public class IngredientService {
             System.out.println("Supplier formulation has been created.");
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error creating supplier formulation: " + e.getMessage());
+        } finally {
+            sample.close();
         }
     }
     
@@ -119,6 +169,7 @@ public class IngredientService {
      */
     public void createIngredientBatch(String supplierId, int ingredientId, double quantity, 
                                        double unitCost, String expirationDate, String batchId) {
+        Metrics.Sample sample = Metrics.start("ingredient.createIngredientBatch");
         // connect to db
         try (Connection conn = DBConnect.getConnection()) {
             // trigger generates lot_number and sets on_hand_oz
@@ -137,9 +188,11 @@ public class IngredientService {
             // update
             stmt.executeUpdate();
             System.out.println("Ingredient batch has been created.");
+            // new stock, the inventory snapshot reloads this ingredient on the next report
+            InventorySnapshot.shared().invalidateIngredients(java.util.Collections.singleton(ingredientId));
             
             // show the generated lot number 
-            String getLotQuery = "SELECT lot_number FROM IngredientBatch " +
+            String getLotQuery = "SELECT lot_number, expiration_date FROM IngredientBatch " +
                                "WHERE ingredient_id = ? AND supplier_id = ? AND batch_id = ?";
             PreparedStatement getLotStmt = conn.prepareStatement(getLotQuery); 
             getLotStmt.setInt(1, ingredientId);  
@@ -148,22 +201,108 @@ public class IngredientService {
             ResultSet rs = getLotStmt.executeQuery();
             if (rs.next()) {
                 System.out.println("Generated Lot Number: " + rs.getString("lot_number"));
+                // alerts for the new lot start from now, not from the scheduler's next resync
+                ExpirationScheduler.shared().lotReceived(rs.getString("lot_number"),
+                        rs.getDate("expiration_date").toLocalDate());
             }
             
         } catch (SQLException e) {
+            sample.failed();
             // Check for 90-day constraint violation
             if (e.getMessage().contains("check_90_day_minimum")) {
                 System.err.println("Ingredient batch not created. Expiration is within 90 day window.");
             } else {
                 System.err.println("Error creating ingredient batch: " + e.getMessage());
             }
+        } finally {
+            sample.close();
+        }
+    }
+    
+    /**
+     * receive many ingredient batches in one pass, one outcome per batch in the same order
+     * a batch that is rejected, like one expiring within 90 days, doesn't stop the others
+     */
+    public List<IngredientBatchRepository.Outcome> createIngredientBatches(
+            List<IngredientBatchRepository.NewBatch> batches) {
+        Metrics.Sample sample = Metrics.start("ingredient.createIngredientBatches");
+        // connect to db
+        try (Connection conn = DBConnect.getConnection()) {
+            List<IngredientBatchRepository.Outcome> outcomes = new IngredientBatchRepository(conn).insertAll(batches);
+            
+            // new stock for the inventory snapshot and the expiration alerts
+            Set<Integer> ingredientIds = new HashSet<>();
+            for (IngredientBatchRepository.Outcome outcome : outcomes) {
+                if (outcome.isReceived()) {
+                    ingredientIds.add(outcome.batch.ingredientId);
+                    ExpirationScheduler.shared().lotReceived(outcome.lotNumber, outcome.batch.expirationDate);
+                }
+            }
+            InventorySnapshot.shared().invalidateIngredients(ingredientIds);
+            return outcomes;
+            
+        } catch (SQLException e) {
+            sample.failed();
+            System.err.println("Error creating ingredient batches: " + e.getMessage());
+            return Collections.emptyList();
+        } finally {
+            sample.close();
+        }
+    }
+    
+    /**
+     * receive the ingredient batches of a delivery file, CSV or NDJSON (see IntakeFile)
+     * prints the generated lot number of every batch received and the line and reason of every one that wasn't
+     */
+    public void importIngredientBatches(String supplierId, String fileName) {
+        long started = System.nanoTime();
+        List<IntakeFile.Entry> entries;
+        try {
+            entries = IntakeFile.read(java.nio.file.Paths.get(fileName), supplierId);
+        } catch (java.io.IOException | java.nio.file.InvalidPathException e) {
+            System.err.println("Error reading delivery file: " + e.getMessage());
+            return;
+        }
+        
+        List<IngredientBatchRepository.NewBatch> batches = new ArrayList<>();
+        for (IntakeFile.Entry entry : entries) {
+            if (entry.batch != null) {
+                batches.add(entry.batch);
+            }
+        }
+        List<IngredientBatchRepository.Outcome> outcomes = batches.isEmpty()
+                ? Collections.emptyList() : createIngredientBatches(batches);
+        if (outcomes.size() != batches.size()) {
+            // the load itself failed, already reported
+            return;
+        }
+        
+        int received = 0;
+        int next = 0;
+        for (IntakeFile.Entry entry : entries) {
+            if (entry.batch == null) {
+                System.out.println("Line " + entry.line + ": not received, " + entry.error);
+                continue;
+            }
+            IngredientBatchRepository.Outcome outcome = outcomes.get(next++);
+            if (outcome.isReceived()) {
+                System.out.println("Line " + entry.line + ": batch " + entry.batch.batchId +
+                                   ", Generated Lot Number: " + outcome.lotNumber);
+                received++;
+            } else {
+                System.out.println("Line " + entry.line + ": batch " + entry.batch.batchId +
+                                   " not received, " + outcome.error);
+            }
         }
+        System.out.printf("Received %d of %d ingredient batches in %.1f s.%n", received, entries.size(),
+                          (System.nanoTime() - started) / 1e9);
     }
     
     /**
      * view supplier formulations
      */
     public void viewSupplierFormulations(String supplierId) {
+        Metrics.Sample sample = Metrics.start("ingredient.viewSupplierFormulations");
         // connect to db
         try (Connection conn = DBConnect.getConnection()) {
             // query from view for active formulations
@@ -193,7 +332,10 @@ public class IngredientService {
             }
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error viewing formulations: " + e.getMessage());
+        } finally {
+            sample.close();
         }
     }
     
@@ -201,6 +343,7 @@ public class IngredientService {
      * view all do-not-combine ingredient pairs
      */
     public void viewDoNotCombine() {
+        Metrics.Sample sample = Metrics.start("ingredient.viewDoNotCombine");
         // connect to db
         try (Connection conn = DBConnect.getConnection()) {
             // query incompatible ingredient pairs
@@ -224,7 +367,10 @@ public class IngredientService {
             }
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error viewing do-not-combine list: " + e.getMessage());
+        } finally {
+            sample.close();
         }
     }
     
@@ -236,6 +382,7 @@ public class IngredientService {
         int minId = Math.min(ingredientA, ingredientB);
         int maxId = Math.max(ingredientA, ingredientB);
         
+        Metrics.Sample sample = Metrics.start("ingredient.addDoNotCombine");
         // connect to db
         try (Connection conn = DBConnect.getConnection()) {
             // query insert incompatible pair
@@ -247,10 +394,15 @@ public class IngredientService {
             stmt.setInt(2, maxId);
             // update
             stmt.executeUpdate();
+            // recipe and production checks see the new pair right away
+            ConflictEngine.shared().refresh(conn);
             System.out.println("Do-Not-Combine pair has been added.");
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error adding Do-Not-Combine pair: " + e.getMessage());
+        } finally {
+            sample.close();
         }
     }
 }
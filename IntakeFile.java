@@ -0,0 +1,177 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * reads a supplier's delivery file of ingredient batches for IngredientService.importIngredientBatches
+ * CSV (a .csv file): a header row naming the columns, then one batch per row, RFC 4180 quoting
+ * NDJSON (any other name, .ndjson by convention): one flat JSON object per line, blank lines skipped
+ * both name the same fields: batch_id, ingredient_id, quantity_oz, unit_cost, expiration_date (YYYY-MM-DD) and
+ * optionally supplier_id, which must be the supplier loading the file. a row that can't be read becomes an entry
+ * with an error instead of stopping the file.
+ */
+public final class IntakeFile {
+
+    private static final String[] REQUIRED = { "batch_id", "ingredient_id", "quantity_oz", "unit_cost", "expiration_date" };
+
+    /**
+     * one row of the file, the batch or why it could not be read
+     */
+    public static class Entry {
+        public final int line;
+        public final IngredientBatchRepository.NewBatch batch;
+        public final String error;
+
+        Entry(int line, IngredientBatchRepository.NewBatch batch, String error) {
+            this.line = line;
+            this.batch = batch;
+            this.error = error;
+        }
+    }
+
+    private IntakeFile() {
+    }
+
+    public static List<Entry> read(Path file, String supplierId) throws IOException {
+        boolean csv = file.getFileName().toString().toLowerCase().endsWith(".csv");
+        List<Entry> entries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            List<String> header = null;
+            int line = 0;
+            String text;
+            while ((text = reader.readLine()) != null) {
+                line++;
+                if (text.trim().isEmpty()) {
+                    continue;
+                }
+                Map<String, String> fields;
+                try {
+                    if (csv) {
+                        // a quoted field may go on over the next lines
+                        int firstLine = line;
+                        while (quoteOpen(text)) {
+                            String next = reader.readLine();
+                            if (next == null) {
+                                throw new IllegalArgumentException("unterminated quoted field");
+                            }
+                            text += "\n" + next;
+                            line++;
+                        }
+                        List<String> values = csvFields(text);
+                        if (header == null) {
+                            header = values;
+                            for (String column : REQUIRED) {
+                                if (!header.contains(column)) {
+                                    throw new IOException("Line " + firstLine + ": missing column " + column);
+                                }
+                            }
+                            continue;
+                        }
+                        fields = new HashMap<>();
+                        for (int i = 0; i < header.size() && i < values.size(); i++) {
+                            fields.put(header.get(i), values.get(i));
+                        }
+                    } else {
+                        fields = jsonObject(text);
+                    }
+                    entries.add(new Entry(line, batch(fields, supplierId), null));
+                } catch (IllegalArgumentException | ArithmeticException | java.time.DateTimeException e) {
+                    entries.add(new Entry(line, null, e.getMessage()));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static IngredientBatchRepository.NewBatch batch(Map<String, String> fields, String supplierId) {
+        String supplier = fields.get("supplier_id");
+        if (supplier != null && !supplier.isEmpty() && !supplier.equalsIgnoreCase(supplierId)) {
+            throw new IllegalArgumentException("supplier_id " + supplier + " is not " + supplierId);
+        }
+        return new IngredientBatchRepository.NewBatch(
+                required(fields, "batch_id"),
+                number(fields, "ingredient_id").intValueExact(),
+                supplierId,
+                number(fields, "quantity_oz"),
+                number(fields, "unit_cost"),
+                LocalDate.parse(required(fields, "expiration_date")));
+    }
+
+    private static String required(Map<String, String> fields, String name) {
+        String value = fields.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("missing " + name);
+        }
+        return value.trim();
+    }
+
+    private static BigDecimal number(Map<String, String> fields, String name) {
+        String value = required(fields, name);
+        try {
+            return new BigDecimal(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " " + value + " is not a number");
+        }
+    }
+
+    private static boolean quoteOpen(String text) {
+        boolean open = false;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '"') {
+                open = !open;
+            }
+        }
+        return open;
+    }
+
+    private static List<String> csvFields(String text) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else if (c != '\r') {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    /**
+     * a flat JSON object read by Json, values as their text: numbers and true/false as written, null as null
+     */
+    private static Map<String, String> jsonObject(String text) {
+        Object parsed = Json.parse(text);
+        if (!(parsed instanceof Map)) {
+            throw new IllegalArgumentException("expected a JSON object");
+        }
+        Map<String, String> fields = new HashMap<>();
+        for (Map.Entry<?, ?> field : ((Map<?, ?>) parsed).entrySet()) {
+            Object value = field.getValue();
+            if (value instanceof Map || value instanceof List) {
+                throw new IllegalArgumentException("unsupported value for " + field.getKey());
+            }
+            fields.put((String) field.getKey(), value == null ? null : value.toString());
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,158 @@
+import java.sql.*;
+import java.util.*;
+
+/**
+ * IngredientBatch inventory reports on a borrowed connection
+ * rows are streamed to the handler in chunks of the fetch size instead of buffering the whole result,
+ * the handler must not run other statements on the same connection while the rows come in.
+ */
+public class InventoryRepository extends Repository {
+
+    // -Dreport.fetchSize, rows per round trip while streaming, 0 buffers the whole result like before
+    public static final int FETCH_SIZE = Integer.getInteger("report.fetchSize", 1000);
+
+    // the report queries, also run by ExportService
+    static final String ON_HAND_SQL =
+            "SELECT ib.ingredient_id, i.ingredient_name, ib.lot_number, " +
+            "ib.on_hand_oz, ib.expiration_date, s.supplier_name " +
+            "FROM IngredientBatch ib " +
+            "JOIN Ingredient i ON ib.ingredient_id = i.ingredient_id " +
+            "JOIN Supplier s ON ib.supplier_id = s.supplier_id " +
+            "WHERE ib.on_hand_oz > 0 " +
+            "ORDER BY i.ingredient_name, ib.ingredient_id, ib.expiration_date ASC";
+    // ? is the number of days
+    static final String ALMOST_EXPIRED_SQL =
+            "SELECT ib.lot_number, i.ingredient_name, ib.on_hand_oz, " +
+            "ib.expiration_date, s.supplier_name, " +
+            "DATEDIFF(ib.expiration_date, CURDATE()) AS days_until_expiration " +
+            "FROM IngredientBatch ib " +
+            "JOIN Ingredient i ON ib.ingredient_id = i.ingredient_id " +
+            "JOIN Supplier s ON ib.supplier_id = s.supplier_id " +
+            "WHERE ib.on_hand_oz > 0 " +
+            "AND ib.expiration_date > CURDATE() " +
+            "AND ib.expiration_date <= DATE_ADD(CURDATE(), INTERVAL ? DAY) " +
+            "ORDER BY ib.expiration_date ASC, i.ingredient_name";
+
+    private static final int LOOKUP_BATCH = 64;
+    private static final String LOTS_WITH_STOCK_SQL =
+            "SELECT ib.lot_number, ib.ingredient_id, i.ingredient_name, ib.on_hand_oz, ib.expiration_date " +
+            "FROM IngredientBatch ib " +
+            "JOIN Ingredient i ON ib.ingredient_id = i.ingredient_id " +
+            "WHERE ib.on_hand_oz > 0 AND ib.lot_number IN (" +
+            String.join(", ", Collections.nCopies(LOOKUP_BATCH, "?")) + ")";
+
+    private final int fetchSize;
+
+    public InventoryRepository(Connection conn) {
+        this(conn, FETCH_SIZE);
+    }
+
+    public InventoryRepository(Connection conn, int fetchSize) {
+        super(conn);
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * every batch with stock left, by ingredient name then expiration
+     */
+    public void forEachOnHandLot(RowHandler handler) throws SQLException {
+        queryEach("inventory.onHand",
+                ON_HAND_SQL,
+                stmt -> stmt.setFetchSize(fetchSize),
+                handler);
+    }
+
+    /**
+     * batches of one ingredient with stock left, soonest expiration first
+     */
+    public void forEachOnHandLotOf(int ingredientId, RowHandler handler) throws SQLException {
+        queryEach("inventory.onHandOf",
+                "SELECT ib.lot_number, ib.on_hand_oz, ib.expiration_date, s.supplier_name " +
+                "FROM IngredientBatch ib " +
+                "JOIN Supplier s ON ib.supplier_id = s.supplier_id " +
+                "WHERE ib.ingredient_id = ? AND ib.on_hand_oz > 0 " +
+                "ORDER BY ib.expiration_date ASC",
+                stmt -> stmt.setInt(1, ingredientId),
+                handler);
+    }
+
+    /**
+     * lot number and expiration of every batch with stock left that expires after today
+     */
+    public void forEachUnexpiredLot(java.time.LocalDate today, RowHandler handler) throws SQLException {
+        queryEach("inventory.unexpired",
+                "SELECT lot_number, expiration_date FROM IngredientBatch " +
+                "WHERE on_hand_oz > 0 AND expiration_date > ?",
+                stmt -> {
+                    stmt.setFetchSize(fetchSize);
+                    stmt.setDate(1, java.sql.Date.valueOf(today));
+                },
+                handler);
+    }
+
+    /**
+     * the lots among lotNumbers that still have stock, with their ingredient
+     * looked up LOOKUP_BATCH lot numbers per statement so the statement is prepared once
+     */
+    public void forEachLotWithStock(List<String> lotNumbers, RowHandler handler) throws SQLException {
+        for (int from = 0; from < lotNumbers.size(); from += LOOKUP_BATCH) {
+            List<String> batch = lotNumbers.subList(from, Math.min(lotNumbers.size(), from + LOOKUP_BATCH));
+            queryEach("inventory.lotsWithStock",
+                    LOTS_WITH_STOCK_SQL,
+                    stmt -> {
+                        // the unused places repeat the last lot number
+                        for (int i = 0; i < LOOKUP_BATCH; i++) {
+                            stmt.setString(i + 1, batch.get(Math.min(i, batch.size() - 1)));
+                        }
+                    },
+                    handler);
+        }
+    }
+
+    /**
+     * number of batches with stock left
+     */
+    public long countOnHandLots() throws SQLException {
+        return queryOne("inventory.countOnHand",
+                "SELECT COUNT(*) FROM IngredientBatch WHERE on_hand_oz > 0",
+                NO_PARAMS,
+                rs -> rs.getLong(1));
+    }
+
+    /**
+     * ingredients whose running on-hand total is less than a standard batch of a product with an active plan
+     * needs, one row per ingredient and product, by ingredient name then product name
+     */
+    public void forEachNearlyOutOfStock(RowHandler handler) throws SQLException {
+        queryEach("inventory.nearlyOutOfStock",
+                "SELECT DISTINCT i.ingredient_id, i.ingredient_name, " +
+                "COALESCE(oh.total_on_hand_oz, 0) AS total_on_hand, " +
+                "p.product_id, p.name AS product_name, " +
+                "p.standard_batch_units, " +
+                "ri.quantity AS qty_per_unit, " +
+                "(ri.quantity * p.standard_batch_units) AS qty_for_standard_batch " +
+                "FROM RecipePlan rp " +
+                "JOIN RecipeIngredient ri ON ri.plan_id = rp.plan_id " +
+                "JOIN Product p ON rp.product_id = p.product_id " +
+                "JOIN Ingredient i ON ri.ingredient_id = i.ingredient_id " +
+                "LEFT JOIN IngredientOnHand oh ON oh.ingredient_id = ri.ingredient_id " +
+                "WHERE rp.is_active = TRUE " +
+                "AND COALESCE(oh.total_on_hand_oz, 0) < (ri.quantity * p.standard_batch_units) " +
+                "ORDER BY i.ingredient_name, p.name",
+                NO_PARAMS,
+                handler);
+    }
+
+    /**
+     * batches with stock left that expire after today and within days, soonest first
+     */
+    public void forEachAlmostExpiredLot(int days, RowHandler handler) throws SQLException {
+        queryEach("inventory.almostExpired",
+                ALMOST_EXPIRED_SQL,
+                stmt -> {
+                    stmt.setFetchSize(fetchSize);
+                    stmt.setInt(1, days);
+                },
+                handler);
+    }
+}
@@ -0,0 +1,304 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * in-process snapshot of the on-hand inventory for the polled reports
+ * every ingredient with stock, its lots with something on hand and its total, in the on-hand report's order.
+ * inventory only changes when a batch is received or consumed, so the write paths in this process tell the
+ * snapshot which ingredients they touched and the next read reloads just those. a full reload happens on
+ * first use, after invalidate(), and once the snapshot is older than -Dinventory.snapshot.maxAgeMs, which bounds
+ * how long writes from other processes stay unseen. above -Dinventory.snapshot.maxLots lots nothing is kept
+ * and the reports stream from the database instead, below it the snapshot replaces streaming and its memory
+ * grows with the lots held. -Dinventory.snapshot.maxLots=0 always streams.
+ */
+public class InventorySnapshot {
+
+    private static final InventorySnapshot SHARED = new InventorySnapshot();
+
+    private static final long MAX_AGE_MS = Long.getLong("inventory.snapshot.maxAgeMs", 60_000);
+    private static final int MAX_LOTS = Integer.getInteger("inventory.snapshot.maxLots", 250_000);
+
+    private static final Pattern JSON_LOT_NUMBER = Pattern.compile("\"lot_number\"\\s*:\\s*\"([^\"]*)\"");
+
+    private volatile Snapshot current;
+    // full reload on the next read
+    private boolean invalid = true;
+    // ingredients reloaded on the next read
+    private final Set<Integer> dirty = new HashSet<>();
+    // too many lots when last counted, reads stream until the next full reload is due
+    private boolean tooLarge;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong patches = new AtomicLong();
+    private final AtomicLong bypasses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private volatile long lastLoadNanos;
+
+    /**
+     * the snapshot used by the services
+     */
+    public static InventorySnapshot shared() {
+        return SHARED;
+    }
+
+    /**
+     * the current inventory, reloading what the write paths invalidated
+     * null when the inventory is too large to keep, read it from the database then
+     */
+    public synchronized Snapshot read(Connection conn) throws SQLException {
+        long now = System.nanoTime();
+        boolean expired = current != null && now - current.loadedAt > MAX_AGE_MS * 1_000_000;
+        if (tooLarge && !expired && !invalid) {
+            bypasses.incrementAndGet();
+            return null;
+        }
+        if (current == null || invalid || expired || tooLarge) {
+            misses.incrementAndGet();
+            load(conn);
+            if (tooLarge) {
+                bypasses.incrementAndGet();
+                return null;
+            }
+        } else if (!dirty.isEmpty()) {
+            if (patch(conn)) {
+                patches.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+                load(conn);
+            }
+        } else {
+            hits.incrementAndGet();
+        }
+        return current;
+    }
+
+    /**
+     * batches of these ingredients were received or consumed
+     */
+    public synchronized void invalidateIngredients(Collection<Integer> ingredientIds) {
+        invalidations.incrementAndGet();
+        dirty.addAll(ingredientIds);
+    }
+
+    /**
+     * these lots were consumed, a lot the snapshot doesn't know reloads everything
+     */
+    public synchronized void invalidateLots(Collection<String> lotNumbers) {
+        invalidations.incrementAndGet();
+        Snapshot snapshot = current;
+        for (String lotNumber : lotNumbers) {
+            Integer ingredientId = snapshot == null ? null : snapshot.ingredientOfLot.get(lotNumber);
+            if (ingredientId == null) {
+                invalid = true;
+                return;
+            }
+            dirty.add(ingredientId);
+        }
+    }
+
+    /**
+     * the lots in a record_production_batch lots JSON were consumed
+     */
+    public void invalidateLotsJson(String ingredientLotsJson) {
+        List<String> lotNumbers = new ArrayList<>();
+        Matcher matcher = JSON_LOT_NUMBER.matcher(ingredientLotsJson);
+        while (matcher.find()) {
+            lotNumbers.add(matcher.group(1));
+        }
+        invalidateLots(lotNumbers);
+    }
+
+    /**
+     * reload everything on the next read
+     */
+    public synchronized void invalidate() {
+        invalidations.incrementAndGet();
+        invalid = true;
+    }
+
+    public Stats getStats() {
+        Snapshot snapshot = current;
+        synchronized (this) {
+            return new Stats(hits.get(), misses.get(), patches.get(), bypasses.get(), invalidations.get(),
+                    snapshot == null ? 0 : snapshot.stocks.size(), snapshot == null ? 0 : snapshot.ingredientOfLot.size(),
+                    snapshot == null ? -1 : (System.nanoTime() - snapshot.loadedAt) / 1_000_000,
+                    dirty.size(), invalid, tooLarge, lastLoadNanos / 1_000_000.0);
+        }
+    }
+
+    private void load(Connection conn) throws SQLException {
+        long started = System.nanoTime();
+        InventoryRepository inventory = new InventoryRepository(conn);
+        dirty.clear();
+        invalid = false;
+        tooLarge = inventory.countOnHandLots() > MAX_LOTS;
+        if (tooLarge) {
+            current = new Snapshot(Collections.emptyList(), started);
+            return;
+        }
+        List<Stock> stocks = new ArrayList<>();
+        inventory.forEachOnHandLot(rs -> {
+            int ingredientId = rs.getInt("ingredient_id");
+            Stock stock = stocks.isEmpty() ? null : stocks.get(stocks.size() - 1);
+            if (stock == null || stock.ingredientId != ingredientId) {
+                stock = new Stock(ingredientId, rs.getString("ingredient_name"));
+                stocks.add(stock);
+            }
+            stock.add(lot(rs));
+        });
+        current = new Snapshot(stocks, started);
+        lastLoadNanos = System.nanoTime() - started;
+    }
+
+    /**
+     * reload the dirty ingredients, false when that takes a full reload
+     */
+    private boolean patch(Connection conn) throws SQLException {
+        // an ingredient that had no stock: its place in the name order comes from a full reload
+        if (!current.byIngredient.keySet().containsAll(dirty)) {
+            return false;
+        }
+        InventoryRepository inventory = new InventoryRepository(conn);
+        Map<Integer, Stock> reloaded = new HashMap<>();
+        for (int ingredientId : dirty) {
+            Stock stock = new Stock(ingredientId, current.byIngredient.get(ingredientId).ingredientName);
+            inventory.forEachOnHandLotOf(ingredientId, rs -> stock.add(lot(rs)));
+            reloaded.put(ingredientId, stock);
+        }
+        List<Stock> stocks = new ArrayList<>(current.stocks.size());
+        for (Stock stock : current.stocks) {
+            Stock replacement = reloaded.getOrDefault(stock.ingredientId, stock);
+            if (!replacement.lots.isEmpty()) {
+                stocks.add(replacement);
+            }
+        }
+        dirty.clear();
+        // a patch keeps the load time, maxAgeMs still counts from the last full reload
+        current = new Snapshot(stocks, current.loadedAt);
+        return true;
+    }
+
+    private static Lot lot(ResultSet rs) throws SQLException {
+        return new Lot(rs.getString("lot_number"), rs.getBigDecimal("on_hand_oz").movePointRight(2).longValueExact(),
+                rs.getDate("expiration_date"), rs.getString("supplier_name"));
+    }
+
+    /**
+     * the inventory at one point, never changed once built
+     */
+    public static class Snapshot {
+        // by ingredient name then id, like the on-hand report
+        public final List<Stock> stocks;
+        final Map<Integer, Stock> byIngredient = new HashMap<>();
+        final Map<String, Integer> ingredientOfLot = new HashMap<>();
+        final long loadedAt;
+
+        Snapshot(List<Stock> stocks, long loadedAt) {
+            this.stocks = Collections.unmodifiableList(stocks);
+            this.loadedAt = loadedAt;
+            for (Stock stock : stocks) {
+                byIngredient.put(stock.ingredientId, stock);
+                for (Lot lot : stock.lots) {
+                    ingredientOfLot.put(lot.lotNumber, stock.ingredientId);
+                }
+            }
+        }
+    }
+
+    /**
+     * one ingredient with stock
+     */
+    public static class Stock {
+        public final int ingredientId;
+        public final String ingredientName;
+        // soonest expiration first
+        public final List<Lot> lots = new ArrayList<>();
+        public long totalHundredths;
+
+        Stock(int ingredientId, String ingredientName) {
+            this.ingredientId = ingredientId;
+            this.ingredientName = ingredientName;
+        }
+
+        void add(Lot lot) {
+            lots.add(lot);
+            totalHundredths += lot.onHandHundredths;
+        }
+    }
+
+    /**
+     * one lot with something on hand
+     */
+    public static class Lot {
+        public final String lotNumber;
+        // DECIMAL(10, 2) kept exact, totals are sums of these
+        public final long onHandHundredths;
+        public final java.sql.Date expirationDate;
+        public final String supplierName;
+
+        Lot(String lotNumber, long onHandHundredths, java.sql.Date expirationDate, String supplierName) {
+            this.lotNumber = lotNumber;
+            this.onHandHundredths = onHandHundredths;
+            this.expirationDate = expirationDate;
+            this.supplierName = supplierName;
+        }
+
+        public double onHand() {
+            return onHandHundredths / 100.0;
+        }
+    }
+
+    /**
+     * point-in-time snapshot metrics
+     * hits are reads without a query, patches reloaded only invalidated ingredients, misses reloaded everything,
+     * bypasses found the inventory too large to keep. ageMs is how long since the last full reload, the most a
+     * write from another process can be missing.
+     */
+    public static class Stats {
+        public final long hits;
+        public final long misses;
+        public final long patches;
+        public final long bypasses;
+        public final long invalidations;
+        public final int ingredients;
+        public final int lots;
+        public final long ageMillis;
+        public final int dirtyIngredients;
+        public final boolean invalid;
+        public final boolean tooLarge;
+        public final double lastLoadMillis;
+
+        Stats(long hits, long misses, long patches, long bypasses, long invalidations, int ingredients, int lots,
+              long ageMillis, int dirtyIngredients, boolean invalid, boolean tooLarge, double lastLoadMillis) {
+            this.hits = hits;
+            this.misses = misses;
+            this.patches = patches;
+            this.bypasses = bypasses;
+            this.invalidations = invalidations;
+            this.ingredients = ingredients;
+            this.lots = lots;
+            this.ageMillis = ageMillis;
+            this.dirtyIngredients = dirtyIngredients;
+            this.invalid = invalid;
+            this.tooLarge = tooLarge;
+            this.lastLoadMillis = lastLoadMillis;
+        }
+
+        public double hitRatio() {
+            long reads = hits + misses + patches + bypasses;
+            return reads == 0 ? 0.0 : hits / (double) reads;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d misses=%d patches=%d bypasses=%d hitRatio=%.3f invalidations=%d " +
+                    "ingredients=%d lots=%d ageMs=%d maxAgeMs=%d dirty=%d invalid=%b tooLarge=%b lastLoad=%.1fms",
+                    hits, misses, patches, bypasses, hitRatio(), invalidations, ingredients, lots, ageMillis,
+                    MAX_AGE_MS, dirtyIngredients, invalid, tooLarge, lastLoadMillis);
+        }
+    }
+}
@@ -4,12 +4,11 @@ import java.util.Scanner;
 
 public class LoginManager {
 	
-	private static String queryUserId = "VIEW QUERIES";
-    
 	/**
-	 * login to db
+	 * login to db, the session of the user or null when login failed
+	 * one lookup gives the user, the role and the manufacturer or supplier it is
 	 */
-    public String login(Scanner scanner) {
+    public UserSession login(Scanner scanner) {
     	System.out.print("Choose a role: [1] Manufacturer [2] Supplier [3] Viewer [4] Queries: ");
     	String roleSelecString = scanner.nextLine(); 
     	int roleSelection = Integer.parseInt(roleSelecString);
@@ -27,7 +26,7 @@ public class LoginManager {
     	if (!needUserID) {
     		// queries
     		System.out.println("Implement query menu.");
-    		return queryUserId;
+    		return UserSession.queries();
     	}
     	else {
         	// prompt user for id, e.g. MFG001
@@ -36,16 +35,12 @@ public class LoginManager {
             // connect to db
             try (Connection conn = DBConnect.getConnection()) {
             	// query 
-                String query = "SELECT user_id, first_name, last_name, role_code FROM User WHERE user_id = ?";
-                PreparedStatement stmt = conn.prepareStatement(query);
-                stmt.setString(1, userId);
-                // results
-                ResultSet rs = stmt.executeQuery();
+                UserRepository.UserRecord user = new UserRepository(conn).findById(userId);
                 // print hello and info
-                if (rs.next()) {
-                    System.out.println("\nHello, " + rs.getString("first_name") + " " + rs.getString("last_name") + ".");
-                    System.out.println("Role: " + rs.getString("role_code") + "\n");
-                    return userId;
+                if (user != null) {
+                    System.out.println("\nHello, " + user.firstName + " " + user.lastName + ".");
+                    System.out.println("Role: " + user.roleCode + "\n");
+                    return UserSession.of(user);
                 } else {
                     System.out.println("User not found.");
                     return null;
@@ -81,23 +76,4 @@ public class LoginManager {
 //            return null;
 //        }
     }
-    
-    /**
-     * get user's role
-     */
-    public String getUserRole(String userId) {
-        try (Connection conn = DBConnect.getConnection()) {
-            String sql = "SELECT role_code FROM User WHERE user_id = ?";
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(1, userId);
-            
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return rs.getString("role_code");
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return null;
-    }
 }
\ No newline at end of file
@@ -0,0 +1,287 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * in-memory lot lineage graph for recalls
+ * nodes are lot numbers, an edge goes from an ingredient lot to a lot made from it: a product lot
+ * (one per BatchConsumption row) or a compound ingredient lot. edges are kept both ways so a recall
+ * walks forward and a product lot's sources walk backward, without touching the consumption history.
+ * the graph follows LotLineage by pulling the edges added since the last pull. edge ids are handed
+ * out at insert but become visible at commit, so an id skipped by a pull may still show up: skipped
+ * ids are kept as gaps and read again until their edge arrives or lineage.gapRetryMs passes
+ * (rolled back and ignored inserts leave ids that never fill). refresh before a query costs one
+ * indexed lookup when nothing changed and no gap is open.
+ */
+public class LotLineageIndex {
+
+    private static final LotLineageIndex SHARED = new LotLineageIndex();
+
+    // edges read per query, the lock is taken once per chunk to merge it
+    private static final int CHUNK = 50_000;
+    // how long a skipped edge id is read again before it counts as never committed
+    private static final long GAP_RETRY_MS = Long.getLong("lineage.gapRetryMs", 120_000L);
+    // a jump in edge ids wider than this is a rollback of a large insert, not open transactions
+    private static final int MAX_GAPS = 10_000;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Node> nodes = new HashMap<>();
+    // skipped edge id -> when it was first skipped, in id order (ids only get skipped going up)
+    private final LinkedHashMap<Long, Long> gaps = new LinkedHashMap<>();
+    private long lastEdgeId;
+    private long edgeCount;
+
+    /**
+     * the index used by the services
+     */
+    public static LotLineageIndex shared() {
+        return SHARED;
+    }
+
+    /**
+     * pull the edges written since the last refresh, and any skipped ones that committed since
+     * the database is read without the lock, it is only held to merge each chunk
+     */
+    public void refresh(Connection conn) throws SQLException {
+        LotLineageRepository lineage = new LotLineageRepository(conn);
+        long after = startAfter(lineage.findMaxEdgeId());
+        List<Edge> chunk = new ArrayList<>();
+        while (after >= 0) {
+            chunk.clear();
+            lineage.forEachEdgeAfter(after, CHUNK, (edgeId, inputLot, outputLot, productLot, edgeDate) ->
+                    chunk.add(new Edge(edgeId, inputLot, outputLot, productLot,
+                            (int) edgeDate.toLocalDate().toEpochDay())));
+            lock.writeLock().lock();
+            try {
+                for (Edge edge : chunk) {
+                    merge(edge);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            after = chunk.size() < CHUNK ? -1 : chunk.get(chunk.size() - 1).edgeId;
+        }
+    }
+
+    // the edge id to read after, -1 when there is nothing to read
+    private long startAfter(long maxEdgeId) {
+        lock.writeLock().lock();
+        try {
+            if (maxEdgeId < lastEdgeId) {
+                // the table was recreated, start over
+                nodes.clear();
+                gaps.clear();
+                lastEdgeId = 0;
+                edgeCount = 0;
+            }
+            long now = System.currentTimeMillis();
+            Iterator<Long> skippedAt = gaps.values().iterator();
+            while (skippedAt.hasNext() && now - skippedAt.next() > GAP_RETRY_MS) {
+                skippedAt.remove();
+            }
+            if (!gaps.isEmpty()) {
+                return gaps.keySet().iterator().next() - 1;
+            }
+            return maxEdgeId > lastEdgeId ? lastEdgeId : -1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // add an edge unless it is already in the graph, caller holds the write lock
+    private void merge(Edge edge) {
+        if (edge.edgeId <= lastEdgeId) {
+            if (gaps.remove(edge.edgeId) == null) {
+                // read again after a gap, or by a refresh running alongside
+                return;
+            }
+        } else {
+            long now = System.currentTimeMillis();
+            for (long id = Math.max(lastEdgeId + 1, edge.edgeId - MAX_GAPS); id < edge.edgeId; id++) {
+                gaps.put(id, now);
+            }
+            lastEdgeId = edge.edgeId;
+        }
+        Node input = node(edge.inputLot, false);
+        Node output = node(edge.outputLot, edge.productLot);
+        input.addOut(output, edge.day);
+        output.addIn(input);
+        edgeCount++;
+    }
+
+    /**
+     * product lots made from a lot, directly or through compound ingredient lots made from it,
+     * counting only consumption between from and to (inclusive), sorted
+     */
+    public List<String> contaminatedProductLots(String lotNumber, LocalDate from, LocalDate to) {
+        long fromDay = from.toEpochDay();
+        long toDay = to.toEpochDay();
+        List<String> products = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Node node : downstream(lotNumber)) {
+                for (int i = 0; i < node.outCount; i++) {
+                    Node out = node.out[i];
+                    if (out.product && node.outDay[i] >= fromDay && node.outDay[i] <= toDay) {
+                        products.add(out.lotNumber);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        // a product can use the recalled lot and a compound made from it
+        return sortedDistinct(products);
+    }
+
+    /**
+     * compound ingredient lots made from a lot, directly or transitively, sorted
+     */
+    public List<String> contaminatedIngredientLots(String lotNumber) {
+        List<String> lots = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Node node : downstream(lotNumber)) {
+                if (!node.lotNumber.equals(lotNumber)) {
+                    lots.add(node.lotNumber);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return sortedDistinct(lots);
+    }
+
+    /**
+     * every ingredient lot that went into a lot, directly or through compound ingredient lots, sorted
+     */
+    public List<String> sourceLots(String lotNumber) {
+        List<String> lots = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Node start = nodes.get(lotNumber);
+            if (start == null) {
+                return lots;
+            }
+            Set<Node> seen = new HashSet<>();
+            Deque<Node> queue = new ArrayDeque<>();
+            queue.add(start);
+            seen.add(start);
+            while (!queue.isEmpty()) {
+                Node node = queue.poll();
+                for (int i = 0; i < node.inCount; i++) {
+                    if (seen.add(node.in[i])) {
+                        lots.add(node.in[i].lotNumber);
+                        queue.add(node.in[i]);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return sortedDistinct(lots);
+    }
+
+    public long edgeCount() {
+        lock.readLock().lock();
+        try {
+            return edgeCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // the lot and all ingredient lots reachable from it, breadth first, caller holds the read lock
+    private List<Node> downstream(String lotNumber) {
+        List<Node> reached = new ArrayList<>();
+        Node start = nodes.get(lotNumber);
+        if (start == null) {
+            return reached;
+        }
+        Set<Node> seen = new HashSet<>();
+        reached.add(start);
+        seen.add(start);
+        for (int next = 0; next < reached.size(); next++) {
+            Node node = reached.get(next);
+            for (int i = 0; i < node.outCount; i++) {
+                Node out = node.out[i];
+                // product lots are leaves, only ingredient lots are used again
+                if (!out.product && seen.add(out)) {
+                    reached.add(out);
+                }
+            }
+        }
+        return reached;
+    }
+
+    private Node node(String lotNumber, boolean product) {
+        Node node = nodes.get(lotNumber);
+        if (node == null) {
+            node = new Node(lotNumber, product);
+            nodes.put(lotNumber, node);
+        }
+        return node;
+    }
+
+    private static List<String> sortedDistinct(List<String> lots) {
+        return new ArrayList<>(new TreeSet<>(lots));
+    }
+
+    /**
+     * one edge as read, merged into the graph under the lock
+     */
+    private static class Edge {
+        final long edgeId;
+        final String inputLot;
+        final String outputLot;
+        final boolean productLot;
+        final int day;
+
+        Edge(long edgeId, String inputLot, String outputLot, boolean productLot, int day) {
+            this.edgeId = edgeId;
+            this.inputLot = inputLot;
+            this.outputLot = outputLot;
+            this.productLot = productLot;
+            this.day = day;
+        }
+    }
+
+    /**
+     * one lot with its edges in arrays, millions of edges stay compact
+     */
+    private static class Node {
+        static final Node[] NONE = new Node[0];
+        static final int[] NO_DAYS = new int[0];
+
+        final String lotNumber;
+        final boolean product;
+        // product lots only have inputs, arrays grow on first use
+        Node[] out = NONE;
+        int[] outDay = NO_DAYS;
+        int outCount;
+        Node[] in = NONE;
+        int inCount;
+
+        Node(String lotNumber, boolean product) {
+            this.lotNumber = lotNumber;
+            this.product = product;
+        }
+
+        void addOut(Node node, int day) {
+            if (outCount == out.length) {
+                out = Arrays.copyOf(out, Math.max(2, outCount * 2));
+                outDay = Arrays.copyOf(outDay, Math.max(2, outCount * 2));
+            }
+            out[outCount] = node;
+            outDay[outCount++] = day;
+        }
+
+        void addIn(Node node) {
+            if (inCount == in.length) {
+                in = Arrays.copyOf(in, Math.max(2, inCount * 2));
+            }
+            in[inCount++] = node;
+        }
+    }
+}
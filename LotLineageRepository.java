@@ -0,0 +1,68 @@
+import java.sql.*;
+
+/**
+ * LotLineage edges on a borrowed connection
+ */
+public class LotLineageRepository extends Repository {
+
+    // edges are streamed, not buffered, a chunk can be a large part of the table
+    private static final int FETCH_SIZE = 10_000;
+
+    /**
+     * one lineage edge, input lot -> lot made from it
+     */
+    @FunctionalInterface
+    public interface EdgeHandler {
+        void edge(long edgeId, String inputLot, String outputLot, boolean productLot, Date edgeDate);
+    }
+
+    public LotLineageRepository(Connection conn) {
+        super(conn);
+    }
+
+    /**
+     * highest edge id, 0 if there are no edges
+     */
+    public long findMaxEdgeId() throws SQLException {
+        return queryOne("lineage.maxEdge",
+                "SELECT COALESCE(MAX(edge_id), 0) FROM LotLineage",
+                NO_PARAMS,
+                rs -> rs.getLong(1));
+    }
+
+    /**
+     * the first limit edges with an id above edgeId, in id order
+     */
+    public void forEachEdgeAfter(long edgeId, int limit, EdgeHandler handler) throws SQLException {
+        queryEach("lineage.edgesAfter",
+                "SELECT edge_id, input_lot_number, output_lot_number, output_type, edge_date " +
+                "FROM LotLineage WHERE edge_id > ? ORDER BY edge_id LIMIT ?",
+                stmt -> {
+                    stmt.setFetchSize(FETCH_SIZE);
+                    stmt.setLong(1, edgeId);
+                    stmt.setInt(2, limit);
+                },
+                rs -> handler.edge(rs.getLong("edge_id"), rs.getString("input_lot_number"),
+                        rs.getString("output_lot_number"), "product".equals(rs.getString("output_type")),
+                        rs.getDate("edge_date")));
+    }
+
+    /**
+     * record that a compound ingredient lot was made from a source lot
+     * returns false if nothing was recorded: a lot does not exist, the source ingredient is not
+     * a material of the compound ingredient, or the edge is already there
+     */
+    public boolean addSourceLot(String compoundLot, String sourceLot) throws SQLException {
+        return update("lineage.addSource",
+                "INSERT IGNORE INTO LotLineage (input_lot_number, output_lot_number, output_type, edge_date) " +
+                "SELECT src.lot_number, cmp.lot_number, 'ingredient', cmp.intake_date " +
+                "FROM IngredientBatch cmp " +
+                "JOIN IngredientComposition ic ON ic.parent_ingredient_id = cmp.ingredient_id " +
+                "JOIN IngredientBatch src ON src.ingredient_id = ic.child_ingredient_id " +
+                "WHERE cmp.lot_number = ? AND src.lot_number = ?",
+                stmt -> {
+                    stmt.setString(1, compoundLot);
+                    stmt.setString(2, sourceLot);
+                }) > 0;
+    }
+}
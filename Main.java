@@ -2,23 +2,36 @@ import java.util.Scanner;
 
 public class Main {
     public static void main(String[] args) {
+        // headless: run a command file against the services, no menus
+        if (args.length > 0 && args[0].equals("--batch")) {
+            System.exit(BatchRunner.run(args));
+        }
+        // headless: serve the services over HTTP until the process is stopped
+        if (args.length > 0 && args[0].equals("--serve")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : Integer.getInteger("api.port", 8080);
+            try {
+                ApiServer.start(port);
+            } catch (java.io.IOException e) {
+                System.err.println("Error starting the API server: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        
         Scanner scanner = new Scanner(System.in);
         LoginManager loginManager = new LoginManager();
         
         System.out.println("Food Manufacturing System");
         
         // login
-        String userId = loginManager.login(scanner);
-        if (userId == null) {
+        UserSession session = loginManager.login(scanner);
+        if (session == null) {
             System.out.println("Login failed. Exiting...");
             return;
         }
         
-        // get the user role
-        String role = loginManager.getUserRole(userId);
-        if (userId == "VIEW QUERIES") {
-        	role = "VIEW QUERIES";
-        }
+        // the role came with the login lookup
+        String role = session.roleCode;
         if (role == null) {
         	System.out.println("Empty role. Logging out.");
         	System.exit(1);
@@ -27,18 +40,18 @@ public class Main {
         // go to menu according to role
         switch (role) {
             case "MANUFACTURER":
-                ManufacturerMenu manufacturerMenu = new ManufacturerMenu(userId, scanner);
+                ManufacturerMenu manufacturerMenu = new ManufacturerMenu(session, scanner);
                 manufacturerMenu.show();
                 break;
             case "SUPPLIER":
-                SupplierMenu supplierMenu = new SupplierMenu(userId, scanner);
+                SupplierMenu supplierMenu = new SupplierMenu(session, scanner);
                 supplierMenu.show();
                 break;
             case "VIEWER":
                 ViewerMenu viewerMenu = new ViewerMenu(scanner);
                 viewerMenu.show();
                 break;
-            case "VIEW QUERIES":
+            case UserSession.QUERIES_ROLE:
             	QueryMenu queryMenu = new QueryMenu(scanner);
             	queryMenu.show();
             	break;
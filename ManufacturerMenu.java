@@ -1,31 +1,50 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class ManufacturerMenu {
+    private UserSession session;
     private String userId;
     private Scanner scanner;
     private ProductService productService;
     private RecipeService recipeService;
     private IngredientService ingredientService;
     private ProductionService productionService;
+    // pushed by the expiration scheduler, shown above the menu
+    private Queue<ExpirationScheduler.Alert> expiringSoon = new ConcurrentLinkedQueue<>();
+    // cancelled on logout so the scheduler stops filling this menu's queue
+    private CompletableFuture<Void> alerts;
     
-    public ManufacturerMenu(String userId, Scanner scanner) {
-        this.userId = userId;
+    public ManufacturerMenu(UserSession session, Scanner scanner) {
+        this.session = session;
+        this.userId = session.userId;
         this.scanner = scanner;
         this.productService = new ProductService();
         this.recipeService = new RecipeService();
         this.ingredientService = new IngredientService();
         this.productionService = new ProductionService();
+        this.alerts = ExpirationScheduler.shared().subscribe(expiringSoon::add);
+        ExpirationScheduler.shared().start();
     }
     
     public void show() {
         while (true) {
+            // lots that crossed an expiration threshold since the menu was last shown
+            ExpirationScheduler.Alert alert;
+            while ((alert = expiringSoon.poll()) != null) {
+                System.out.println("EXPIRING SOON: " + alert);
+            }
             System.out.println("\nMANUFACTURER MENU");
-            System.out.println("Logged in as: " + userId);
+            System.out.println("Logged in as: " + session.displayName());
             System.out.println("1. Manage Products");
             System.out.println("2. Manage Recipe Plans");
             System.out.println("3. Create Product Batch");
             System.out.println("4. Reports");
             System.out.println("5. Trace Recall");
+            System.out.println("6. Trace Lot Sources");
             System.out.println("0. Logout");
             System.out.print("Select option: ");
             
@@ -48,8 +67,12 @@ public class ManufacturerMenu {
                 case 5:
                     traceRecall();
                     break;
+                case 6:
+                    traceLotSources();
+                    break;
                 case 0:
                     System.out.println("Logging out...");
+                    alerts.cancel(false);
                     return;
                 default:
                     System.out.println("Invalid option.");
@@ -71,7 +94,7 @@ public class ManufacturerMenu {
                 createProduct();
                 break;
             case 2:
-                productService.viewProductsByManufacturer(userId);
+                productService.viewProductsByManufacturer(session);
                 break;
             default:
                 System.out.println("Invalid option.");
@@ -97,6 +120,7 @@ public class ManufacturerMenu {
         scanner.nextLine();
         
         productService.createProduct(userId, productId, name, categoryId, standardBatchUnits);
+        session.forgetProducts();
     }
     
     private void manageRecipePlans() {
@@ -104,6 +128,7 @@ public class ManufacturerMenu {
         System.out.println("1. Create New Recipe Plan");
         System.out.println("2. View Recipe Plans");
         System.out.println("3. Set Active Recipe Plan");
+        System.out.println("4. New Version from an Existing Plan");
         System.out.print("Select option: ");
         
         int choice = scanner.nextInt();
@@ -119,6 +144,9 @@ public class ManufacturerMenu {
             case 3:
                 setActiveRecipePlan();
                 break;
+            case 4:
+                copyRecipePlanForward();
+                break;
             default:
                 System.out.println("Invalid option.");
         }
@@ -128,7 +156,7 @@ public class ManufacturerMenu {
         System.out.println("\n Create Recipe Plan ");
         
         // show available products by manufacturer
-        productService.viewProductsByManufacturer(userId);
+        productService.viewProductsByManufacturer(session);
         
         System.out.print("Enter product id: ");
         int productId = scanner.nextInt();
@@ -141,18 +169,45 @@ public class ManufacturerMenu {
         System.out.print("Set as active? (y/n): ");
         boolean isActive = scanner.nextLine().equalsIgnoreCase("y");
         
-        int planId = recipeService.createRecipePlan(productId, userId, versionNo, isActive);
+        System.out.println("\nNow you add ingredients to this recipe plan.");
+        Map<Integer, Double> ingredients = readRecipeLines("Add ingredient to recipe?", "Enter quantity: ");
         
-        if (planId > 0) {
-            System.out.println("\nNow you add ingredients to this recipe plan.");
-            addIngredientsToRecipe(planId);
-        }
+        // the plan and all of its ingredients go in together
+        recipeService.createRecipeVersion(productId, userId, versionNo, null, ingredients, isActive);
+        session.forgetActivePlan(productId);
     }
     
-    private void addIngredientsToRecipe(int planId) {
+    private void copyRecipePlanForward() {
+        System.out.println("\n New Version from an Existing Plan ");
+        
+        productService.viewProductsByManufacturer(session);
+        
+        System.out.print("Enter product id: ");
+        int productId = scanner.nextInt();
+        scanner.nextLine();
+        
+        recipeService.viewRecipePlans(productId, userId);
+        
+        System.out.print("Enter plan id to copy: ");
+        int basePlanId = scanner.nextInt();
+        scanner.nextLine();
+        
+        System.out.print("Set as active? (y/n): ");
+        boolean isActive = scanner.nextLine().equalsIgnoreCase("y");
+        
+        Map<Integer, Double> changes = readRecipeLines("Add or change an ingredient?", "Enter new quantity (0 to remove): ");
+        
+        // takes the next version number
+        recipeService.createRecipeVersion(productId, userId, null, basePlanId, changes, isActive);
+        session.forgetActivePlan(productId);
+    }
+    
+    // ingredient id -> quantity, read until the user is done, nothing is written yet
+    private Map<Integer, Double> readRecipeLines(String question, String quantityPrompt) {
+        Map<Integer, Double> lines = new LinkedHashMap<>();
         while (true) {
         	// confirm addition or not
-            System.out.print("\nAdd ingredient to recipe? (y/n): ");
+            System.out.print("\n" + question + " (y/n): ");
             if (!scanner.nextLine().equalsIgnoreCase("y")) {
                 break;
             }
@@ -165,19 +220,18 @@ public class ManufacturerMenu {
             int ingredientId = scanner.nextInt();
             scanner.nextLine();
             
-            System.out.print("Enter quantity: ");
+            System.out.print(quantityPrompt);
             double quantityOz = scanner.nextDouble();
             scanner.nextLine();
             
-            recipeService.addIngredientToRecipe(planId, ingredientId, quantityOz);
+            lines.put(ingredientId, quantityOz);
         }
-        
-        System.out.println("Recipe plan is complete.");
+        return lines;
     }
     
     private void viewRecipePlans() {
         System.out.println("\n View Recipe Plans ");
-        productService.viewProductsByManufacturer(userId);
+        productService.viewProductsByManufacturer(session);
         
         System.out.print("Enter product id to view recipes: ");
         int productId = scanner.nextInt();
@@ -201,20 +255,21 @@ public class ManufacturerMenu {
 
 
         recipeService.setActivePlan(planId, productId, userId);
+        session.forgetActivePlan(productId);
     }
     
     private void createProductBatch() {
         System.out.println("\n Create Product Batch ");
         
         // show products
-        productService.viewProductsByManufacturer(userId);
+        productService.viewProductsByManufacturer(session);
         
         System.out.print("Enter product id: ");
         int productId = scanner.nextInt();
         scanner.nextLine();
         
         // get active plan
-        int planId = recipeService.getActivePlanId(productId, userId);
+        int planId = recipeService.getActivePlanId(session, productId);
         if (planId == -1) {
             System.out.println("No active recipe plan found for this product.");
             return;
@@ -249,6 +304,7 @@ public class ManufacturerMenu {
         System.out.println("3. Almost Expired Items");
         System.out.println("4. Product Batch Cost Summary");
         System.out.println("5. Health Risk Violations (Last 30 Days)");
+        System.out.println("6. Export a Report to a File");
         System.out.print("Select report: ");
         
         int choice = scanner.nextInt();
@@ -272,6 +328,14 @@ public class ManufacturerMenu {
             case 5:
                 productionService.viewHealthRiskViolations();
                 break;
+            case 6:
+                System.out.println("Reports: " + String.join(", ", ExportService.reportNames()));
+                System.out.print("Enter report: ");
+                String report = scanner.nextLine().trim();
+                System.out.print("Enter file (.csv for CSV, .rcol for columnar): ");
+                String fileName = scanner.nextLine().trim();
+                new ExportService().exportReport(report, fileName);
+                break;
             default:
                 System.out.println("Invalid option.");
         }
@@ -292,5 +356,13 @@ public class ManufacturerMenu {
         
         productionService.traceRecall(lotNumber, recallDate, windowDays);
     }
+    
+    private void traceLotSources() {
+        System.out.println("\n Trace Lot Sources ");
+        
+        System.out.print("Enter product lot number: ");
+        String lotNumber = scanner.nextLine();
+        
+        productionService.traceLotSources(lotNumber);
+    }
 }
-
@@ -0,0 +1,513 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * latency histograms, throughput and error counts per service operation, with database time apart from client time
+ * a service method takes a Sample from start() when it begins, calls failed() where it reports an error and
+ * close() when it ends. an operation that calls another fails when the one it called failed.
+ * database time is the time the operation's thread spent in JDBC: the statements handed out by the pool and the
+ * StatementCache are wrapped by timed(), which adds the time of every execute call, and of next() on streamed
+ * result sets, to the thread's total. client time is the rest.
+ * latencies go into log-linear histograms, 16 buckets per power of two from 1 us, so percentiles are within ~3%.
+ * every operation is a JMX MXBean (foodmfg:type=Operation,name=...), prometheusText() has them all, with the
+ * connection pool and the inventory snapshot's hits, misses and age, in the
+ * Prometheus text format, served by ApiServer at /metrics and written every -Dmetrics.fileIntervalMs to
+ * -Dmetrics.file when that is set. -Dmetrics.jdbc=false leaves the statements unwrapped, db time is 0 then.
+ */
+public class Metrics {
+
+    private static final boolean TIME_JDBC = Boolean.parseBoolean(System.getProperty("metrics.jdbc", "true"));
+    private static final boolean JMX = Boolean.parseBoolean(System.getProperty("metrics.jmx", "true"));
+    private static final String FILE = System.getProperty("metrics.file");
+    private static final long FILE_INTERVAL_MS = Long.getLong("metrics.fileIntervalMs", 15_000);
+
+    // Prometheus histogram buckets, in seconds
+    private static final double[] BUCKETS = { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30 };
+
+    // per thread: database nanos, failures, both only ever grow
+    private static final ThreadLocal<long[]> THREAD = ThreadLocal.withInitial(() -> new long[2]);
+
+    // after the settings, the constructor reads them
+    private static final Metrics SHARED = new Metrics();
+
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+    private final long startedMillis = System.currentTimeMillis();
+
+    private Metrics() {
+        if (FILE != null) {
+            ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics-file");
+                t.setDaemon(true);
+                return t;
+            });
+            writer.scheduleWithFixedDelay(this::writeFile, FILE_INTERVAL_MS, FILE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * the metrics of this process
+     */
+    public static Metrics shared() {
+        return SHARED;
+    }
+
+    /**
+     * start timing one run of an operation on this thread
+     */
+    public static Sample start(String operation) {
+        return new Sample(SHARED.operation(operation));
+    }
+
+    /**
+     * the statement with its JDBC calls timed as database time, a ResultSet it returns too when it streams
+     */
+    static <T extends Statement> T timed(T stmt) {
+        if (!TIME_JDBC) {
+            return stmt;
+        }
+        Class<?> type = stmt instanceof CallableStatement ? CallableStatement.class
+                : stmt instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+        @SuppressWarnings("unchecked")
+        T proxy = (T) Proxy.newProxyInstance(Metrics.class.getClassLoader(), new Class<?>[] { type }, new Timed(stmt));
+        return proxy;
+    }
+
+    public Operation operation(String name) {
+        Operation operation = operations.get(name);
+        if (operation != null) {
+            return operation;
+        }
+        Operation created = new Operation(name);
+        operation = operations.putIfAbsent(name, created);
+        if (operation != null) {
+            return operation;
+        }
+        if (JMX) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(created,
+                        new ObjectName("foodmfg:type=Operation,name=" + ObjectName.quote(name)));
+            } catch (Exception e) {
+                System.err.println("Error registering metrics MBean " + name + ": " + e.getMessage());
+            }
+        }
+        return created;
+    }
+
+    /**
+     * every operation so far, by name
+     */
+    public SortedMap<String, Operation> operations() {
+        return new TreeMap<>(operations);
+    }
+
+    /**
+     * all operations in the Prometheus text exposition format (version 0.0.4)
+     */
+    public String prometheusText() {
+        StringBuilder text = new StringBuilder();
+        SortedMap<String, Operation> all = operations();
+
+        text.append("# HELP foodmfg_operation_seconds Service operation latency.\n");
+        text.append("# TYPE foodmfg_operation_seconds histogram\n");
+        for (Operation operation : all.values()) {
+            Snapshot snapshot = operation.snapshot();
+            for (double bucket : BUCKETS) {
+                sample(text, "foodmfg_operation_seconds_bucket", operation.name, "le", Double.toString(bucket),
+                       snapshot.countAtMost((long) (bucket * 1e9)));
+            }
+            sample(text, "foodmfg_operation_seconds_bucket", operation.name, "le", "+Inf", snapshot.count);
+            sample(text, "foodmfg_operation_seconds_sum", operation.name, null, null, snapshot.totalNanos / 1e9);
+            sample(text, "foodmfg_operation_seconds_count", operation.name, null, null, snapshot.count);
+        }
+        text.append("# HELP foodmfg_operation_quantile_seconds Service operation latency percentiles since start.\n");
+        text.append("# TYPE foodmfg_operation_quantile_seconds gauge\n");
+        for (Operation operation : all.values()) {
+            Snapshot snapshot = operation.snapshot();
+            sample(text, "foodmfg_operation_quantile_seconds", operation.name, "quantile", "0.5", snapshot.p50 / 1e9);
+            sample(text, "foodmfg_operation_quantile_seconds", operation.name, "quantile", "0.99", snapshot.p99 / 1e9);
+            sample(text, "foodmfg_operation_quantile_seconds", operation.name, "quantile", "0.999", snapshot.p999 / 1e9);
+        }
+        counter(text, all, "foodmfg_operation_db_seconds_total", "Time spent in JDBC calls.",
+                snapshot -> snapshot.dbNanos / 1e9);
+        counter(text, all, "foodmfg_operation_client_seconds_total", "Time spent outside JDBC calls.",
+                snapshot -> (snapshot.totalNanos - snapshot.dbNanos) / 1e9);
+        counter(text, all, "foodmfg_operation_errors_total", "Operations that reported an error.",
+                snapshot -> snapshot.errors);
+
+        ConnectionPool.Stats pool = DBConnect.getPool().getStats();
+        gauge(text, "foodmfg_db_pool_connections", "Open pooled connections.", pool.total);
+        gauge(text, "foodmfg_db_pool_active", "Connections borrowed right now.", pool.active);
+        gauge(text, "foodmfg_db_pool_waiting", "Threads waiting for a connection.", pool.waiting);
+
+        InventorySnapshot.Stats inventory = InventorySnapshot.shared().getStats();
+        text.append("# HELP foodmfg_inventory_snapshot_reads_total Inventory snapshot reads by how they were served.\n");
+        text.append("# TYPE foodmfg_inventory_snapshot_reads_total counter\n");
+        text.append("foodmfg_inventory_snapshot_reads_total{result=\"hit\"} ").append(inventory.hits).append('\n');
+        text.append("foodmfg_inventory_snapshot_reads_total{result=\"miss\"} ").append(inventory.misses).append('\n');
+        text.append("foodmfg_inventory_snapshot_reads_total{result=\"patch\"} ").append(inventory.patches).append('\n');
+        text.append("foodmfg_inventory_snapshot_reads_total{result=\"bypass\"} ").append(inventory.bypasses).append('\n');
+        text.append("# HELP foodmfg_inventory_snapshot_invalidations_total Inventory snapshot invalidations.\n");
+        text.append("# TYPE foodmfg_inventory_snapshot_invalidations_total counter\n");
+        text.append("foodmfg_inventory_snapshot_invalidations_total ").append(inventory.invalidations).append('\n');
+        gauge(text, "foodmfg_inventory_snapshot_age_seconds", "Age of the inventory snapshot, -1 before the first load.",
+              inventory.ageMillis < 0 ? -1 : inventory.ageMillis / 1e3);
+        gauge(text, "foodmfg_inventory_snapshot_lots", "Lots held by the inventory snapshot.", inventory.lots);
+        gauge(text, "foodmfg_inventory_snapshot_dirty_ingredients", "Ingredients the next read reloads.",
+              inventory.dirtyIngredients);
+        gauge(text, "foodmfg_inventory_snapshot_last_load_seconds", "Duration of the last full snapshot load.",
+              inventory.lastLoadMillis / 1e3);
+        gauge(text, "foodmfg_uptime_seconds", "Seconds since the metrics started.",
+              (System.currentTimeMillis() - startedMillis) / 1e3);
+        return text.toString();
+    }
+
+    private interface Value {
+        double of(Snapshot snapshot);
+    }
+
+    private static void counter(StringBuilder text, SortedMap<String, Operation> all, String metric, String help,
+                                Value value) {
+        text.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(metric).append(" counter\n");
+        for (Operation operation : all.values()) {
+            sample(text, metric, operation.name, null, null, value.of(operation.snapshot()));
+        }
+    }
+
+    private static void gauge(StringBuilder text, String metric, String help, double value) {
+        text.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(metric).append(" gauge\n");
+        text.append(metric).append(' ').append(number(value)).append('\n');
+    }
+
+    private static void sample(StringBuilder text, String metric, String operation, String label, String labelValue,
+                               double value) {
+        text.append(metric).append("{operation=\"").append(operation.replace("\\", "\\\\").replace("\"", "\\\""))
+            .append('"');
+        if (label != null) {
+            text.append(',').append(label).append("=\"").append(labelValue).append('"');
+        }
+        text.append("} ").append(number(value)).append('\n');
+    }
+
+    private static String number(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    /**
+     * write prometheusText() to -Dmetrics.file, replaced in one move so a scraper never reads half a file
+     */
+    private void writeFile() {
+        try {
+            Path file = Paths.get(FILE).toAbsolutePath();
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temp, prometheusText().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error writing metrics file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * one run of an operation
+     */
+    public static final class Sample implements AutoCloseable {
+        private final Operation operation;
+        private final long started = System.nanoTime();
+        private final long dbAtStart;
+        private final long failuresAtStart;
+        private boolean failed;
+        private boolean closed;
+
+        Sample(Operation operation) {
+            this.operation = operation;
+            long[] thread = THREAD.get();
+            this.dbAtStart = thread[0];
+            this.failuresAtStart = thread[1];
+        }
+
+        /**
+         * the operation reported an error
+         */
+        public void failed() {
+            if (!failed) {
+                failed = true;
+                THREAD.get()[1]++;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            long[] thread = THREAD.get();
+            operation.record(System.nanoTime() - started, thread[0] - dbAtStart, thread[1] > failuresAtStart);
+        }
+    }
+
+    /**
+     * the JMX view of an operation, times in milliseconds
+     */
+    public interface OperationMXBean {
+        long getCount();
+        long getErrors();
+        double getPerMinute();
+        double getMeanMillis();
+        double getP50Millis();
+        double getP99Millis();
+        double getP999Millis();
+        double getMaxMillis();
+        double getDbMeanMillis();
+        double getClientMeanMillis();
+    }
+
+    /**
+     * everything recorded for one operation name
+     */
+    public static final class Operation implements OperationMXBean {
+        final String name;
+        private final Histogram latency = new Histogram();
+        private final LongAdder dbNanos = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        // runs per second over the last 60 seconds, slot = epoch second % 60
+        private final long[] recentSeconds = new long[60];
+        private final long[] recentCounts = new long[60];
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        void record(long nanos, long db, boolean failed) {
+            latency.record(nanos);
+            dbNanos.add(Math.min(db, nanos));
+            if (failed) {
+                errors.increment();
+            }
+            long second = System.currentTimeMillis() / 1000;
+            synchronized (recentCounts) {
+                int slot = (int) (second % 60);
+                if (recentSeconds[slot] != second) {
+                    recentSeconds[slot] = second;
+                    recentCounts[slot] = 0;
+                }
+                recentCounts[slot]++;
+            }
+        }
+
+        public Snapshot snapshot() {
+            return new Snapshot(name, latency, dbNanos.sum(), errors.sum());
+        }
+
+        @Override public long getCount() { return latency.count(); }
+        @Override public long getErrors() { return errors.sum(); }
+        @Override public double getMeanMillis() { return snapshot().meanMillis(); }
+        @Override public double getP50Millis() { return snapshot().p50 / 1e6; }
+        @Override public double getP99Millis() { return snapshot().p99 / 1e6; }
+        @Override public double getP999Millis() { return snapshot().p999 / 1e6; }
+        @Override public double getMaxMillis() { return snapshot().max / 1e6; }
+        @Override public double getDbMeanMillis() { return snapshot().dbMeanMillis(); }
+        @Override public double getClientMeanMillis() { return snapshot().meanMillis() - snapshot().dbMeanMillis(); }
+
+        @Override
+        public double getPerMinute() {
+            long second = System.currentTimeMillis() / 1000;
+            long runs = 0;
+            synchronized (recentCounts) {
+                for (int slot = 0; slot < 60; slot++) {
+                    if (recentSeconds[slot] > second - 60) {
+                        runs += recentCounts[slot];
+                    }
+                }
+            }
+            return runs;
+        }
+    }
+
+    /**
+     * log-linear latency histogram in nanoseconds, safe to record from any thread
+     * below 1 us is one bucket, then 16 buckets per power of two up to 2^45 ns (~9.8 hours)
+     */
+    static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int MIN_EXP = 10;
+        private static final int MAX_EXP = 45;
+        static final int SIZE = (MAX_EXP - MIN_EXP + 1) * SUB + 1;
+
+        private final AtomicLongArray counts = new AtomicLongArray(SIZE);
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+        void record(long nanos) {
+            counts.incrementAndGet(index(Math.max(0, nanos)));
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        long count() {
+            long count = 0;
+            for (int i = 0; i < SIZE; i++) {
+                count += counts.get(i);
+            }
+            return count;
+        }
+
+        static int index(long nanos) {
+            if (nanos < (1L << MIN_EXP)) {
+                return 0;
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(nanos);
+            if (exp > MAX_EXP) {
+                return SIZE - 1;
+            }
+            return 1 + (exp - MIN_EXP) * SUB + (int) ((nanos >>> (exp - SUB_BITS)) & (SUB - 1));
+        }
+
+        static long lowerBound(int index) {
+            if (index == 0) {
+                return 0;
+            }
+            int exp = (index - 1) / SUB + MIN_EXP;
+            return (1L << exp) + ((long) ((index - 1) % SUB) << (exp - SUB_BITS));
+        }
+
+        static long upperBound(int index) {
+            if (index == 0) {
+                return 1L << MIN_EXP;
+            }
+            int exp = (index - 1) / SUB + MIN_EXP;
+            return lowerBound(index) + (1L << (exp - SUB_BITS));
+        }
+    }
+
+    /**
+     * an operation's numbers at one point, times in nanoseconds
+     */
+    public static final class Snapshot {
+        public final String operation;
+        public final long count;
+        public final long errors;
+        public final long totalNanos;
+        public final long dbNanos;
+        public final long p50;
+        public final long p99;
+        public final long p999;
+        public final long max;
+        private final long[] counts = new long[Histogram.SIZE];
+
+        Snapshot(String operation, Histogram histogram, long dbNanos, long errors) {
+            this.operation = operation;
+            long count = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = histogram.counts.get(i);
+                count += counts[i];
+            }
+            this.count = count;
+            this.errors = errors;
+            this.totalNanos = histogram.total.sum();
+            this.dbNanos = dbNanos;
+            this.max = histogram.max.get();
+            this.p50 = percentile(0.5);
+            this.p99 = percentile(0.99);
+            this.p999 = percentile(0.999);
+        }
+
+        private long percentile(double p) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(p * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    // the middle of the bucket, never past the largest value seen
+                    return Math.min(max, (Histogram.lowerBound(i) + Histogram.upperBound(i)) / 2);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * runs that took at most nanos, to the histogram's resolution
+         */
+        long countAtMost(long nanos) {
+            long seen = 0;
+            for (int i = 0; i < counts.length && Histogram.upperBound(i) <= nanos; i++) {
+                seen += counts[i];
+            }
+            return seen;
+        }
+
+        public double meanMillis() {
+            return count == 0 ? 0.0 : totalNanos / 1e6 / count;
+        }
+
+        public double dbMeanMillis() {
+            return count == 0 ? 0.0 : dbNanos / 1e6 / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s count=%d errors=%d mean=%.2fms p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms " +
+                    "db=%.2fms client=%.2fms", operation, count, errors, meanMillis(), p50 / 1e6, p99 / 1e6,
+                    p999 / 1e6, max / 1e6, dbMeanMillis(), meanMillis() - dbMeanMillis());
+        }
+    }
+
+    /**
+     * JDBC calls of a statement or streamed result set, execute and next() counted as database time
+     */
+    private static final class Timed implements InvocationHandler {
+        private final Object target;
+
+        Timed(Object target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            boolean timed = name.startsWith("execute") || name.equals("next") || name.equals("getMoreResults");
+            long started = timed ? System.nanoTime() : 0;
+            try {
+                Object result = method.invoke(target, args);
+                // a result set read ahead of time is already in memory, only a streamed one still waits on the server
+                if (result instanceof ResultSet && target instanceof Statement && ((Statement) target).getFetchSize() > 0) {
+                    return Proxy.newProxyInstance(Metrics.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                            new Timed(result));
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                if (timed) {
+                    THREAD.get()[0] += System.nanoTime() - started;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import java.sql.*;
+import java.util.*;
+
+/**
+ * pages of the product catalog on a borrowed connection
+ * keyset pagination over ProductCatalog in (manufacturer_name, category_name, name, product_id) order: a page
+ * starts right after the last product of the previous page and is read as an index range, so a page deep in
+ * the catalog costs the same as the first one however many products there are.
+ */
+public class ProductCatalogRepository extends Repository {
+
+    private static final String[] ORDER = { "manufacturer_name", "category_name", "name", "product_id" };
+
+    /**
+     * one product as listed in the catalog, also the position a following page starts after
+     */
+    public static class Entry {
+        public final int productId;
+        public final String name;
+        public final String manufacturerName;
+        public final String categoryName;
+
+        public Entry(int productId, String name, String manufacturerName, String categoryName) {
+            this.productId = productId;
+            this.name = name;
+            this.manufacturerName = manufacturerName;
+            this.categoryName = categoryName;
+        }
+
+        private Object key(String column) {
+            switch (column) {
+                case "manufacturer_name": return manufacturerName;
+                case "category_name": return categoryName;
+                case "name": return name;
+                default: return productId;
+            }
+        }
+    }
+
+    public ProductCatalogRepository(Connection conn) {
+        super(conn);
+    }
+
+    /**
+     * up to limit products after the entry after (null for the first page),
+     * only one manufacturer and/or category when those names are not null
+     */
+    public List<Entry> findPage(String manufacturerName, String categoryName, Entry after, int limit)
+            throws SQLException {
+        List<Object> params = new ArrayList<>();
+        StringBuilder where = new StringBuilder("TRUE");
+        // a filtered column is the same in every row, the seek only compares the others
+        List<String> seekColumns = new ArrayList<>(Arrays.asList(ORDER));
+        if (manufacturerName != null) {
+            where.append(" AND manufacturer_name = ?");
+            params.add(manufacturerName);
+            seekColumns.remove("manufacturer_name");
+        }
+        if (categoryName != null) {
+            where.append(" AND category_name = ?");
+            params.add(categoryName);
+            seekColumns.remove("category_name");
+        }
+        if (after != null) {
+            where.append(" AND (").append(seek(seekColumns, 0, after, params)).append(")");
+        }
+        params.add(limit);
+
+        String name = "catalog.page." + (manufacturerName != null ? "m" : "") + (categoryName != null ? "c" : "") +
+                (after != null ? "after" : "first");
+        return queryList(name,
+                "SELECT product_id, name, manufacturer_name, category_name FROM ProductCatalog " +
+                "WHERE " + where + " " +
+                "ORDER BY manufacturer_name, category_name, name, product_id LIMIT ?",
+                stmt -> {
+                    for (int i = 0; i < params.size(); i++) {
+                        stmt.setObject(i + 1, params.get(i));
+                    }
+                },
+                rs -> new Entry(rs.getInt("product_id"), rs.getString("name"),
+                        rs.getString("manufacturer_name"), rs.getString("category_name")));
+    }
+
+    /**
+     * (a, b, c) > (?, ?, ?) spelled out as a > ? OR (a = ? AND (b > ? OR ...)),
+     * MariaDB reads the row comparison as a full index scan but this form as a range
+     */
+    private static String seek(List<String> columns, int from, Entry after, List<Object> params) {
+        String column = columns.get(from);
+        params.add(after.key(column));
+        if (from == columns.size() - 1) {
+            return column + " > ?";
+        }
+        params.add(after.key(column));
+        return column + " > ? OR (" + column + " = ? AND (" + seek(columns, from + 1, after, params) + "))";
+    }
+}
@@ -0,0 +1,43 @@
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Product lookups on a borrowed connection
+ */
+public class ProductRepository extends Repository {
+
+    public ProductRepository(Connection conn) {
+        super(conn);
+    }
+
+    /**
+     * every product of a manufacturer with its category name
+     */
+    public List<ProductRecord> findByManufacturer(String manufacturerId) throws SQLException {
+        return queryList("product.byManufacturer",
+                "SELECT p.product_id, p.name, c.name AS category, p.standard_batch_units " +
+                "FROM Product p " +
+                "JOIN Category c ON p.category_id = c.category_id " +
+                "WHERE p.manufacturer_id = ?",
+                stmt -> stmt.setString(1, manufacturerId),
+                rs -> new ProductRecord(rs.getInt("product_id"), rs.getString("name"),
+                                        rs.getString("category"), rs.getInt("standard_batch_units")));
+    }
+
+    /**
+     * one product as the manufacturer menu lists it
+     */
+    public static class ProductRecord {
+        public final int productId;
+        public final String name;
+        public final String categoryName;
+        public final int standardBatchUnits;
+
+        ProductRecord(int productId, String name, String categoryName, int standardBatchUnits) {
+            this.productId = productId;
+            this.name = name;
+            this.categoryName = categoryName;
+            this.standardBatchUnits = standardBatchUnits;
+        }
+    }
+}
@@ -8,6 +8,7 @@ public class ProductService {
      */
     public void createProduct(String manufacturerId, int productId, String name, 
                              int categoryId, int standardBatchUnits) {
+    	Metrics.Sample sample = Metrics.start("product.createProduct");
     	// connect to db
         try (Connection conn = DBConnect.getConnection()) {
         	// query, insert new product
@@ -27,7 +28,10 @@ public class ProductService {
             System.out.println("New product has been created.");
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error creating product: " + e.getMessage());
+        } finally {
+            sample.close();
         }
     }
     
@@ -35,32 +39,82 @@ public class ProductService {
      * view all products for a manufacturer
      */
     public void viewProductsByManufacturer(String manufacturerId) {
+    	Metrics.Sample sample = Metrics.start("product.viewProductsByManufacturer");
     	// connect to db
         try (Connection conn = DBConnect.getConnection()) {
-        	// query, get all all product info
-            String query = "SELECT p.product_id, p.name, c.name AS category, p.standard_batch_units " +
-                        "FROM Product p " +
-                        "JOIN Category c ON p.category_id = c.category_id " +
-                        "WHERE p.manufacturer_id = ?";
- 
-            // statement object
-            PreparedStatement stmt = conn.prepareStatement(query);
-            // set query
-            stmt.setString(1, manufacturerId);
-            // results
-            ResultSet rs = stmt.executeQuery();
-            System.out.println("\nProducts");
-            // print products info
-            while (rs.next()) {
-                System.out.println("ID: " + rs.getInt("product_id") + 
-                                 " Name: " + rs.getString("name") +
-                                 " Category: " + rs.getString("category") +
-                                 " Std Batch: " + rs.getInt("standard_batch_units") + " units");
-            }
+            printProducts(new ProductRepository(conn).findByManufacturer(manufacturerId));
+            
+        } catch (SQLException e) {
+            sample.failed();
+            System.err.println("Error viewing products: " + e.getMessage());
+        } finally {
+            sample.close();
+        }
+    }
+    
+    /**
+     * view the products of the session's manufacturer
+     */
+    public void viewProductsByManufacturer(UserSession session) {
+        try {
+            printProducts(findProductsByManufacturer(session));
             
         } catch (SQLException e) {
             System.err.println("Error viewing products: " + e.getMessage());
         }
     }
     
+    /**
+     * the products of the session's manufacturer, read once per session until it forgets them
+     */
+    public List<ProductRepository.ProductRecord> findProductsByManufacturer(UserSession session) throws SQLException {
+        List<ProductRepository.ProductRecord> products = session.cachedProducts();
+        if (products == null) {
+            Metrics.Sample sample = Metrics.start("product.findProductsByManufacturer");
+            // connect to db
+            try (Connection conn = DBConnect.getConnection()) {
+                products = new ProductRepository(conn).findByManufacturer(session.userId);
+                session.cacheProducts(products);
+            } catch (SQLException e) {
+                sample.failed();
+                throw e;
+            } finally {
+                sample.close();
+            }
+        }
+        return products;
+    }
+    
+    private void printProducts(List<ProductRepository.ProductRecord> products) {
+        System.out.println("\nProducts");
+        // print products info
+        for (ProductRepository.ProductRecord product : products) {
+            System.out.println("ID: " + product.productId + 
+                             " Name: " + product.name +
+                             " Category: " + product.categoryName +
+                             " Std Batch: " + product.standardBatchUnits + " units");
+        }
+    }
+    
+    /**
+     * one page of the product catalog, by manufacturer, category and name
+     * the page starts after the last product of the previous one (null for the first page), manufacturer and
+     * category names narrow it down when not null
+     */
+    public List<ProductCatalogRepository.Entry> browseProducts(String manufacturerName, String categoryName,
+                                                               ProductCatalogRepository.Entry after, int pageSize) {
+        Metrics.Sample sample = Metrics.start("product.browseProducts");
+        // connect to db
+        try (Connection conn = DBConnect.getConnection()) {
+            return new ProductCatalogRepository(conn).findPage(manufacturerName, categoryName, after, pageSize);
+            
+        } catch (SQLException e) {
+            sample.failed();
+            System.err.println("Error browsing products: " + e.getMessage());
+        } finally {
+            sample.close();
+        }
+        return Collections.emptyList();
+    }
+    
 }
\ No newline at end of file
@@ -0,0 +1,102 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * FEFO lot lookup and production procedure call on a borrowed connection
+ */
+public class ProductionRepository extends Repository {
+
+    public ProductionRepository(Connection conn) {
+        super(conn);
+    }
+
+    /**
+     * earliest-expiring unexpired lot with at least requiredQty on hand,
+     * quantity of the returned lot is its on_hand_oz. null if no single lot is big enough
+     */
+    public IngredientLot findFefoLot(int ingredientId, double requiredQty) throws SQLException {
+        return queryOne("fefo.singleLot",
+                "SELECT lot_number, on_hand_oz " +
+                "FROM IngredientBatch " +
+                "WHERE ingredient_id = ? " +
+                "AND on_hand_oz >= ? " +  // no splitting, must have enough on hand to use
+                "AND expiration_date > NOW() " +
+                "ORDER BY expiration_date ASC, batch_id ASC " +
+                "LIMIT 1",  // no splitting, only one lot
+                stmt -> {
+                    stmt.setInt(1, ingredientId);
+                    stmt.setDouble(2, requiredQty);
+                },
+                rs -> new IngredientLot(rs.getString("lot_number"), rs.getDouble("on_hand_oz")));
+    }
+
+    /**
+     * FEFO candidate lots for every ingredient of a plan in one round trip
+     * every unexpired lot with something on hand, earliest expiration first.
+     * ingredients with no candidate lot come back once with a null lot number
+     */
+    public List<FefoCandidate> findFefoCandidatesForPlan(int planId, int batchQuantity) throws SQLException {
+        return queryList("fefo.planCandidates",
+                "SELECT ri.ingredient_id, ri.quantity * ? AS required_oz, " +
+                "       ib.lot_number, ib.batch_id, ib.on_hand_oz, ib.expiration_date " +
+                "FROM RecipeIngredient ri " +
+                "LEFT JOIN IngredientBatch ib ON ib.ingredient_id = ri.ingredient_id " +
+                "     AND ib.on_hand_oz > 0 " +
+                "     AND ib.expiration_date > NOW() " +
+                "WHERE ri.plan_id = ? " +
+                "ORDER BY ri.ingredient_id, ib.expiration_date ASC, ib.batch_id ASC",
+                stmt -> {
+                    stmt.setInt(1, batchQuantity);
+                    stmt.setInt(2, planId);
+                },
+                rs -> {
+                    java.sql.Date expiration = rs.getDate("expiration_date");
+                    return new FefoCandidate(rs.getInt("ingredient_id"), rs.getDouble("required_oz"),
+                            rs.getString("lot_number"), rs.getString("batch_id"), rs.getDouble("on_hand_oz"),
+                            expiration == null ? null : expiration.toLocalDate());
+                });
+    }
+
+    /**
+     * calls record_production_batch
+     */
+    public void recordProductionBatch(int productId, String manufacturerId, int quantity,
+                                      String expirationDate, String ingredientLotsJson,
+                                      int planId, String batchId) throws SQLException {
+        call("production.record",
+                "{CALL record_production_batch(?, ?, ?, ?, ?, ?, ?)}",
+                stmt -> {
+                    stmt.setInt(1, productId);
+                    stmt.setString(2, manufacturerId);
+                    stmt.setInt(3, quantity);
+                    stmt.setString(4, expirationDate);
+                    stmt.setString(5, ingredientLotsJson);
+                    stmt.setInt(6, planId);
+                    stmt.setString(7, batchId);
+                });
+    }
+
+    /**
+     * one row of findFefoCandidatesForPlan
+     */
+    public static class FefoCandidate {
+        public final int ingredientId;
+        public final double requiredQty;
+        // lot fields are null when the ingredient has no usable lot
+        public final String lotNumber;
+        public final String batchId;
+        public final double onHandQty;
+        public final LocalDate expirationDate;
+
+        FefoCandidate(int ingredientId, double requiredQty, String lotNumber, String batchId,
+                      double onHandQty, LocalDate expirationDate) {
+            this.ingredientId = ingredientId;
+            this.requiredQty = requiredQty;
+            this.lotNumber = lotNumber;
+            this.batchId = batchId;
+            this.onHandQty = onHandQty;
+            this.expirationDate = expirationDate;
+        }
+    }
+}
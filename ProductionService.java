@@ -9,93 +9,134 @@ public class ProductionService {
     public void createProductBatchFEFO(int productId, String manufacturerId, 
                                            int quantity, String expirationDate, 
                                            int planId, String batchId) {
+        Metrics.Sample sample = Metrics.start("production.createProductBatchFEFO");
     	// connect to db
         try (Connection conn = DBConnect.getConnection()) {
             
-        	// get required ingredients from recipe plan
-            Map<Integer, Double> requiredIngredients = getRequiredIngredients(conn, planId, quantity);
-            
-            // selected ingredient lots for production
-            List<IngredientLot> selectedLots = new ArrayList<>();
-            // for each ingredient, get id and required quantity
-            for (Map.Entry<Integer, Double> entry : requiredIngredients.entrySet()) {
-                int ingredientId = entry.getKey();
-                double requiredQty = entry.getValue();
-                // ingredient lot FEFO
-                List<IngredientLot> lotsForIngredient = selectLotsWithFEFO(conn, ingredientId, requiredQty);
-                // add ingredient lot to selected lots
-                selectedLots.addAll(lotsForIngredient);
-            }
+        	// FEFO lot for every ingredient of the recipe plan in one query
+            List<IngredientLot> selectedLots = selectPlanLotsWithFEFO(conn, planId, quantity);
             
             // JSON string builder for selected lots
+            FlightEvents.LotsJsonBuild jsonBuild = new FlightEvents.LotsJsonBuild();
+            jsonBuild.begin();
             String ingredientLotsJSON = buildLotsJSON(selectedLots);
+            jsonBuild.lots = selectedLots.size();
+            jsonBuild.characters = ingredientLotsJSON.length();
+            jsonBuild.commit();
             
-            // call method that calls procedure to record the batch production
-            recordProductionBatch(productId, manufacturerId, quantity, 
-                                expirationDate, ingredientLotsJSON, planId, batchId);
+            // record the batch production on the connection already held, not a second one from the pool
+            recordProductionBatch(conn, productId, manufacturerId, quantity,
+                                expirationDate, ingredientLotsJSON, selectedLots.size(), planId, batchId);
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error in FEFO batch creation: " + e.getMessage());
             //e.printStackTrace();
+        } finally {
+            sample.close();
+        }
+    }
+    
+    /**
+     * select FEFO lots for all ingredients of a recipe plan with a single round trip
+     * candidate lots go into a FefoAllocator, which splits a requirement across
+     * as many lots as needed, earliest expiration first
+     */
+    List<IngredientLot> selectPlanLotsWithFEFO(Connection conn, int planId, int batchQuantity)
+            throws SQLException {
+        // required quantity per ingredient, in recipe order
+        Map<Integer, Double> required = new LinkedHashMap<>();
+        Map<Integer, Integer> candidateLots = new HashMap<>();
+        FefoAllocator allocator = new FefoAllocator();
+        FlightEvents.FefoCandidateLoad load = new FlightEvents.FefoCandidateLoad();
+        load.begin();
+        // candidate lots for every ingredient in one query
+        for (ProductionRepository.FefoCandidate row :
+                new ProductionRepository(conn).findFefoCandidatesForPlan(planId, batchQuantity)) {
+            required.put(row.ingredientId, row.requiredQty);
+            if (row.lotNumber != null) {
+                allocator.addLot(row.ingredientId, row.lotNumber, row.batchId,
+                                 row.expirationDate, row.onHandQty);
+                candidateLots.merge(row.ingredientId, 1, Integer::sum);
+                load.candidateLots++;
+            }
+        }
+        load.planId = planId;
+        load.batchQuantity = batchQuantity;
+        load.ingredients = required.size();
+        load.commit();
+
+        // incompatible ingredients stop the batch before any lot is taken
+        List<ConflictEngine.Conflict> conflicts = ConflictEngine.shared().check(conn, required.keySet());
+        if (!conflicts.isEmpty()) {
+            throw new SQLException("Incompatible ingredients in plan " + planId + ": " +
+                    ConflictEngine.describe(conflicts));
+        }
+
+        // selected lots
+        List<IngredientLot> selectedLots = new ArrayList<>();
+        for (Map.Entry<Integer, Double> entry : required.entrySet()) {
+            int ingredientId = entry.getKey();
+            double requiredQty = entry.getValue();
+            FlightEvents.LotSelection selection = new FlightEvents.LotSelection();
+            selection.planId = planId;
+            selection.ingredientId = ingredientId;
+            selection.requiredOz = requiredQty;
+            selection.candidateLots = candidateLots.getOrDefault(ingredientId, 0);
+            List<IngredientLot> lots;
+            selection.begin();
+            try {
+                selection.availableOz = allocator.available(ingredientId);
+                // not enough across all unexpired lots
+                if (!allocator.canAllocate(ingredientId, requiredQty)) {
+                    throw new SQLException("Not enough on hand quantity for ingredient " + ingredientId +
+                    		" (" + requiredQty + " oz required, " + allocator.available(ingredientId) + " oz available)");
+                }
+                lots = allocator.allocate(ingredientId, requiredQty);
+                selection.lotsSelected = lots.size();
+            } finally {
+                // a shortage is recorded too, with no lots selected
+                selection.commit();
+            }
+            for (IngredientLot lot : lots) {
+                selectedLots.add(lot);
+                System.out.println("  Selected: " + lot.lotNumber + " (" + lot.quantity + " oz)");
+            }
         }
+        // selected lots for production
+        return selectedLots;
     }
     
     /**
      * get the required ingredients and quantities from the recipe plan
      * total required is required quantity per batch times batch quantity
      */
-    private Map<Integer, Double> getRequiredIngredients(Connection conn, int planId, int batchQuantity) 
+    Map<Integer, Double> getRequiredIngredients(Connection conn, int planId, int batchQuantity) 
             throws SQLException {
-    	// ingredients needed
-        Map<Integer, Double> ingredients = new HashMap<>();
-        // query, get ingredient and quantity
-        String query = "SELECT ingredient_id, quantity FROM RecipeIngredient WHERE plan_id = ?";
-        // statement object
-        PreparedStatement stmt = conn.prepareStatement(query);
-        // set query
-        stmt.setInt(1, planId);
-        // results
-        ResultSet rs = stmt.executeQuery();
-        // for each ingredient get the id, quantity and calculate total quantity needed, put it into map
-        while (rs.next()) {
-            int ingredientId = rs.getInt("ingredient_id");
-            double qtyPerBatch = rs.getDouble("quantity");
-            double totalQty = qtyPerBatch * batchQuantity;
-            // put id and total into map
-            ingredients.put(ingredientId, totalQty);
-        }
+    	// ingredients needed, quantity per unit from the cached RecipeIngredient lookup
+        Map<Integer, Double> ingredients = new RecipeRepository(conn).findIngredients(planId);
+        // for each ingredient calculate total quantity needed
+        ingredients.replaceAll((ingredientId, qtyPerBatch) -> qtyPerBatch * batchQuantity);
         // return map of ingredients and total quantity needed
         return ingredients;
     }
     
     /**
      * select ingredient lots using FEFO (First Expired, First Out)
-     * finds the earliest-expiring lot with enough quantity for each ingredient
+     * finds the earliest-expiring lot with enough quantity for one ingredient,
+     * one round trip per ingredient (see selectPlanLotsWithFEFO for the whole plan)
      */
-    private List<IngredientLot> selectLotsWithFEFO(Connection conn, int ingredientId, 
+    List<IngredientLot> selectLotsWithFEFO(Connection conn, int ingredientId, 
                                                     double requiredQty) throws SQLException {
         // selected lots
     	List<IngredientLot> selectedLots = new ArrayList<>();
         
         // find single lot with enough quantity, preferring soonest expiration (FEFO)
-        String query = "SELECT lot_number, on_hand_oz, expiration_date " +
-                     "FROM IngredientBatch " +
-                     "WHERE ingredient_id = ? " +
-                     "AND on_hand_oz >= ? " +  // no splitting, must have enough on hand to use
-                     "AND expiration_date > NOW() " +
-                     "ORDER BY expiration_date ASC, batch_id ASC " +
-                     "LIMIT 1";  // no splitting, only one lot
-        // statement object
-        PreparedStatement stmt = conn.prepareStatement(query);
-        // set query
-        stmt.setInt(1, ingredientId);
-        stmt.setDouble(2, requiredQty);
-        // results
-        ResultSet rs = stmt.executeQuery();
-        // if results are not empty, grab lotNumber and available quantity
-        if (rs.next()) {
-            String lotNumber = rs.getString("lot_number");
-            double on_hand_qty = rs.getDouble("on_hand_oz");
+        IngredientLot available = new ProductionRepository(conn).findFefoLot(ingredientId, requiredQty);
+        // if a lot was found, grab lotNumber and available quantity
+        if (available != null) {
+            String lotNumber = available.lotNumber;
+            double on_hand_qty = available.quantity;
             
             // use required quantity from this singular
             selectedLots.add(new IngredientLot(lotNumber, requiredQty));
@@ -142,22 +183,9 @@ public class ProductionService {
                                      String ingredientLotsJson, int planId, String batchId) {
     	// connect to db
         try (Connection conn = DBConnect.getConnection()) {
-        	// query, calls procedure to record batch production
-            String query = "{CALL record_production_batch(?, ?, ?, ?, ?, ?)}";
-            // statement object to call procedure
-            CallableStatement stmt = conn.prepareCall(query);
-            // set query
-            stmt.setInt(1, productId);
-            stmt.setString(2, manufacturerId);
-            stmt.setInt(3, quantity);
-            stmt.setString(4, expirationDate);
-            stmt.setString(5, ingredientLotsJson);
-            stmt.setInt(6, planId);
-            stmt.setString(7,  batchId);
-            // execute
-            stmt.execute();
-            // success
-            System.out.println("Product batch has been created successfully.");
+            // the caller wrote the lots JSON, how many lots it names isn't known here
+            recordProductionBatch(conn, productId, manufacturerId, quantity,
+                                  expirationDate, ingredientLotsJson, -1, planId, batchId);
             
         } catch (SQLException e) {
             System.err.println("Error creating product batch: " + e.getMessage());
@@ -165,46 +193,143 @@ public class ProductionService {
         }
     }
     
+    /**
+     * calls stored procedure on a connection the caller already holds
+     * lots is the number of lots in ingredientLotsJson, -1 if not known
+     */
+    void recordProductionBatch(Connection conn, int productId, String manufacturerId,
+                               int quantity, String expirationDate,
+                               String ingredientLotsJson, int lots, int planId, String batchId) throws SQLException {
+        Metrics.Sample sample = Metrics.start("production.recordProductionBatch");
+        try {
+        	// calls procedure to record batch production
+            FlightEvents.RecordProductionBatch recorded = new FlightEvents.RecordProductionBatch();
+            recorded.begin();
+            try {
+                new ProductionRepository(conn).recordProductionBatch(productId, manufacturerId, quantity,
+                        expirationDate, ingredientLotsJson, planId, batchId);
+                recorded.succeeded = true;
+            } finally {
+                recorded.end();
+                if (recorded.shouldCommit()) {
+                    recorded.batchId = batchId;
+                    recorded.productId = productId;
+                    recorded.manufacturerId = manufacturerId;
+                    recorded.planId = planId;
+                    recorded.quantity = quantity;
+                    recorded.lots = lots;
+                    recorded.commit();
+                }
+            }
+            // the consumed lots changed, the snapshot reloads their ingredients on the next report
+            InventorySnapshot.shared().invalidateLotsJson(ingredientLotsJson);
+            // success
+            System.out.println("Product batch has been created successfully.");
+        } catch (SQLException e) {
+            sample.failed();
+            throw e;
+        } finally {
+            sample.close();
+        }
+    }
+    
     /**
      * trace recall for contaminated ingredient lots
+     * follows the lineage through every level, recalled lot -> compound ingredient lots made from it -> product lots,
+     * product lots count when they consumed a contaminated lot within the window around the recall date
      */
     public void traceRecall(String ingredientLotNumber, String recallDate, int windowDays) {
+        traceRecall(ingredientLotNumber, recallDate, windowDays, System.out);
+    }
+
+    /**
+     * recall trace written to out
+     * the lots come from the in-memory lineage index, they are rendered one line at a time through a fixed buffer
+     */
+    public void traceRecall(String ingredientLotNumber, String recallDate, int windowDays, java.io.OutputStream out) {
+        Metrics.Sample sample = Metrics.start("production.traceRecall");
     	// connect to db
-        try (Connection conn = DBConnect.getConnection()) {
-        	// query, procedure call for recall
-            String query = "{CALL trace_recall(?, ?, ?)}";
-            // statement object to call procedure
-            CallableStatement stmt = conn.prepareCall(query);
-            // set query
-            stmt.setString(1, ingredientLotNumber);
-            stmt.setString(2, recallDate);
-            stmt.setInt(3, windowDays);
-            
-            // results
-            ResultSet rs = stmt.executeQuery();
+        try (Connection conn = DBConnect.getConnection();
+             ReportWriter report = new ReportWriter(out)) {
+            FlightEvents.RecallTrace trace = new FlightEvents.RecallTrace();
+            trace.begin();
+            // recall window, windowDays before and after the issued recall date
+            java.time.LocalDate date = java.time.LocalDate.parse(recallDate);
+            
+            // bring the lineage index up to date, then walk it instead of scanning BatchConsumption
+            LotLineageIndex lineage = LotLineageIndex.shared();
+            lineage.refresh(conn);
+            List<String> ingredientLots = lineage.contaminatedIngredientLots(ingredientLotNumber);
+            List<String> productLots = lineage.contaminatedProductLots(ingredientLotNumber,
+                    date.minusDays(windowDays), date.plusDays(windowDays));
             
             // print results header info
-            System.out.println("\nRECALL TRACE RESULTS");
-            System.out.println("Ingredient Lot: " + ingredientLotNumber);
-            System.out.println("Recall Date: " + recallDate);
-            System.out.println("Window: " + windowDays + " days");
-            System.out.println("\nContaminated Product Lots:");
-            
-            // flag for if there are recalls
-            boolean hasRecalls = false;
-            // while results are not empty, print the recalls
-            while (rs.next()) {
-                System.out.println("  - " + rs.getString("contaminated_product_lot"));
-                hasRecalls = true; // recall was found
+            report.line("\nRECALL TRACE RESULTS");
+            report.text("Ingredient Lot: ").line(ingredientLotNumber);
+            report.text("Recall Date: ").line(recallDate);
+            report.text("Window: ").text(windowDays).line(" days");
+            
+            // compound ingredient lots made from the recalled lot are recalled with it
+            if (!ingredientLots.isEmpty()) {
+                report.line("\nContaminated Ingredient Lots:");
+                for (String lot : ingredientLots) {
+                    report.text("  - ").line(lot);
+                }
+            }
+            
+            report.line("\nContaminated Product Lots:");
+            for (String lot : productLots) {
+                report.text("  - ").line(lot);
             }
             // if results is empty, there were no recalls
-            if (!hasRecalls) {
-                System.out.println(" No contaminated product lots found.");
+            if (productLots.isEmpty()) {
+                report.line(" No contaminated product lots found.");
             }
-            
+            trace.ingredientLot = ingredientLotNumber;
+            trace.recallDate = recallDate;
+            trace.windowDays = windowDays;
+            trace.ingredientLots = ingredientLots.size();
+            trace.productLots = productLots.size();
+            trace.commit();
+            
+        } catch (java.time.format.DateTimeParseException e) {
+            sample.failed();
+            System.err.println("Error tracing recall: recall date must be YYYY-MM-DD, got " + recallDate);
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error tracing recall: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            sample.close();
+        }
+    }
+    
+    /**
+     * trace the sources of a product lot
+     * every ingredient lot that went into it, including the lots a compound ingredient lot was made from
+     */
+    public void traceLotSources(String productLotNumber) {
+        Metrics.Sample sample = Metrics.start("production.traceLotSources");
+        // connect to db
+        try (Connection conn = DBConnect.getConnection()) {
+            LotLineageIndex lineage = LotLineageIndex.shared();
+            lineage.refresh(conn);
+            List<String> sources = lineage.sourceLots(productLotNumber);
+            
+            System.out.println("\nLOT SOURCES");
+            System.out.println("Product Lot: " + productLotNumber);
+            for (String lot : sources) {
+                System.out.println("  - " + lot);
+            }
+            if (sources.isEmpty()) {
+                System.out.println(" No source lots recorded for this lot.");
+            }
+            
+        } catch (SQLException e) {
+            sample.failed();
+            System.err.println("Error tracing lot sources: " + e.getMessage());
+        } finally {
+            sample.close();
         }
     }
     
@@ -213,69 +338,103 @@ public class ProductionService {
      * show all ingredient batches with current on-hand quantities
      */
     public void viewOnHandInventory() {
+        viewOnHandInventory(System.out);
+    }
+
+    /**
+     * on-hand inventory report written to out
+     * rendered from the inventory snapshot, or streamed from the database and rendered as the rows arrive
+     * when the inventory is too large to keep in memory
+     */
+    public void viewOnHandInventory(java.io.OutputStream out) {
+        Metrics.Sample sample = Metrics.start("report.onHandInventory");
         // connect to db
-        try (Connection conn = DBConnect.getConnection()) {
-            // query to get all batches with on-hand > 0
-            String query = "SELECT ib.ingredient_id, i.ingredient_name, ib.lot_number, " +
-                          "ib.on_hand_oz, ib.expiration_date, s.supplier_name " +
-                          "FROM IngredientBatch ib " +
-                          "JOIN Ingredient i ON ib.ingredient_id = i.ingredient_id " +
-                          "JOIN Supplier s ON ib.supplier_id = s.supplier_id " +
-                          "WHERE ib.on_hand_oz > 0 " +
-                          "ORDER BY i.ingredient_name, ib.expiration_date ASC";
-            // statement object
-            Statement stmt = conn.createStatement();
-            // results
-            ResultSet rs = stmt.executeQuery(query);
-            
-            System.out.println("\nON HAND INVENTORY");
-            
-            // initialize
-            String currentIngredient = "";
-            double totalForIngredient = 0.0;
-            boolean hasInventory = false;
-            
-            // print inventory info
-            while (rs.next()) {
-                String ingredientName = rs.getString("ingredient_name");
-                
-                // print ingredient header
-                if (!ingredientName.equals(currentIngredient)) {
-                    if (!currentIngredient.isEmpty()) {
-                        System.out.println(" Total for " + currentIngredient + ": " + 
-                                         totalForIngredient + " oz\n");
+        try (Connection conn = DBConnect.getConnection();
+             ReportWriter report = new ReportWriter(out)) {
+            FlightEvents.ReportRender render = new FlightEvents.ReportRender();
+            render.begin();
+            report.line("\nON HAND INVENTORY");
+            
+            OnHandRenderer renderer = new OnHandRenderer(report);
+            InventorySnapshot.Snapshot snapshot = InventorySnapshot.shared().read(conn);
+            if (snapshot != null) {
+                for (InventorySnapshot.Stock stock : snapshot.stocks) {
+                    for (InventorySnapshot.Lot lot : stock.lots) {
+                        renderer.lot(stock.ingredientId, stock.ingredientName, lot.lotNumber, lot.onHand(),
+                                lot.expirationDate, lot.supplierName);
                     }
-                    System.out.println("Ingredient: " + ingredientName + 
-                                     " (ID: " + rs.getInt("ingredient_id") + ")");
-                    currentIngredient = ingredientName;
-                    totalForIngredient = 0.0;
                 }
-                
-                // print lot details
-                double onHand = rs.getDouble("on_hand_oz");
-                System.out.println("  Lot: " + rs.getString("lot_number") +
-                                 " | On Hand: " + onHand + " oz" +
-                                 " | Expires: " + rs.getDate("expiration_date") +
-                                 " | Supplier: " + rs.getString("supplier_name"));
-                totalForIngredient += onHand;
-                hasInventory = true;
+            } else {
+                new InventoryRepository(conn).forEachOnHandLot(renderer);
+            }
+            renderer.finish();
+            render.report = "report.onHandInventory";
+            render.rows = renderer.lots;
+            render.commit();
+            
+        } catch (SQLException e) {
+            sample.failed();
+            System.err.println("Error viewing on hand inventory: " + e.getMessage());
+            //e.printStackTrace();
+        } finally {
+            sample.close();
+        }
+    }
+
+    /**
+     * prints the on-hand lots grouped by ingredient, with a running total per ingredient
+     */
+    private static class OnHandRenderer implements Repository.RowHandler {
+        private final ReportWriter report;
+        // initialize
+        private String currentIngredient = "";
+        private double totalForIngredient = 0.0;
+        private int lots = 0;
+
+        OnHandRenderer(ReportWriter report) {
+            this.report = report;
+        }
+
+        @Override
+        public void handle(ResultSet rs) throws SQLException {
+            lot(rs.getInt("ingredient_id"), rs.getString("ingredient_name"), rs.getString("lot_number"),
+                rs.getDouble("on_hand_oz"), rs.getDate("expiration_date"), rs.getString("supplier_name"));
+        }
+
+        void lot(int ingredientId, String ingredientName, String lotNumber, double onHand,
+                 java.sql.Date expirationDate, String supplierName) {
+            // print ingredient header
+            if (!ingredientName.equals(currentIngredient)) {
+                if (!currentIngredient.isEmpty()) {
+                    report.text(" Total for ").text(currentIngredient).text(": ")
+                          .text(totalForIngredient).line(" oz\n");
+                }
+                report.text("Ingredient: ").text(ingredientName)
+                      .text(" (ID: ").text(ingredientId).line(")");
+                currentIngredient = ingredientName;
+                totalForIngredient = 0.0;
             }
             
+            // print lot details
+            report.text("  Lot: ").text(lotNumber)
+                  .text(" | On Hand: ").text(onHand).text(" oz")
+                  .text(" | Expires: ").text(expirationDate)
+                  .text(" | Supplier: ").line(supplierName);
+            totalForIngredient += onHand;
+            lots++;
+        }
+
+        void finish() {
             // print total for last ingredient
             if (!currentIngredient.isEmpty()) {
-                System.out.println("  Total for " + currentIngredient + ": " + 
-                                 totalForIngredient + " oz\n");
+                report.text("  Total for ").text(currentIngredient).text(": ")
+                      .text(totalForIngredient).line(" oz\n");
             }
             
             // no inventory
-            if (!hasInventory) {
-                System.out.println("No inventory on hand.");
+            if (lots == 0) {
+                report.line("No inventory on hand.");
             }
-            
-            
-        } catch (SQLException e) {
-            System.err.println("Error viewing on hand inventory: " + e.getMessage());
-            //e.printStackTrace();
         }
     }
 
@@ -285,54 +444,42 @@ public class ProductionService {
      * for a standard batch of any product that uses that ingredient
      */
     public void viewNearlyOutOfStock() {
+        Metrics.Sample sample = Metrics.start("report.nearlyOutOfStock");
         // connect to db
         try (Connection conn = DBConnect.getConnection()) {
-            // for each ingredient, check if total on-hand is less than 
-            // the amount needed for any product's standard batch
-            String query = "SELECT DISTINCT i.ingredient_id, i.ingredient_name, " +
-                          "SUM(ib.on_hand_oz) AS total_on_hand, " +
-                          "p.product_id, p.name AS product_name, " +
-                          "p.standard_batch_units, " +
-                          "ri.quantity AS qty_per_unit, " +
-                          "(ri.quantity * p.standard_batch_units) AS qty_for_standard_batch " +
-                          "FROM Ingredient i " +
-                          "LEFT JOIN IngredientBatch ib ON i.ingredient_id = ib.ingredient_id " +
-                          "JOIN RecipeIngredient ri ON i.ingredient_id = ri.ingredient_id " +
-                          "JOIN RecipePlan rp ON ri.plan_id = rp.plan_id AND rp.is_active = TRUE " +
-                          "JOIN Product p ON rp.product_id = p.product_id " +
-                          "GROUP BY i.ingredient_id, i.ingredient_name, p.product_id, p.name, " +
-                          "p.standard_batch_units, ri.quantity " +
-                          "HAVING SUM(COALESCE(ib.on_hand_oz, 0)) < (ri.quantity * p.standard_batch_units) " +
-                          "ORDER BY i.ingredient_name, p.name";
-            // statement object
-            Statement stmt = conn.createStatement();
-            // results
-            ResultSet rs = stmt.executeQuery(query);
-            
+            FlightEvents.ReportRender render = new FlightEvents.ReportRender();
+            render.begin();
             System.out.println("\nNEARLY OUT-OF-STOCK ITEMS");
-            boolean hasStockProblem = false;
-            // print nearly out-of-stock info
-            while (rs.next()) {
+            int[] shortages = { 0 };
+            // IngredientOnHand has every ingredient's total, no batch rows are read or summed here
+            new InventoryRepository(conn).forEachNearlyOutOfStock(rs -> {
+                double totalOnHand = rs.getDouble("total_on_hand");
+                double required = rs.getDouble("qty_for_standard_batch");
                 System.out.println("Ingredient: " + rs.getString("ingredient_name") + 
                                  " (ID: " + rs.getInt("ingredient_id") + ")");
-                System.out.println(" Total On Hand: " + rs.getDouble("total_on_hand") + " oz");
+                System.out.println(" Total On Hand: " + totalOnHand + " oz");
                 System.out.println(" Not enough for: " + rs.getString("product_name") +
                                  " (ID: " + rs.getInt("product_id") + ")");
                 System.out.println("  Standard Batch Size: " + rs.getInt("standard_batch_units") + " units");
-                System.out.println("  Requires: " + rs.getDouble("qty_for_standard_batch") + " oz");
-                System.out.println("  Short by: " + 
-                                 (rs.getDouble("qty_for_standard_batch") - rs.getDouble("total_on_hand")) + " oz");
+                System.out.println("  Requires: " + required + " oz");
+                System.out.println("  Short by: " + (required - totalOnHand) + " oz");
                 System.out.println();
-                hasStockProblem = true;
-            }
+                shortages[0]++;
+            });
             
-            if (!hasStockProblem) {
+            if (shortages[0] == 0) {
                 System.out.println("All ingredients have sufficient stock for standard batches.");
             }
+            render.report = "report.nearlyOutOfStock";
+            render.rows = shortages[0];
+            render.commit();
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error viewing nearly out-of-stock items: " + e.getMessage());
             //e.printStackTrace();
+        } finally {
+            sample.close();
         }
     }
 
@@ -341,49 +488,50 @@ public class ProductionService {
      * shows ingredient batches expiring within 
      */
     public void viewAlmostExpired() {
+        viewAlmostExpired(System.out);
+    }
+
+    /**
+     * almost-expired ingredient lots report written to out, streamed like the on-hand report
+     */
+    public void viewAlmostExpired(java.io.OutputStream out) {
+        Metrics.Sample sample = Metrics.start("report.almostExpired");
         // connect to db
-        try (Connection conn = DBConnect.getConnection()) {
-            // query for batches expiring within threshold window of 10 days
-            String query = "SELECT ib.lot_number, i.ingredient_name, ib.on_hand_oz, " +
-                          "ib.expiration_date, s.supplier_name, " +
-                          "DATEDIFF(ib.expiration_date, CURDATE()) AS days_until_expiration " +
-                          "FROM IngredientBatch ib " +
-                          "JOIN Ingredient i ON ib.ingredient_id = i.ingredient_id " +
-                          "JOIN Supplier s ON ib.supplier_id = s.supplier_id " +
-                          "WHERE ib.on_hand_oz > 0 " +
-                          "AND ib.expiration_date > CURDATE() " +
-                          "AND ib.expiration_date <= DATE_ADD(CURDATE(), INTERVAL 10 DAY) " +
-                          "ORDER BY ib.expiration_date ASC, i.ingredient_name";
-            // statement object
-            Statement stmt = conn.createStatement();
-            // results
-            ResultSet rs = stmt.executeQuery(query);
+        try (Connection conn = DBConnect.getConnection();
+             ReportWriter report = new ReportWriter(out)) {
+            FlightEvents.ReportRender render = new FlightEvents.ReportRender();
+            render.begin();
+            report.line("\nALMOST-EXPIRED INGREDIENT LOTS");
             
-            System.out.println("\nALMOST-EXPIRED INGREDIENT LOTS");
+            int[] expiring = { 0 };
             
-            boolean hasExpiring = false;
-            
-            // print almost expired lots info
-            while (rs.next()) {
+            // print almost expired lots info, batches expiring within threshold window of 10 days
+            new InventoryRepository(conn).forEachAlmostExpiredLot(10, rs -> {
             	// days to expiration from datediff
                 int daysLeft = rs.getInt("days_until_expiration");
-                System.out.println("Lot: " + rs.getString("lot_number"));
-                System.out.println(" Ingredient: " + rs.getString("ingredient_name"));
-                System.out.println(" On-Hand: " + rs.getDouble("on_hand_oz") + " oz");
-                System.out.println(" Expiration: " + rs.getDate("expiration_date") +
-                                 " (" + daysLeft + " day" + (daysLeft != 1 ? "s" : "") + " remaining)");
-                System.out.println(" Supplier: " + rs.getString("supplier_name"));
-                System.out.println();
-                hasExpiring = true;
-            }
+                report.text("Lot: ").line(rs.getString("lot_number"));
+                report.text(" Ingredient: ").line(rs.getString("ingredient_name"));
+                report.text(" On-Hand: ").text(rs.getDouble("on_hand_oz")).line(" oz");
+                report.text(" Expiration: ").text(rs.getDate("expiration_date"))
+                      .text(" (").text(daysLeft).text(" day").text(daysLeft != 1 ? "s" : "").line(" remaining)");
+                report.text(" Supplier: ").line(rs.getString("supplier_name"));
+                report.line();
+                expiring[0]++;
+            });
             // no soon expiring
-            if (!hasExpiring) {
-                System.out.println("No ingredient lots expiring within the next 10 days.");
+            if (expiring[0] == 0) {
+                report.line("No ingredient lots expiring within the next 10 days.");
             }
+            render.report = "report.almostExpired";
+            render.rows = expiring[0];
+            render.commit();
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error viewing almost-expired lots: " + e.getMessage());
             //e.printStackTrace();
+        } finally {
+            sample.close();
         }
     }
 
@@ -392,8 +540,11 @@ public class ProductionService {
      * shows cost breakdown for a product lot
      */
     public void viewBatchCostSummary(String productLotNumber) {
+        Metrics.Sample sample = Metrics.start("report.batchCostSummary");
         // connect to db
         try (Connection conn = DBConnect.getConnection()) {
+            FlightEvents.ReportRender render = new FlightEvents.ReportRender();
+            render.begin();
             // get product batch details
             String query1 = "SELECT pb.lot_number, pb.product_id, p.name AS product_name, " +
                                "pb.manufacturer_id, m.manufacturer_name, " +
@@ -453,15 +604,21 @@ public class ProductionService {
                 System.out.println();
                 // summation (might not need depending on what we want to display)
                 calculatedTotalCost += cost;
+                render.rows++;
             }
             
             System.out.println(" Summary ");
             System.out.println("Total Batch Cost: $" + String.format("%.2f", batchrs.getDouble("total_batch_cost")));
             System.out.println("Cost Per Unit: $" + String.format("%.2f", batchrs.getDouble("unit_cost")));
+            render.report = "report.batchCostSummary";
+            render.commit();
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error viewing batch cost summary: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            sample.close();
         }
     }
     
@@ -470,17 +627,37 @@ public class ProductionService {
      * shows product batches that contain incompatible ingredient pairs
      */
     public void viewHealthRiskViolations() {
+        viewHealthRiskViolations(30);
+    }
+    
+    /**
+     * view health risk violations from the last number of days
+     * violations are recorded with the consumption, this is a range read on production_date
+     */
+    public void viewHealthRiskViolations(int days) {
+        Metrics.Sample sample = Metrics.start("report.healthRiskViolations");
         // connect to db
         try (Connection conn = DBConnect.getConnection()) {
-            // query the view for violations
-            String query = "SELECT * FROM health_risk_violations_last_30_days " +
-                          "ORDER BY production_date DESC, product_lot_number";
+            FlightEvents.ReportRender render = new FlightEvents.ReportRender();
+            render.begin();
+            // query the recorded violations in the window
+            String query = "SELECT v.product_lot_number, pb.product_id, p.name AS product_name, pb.manufacturer_id, " +
+                          "v.production_date, v.ingredientA_id, ia.ingredient_name AS ingredientA_name, " +
+                          "v.ingredientB_id, ib.ingredient_name AS ingredientB_name " +
+                          "FROM HealthRiskViolation v " +
+                          "JOIN ProductBatch pb ON v.product_lot_number = pb.lot_number " +
+                          "JOIN Product p ON pb.product_id = p.product_id " +
+                          "JOIN Ingredient ia ON v.ingredientA_id = ia.ingredient_id " +
+                          "JOIN Ingredient ib ON v.ingredientB_id = ib.ingredient_id " +
+                          "WHERE v.production_date >= DATE_SUB(CURDATE(), INTERVAL ? DAY) " +
+                          "ORDER BY v.production_date DESC, v.product_lot_number";
             // statement object
-            Statement stmt = conn.createStatement();
+            PreparedStatement stmt = conn.prepareStatement(query);
+            stmt.setInt(1, days);
             // results
-            ResultSet rs = stmt.executeQuery(query);
+            ResultSet rs = stmt.executeQuery();
             
-            System.out.println("\nHEALTH RISK VIOLATIONS (Last 30 Days)");
+            System.out.println("\nHEALTH RISK VIOLATIONS (Last " + days + " Days)");
             
             // flag
             boolean hasViolations = false;
@@ -511,31 +688,23 @@ public class ProductionService {
                                  " (ID: " + rs.getInt("ingredientB_id") + ")");
                 
                 hasViolations = true;
+                render.rows++;
             }
             
             // if no violations found
             if (!hasViolations) {
-                System.out.println("No health risk violations found in the last 30 days.");
+                System.out.println("No health risk violations found in the last " + days + " days.");
             }
+            render.report = "report.healthRiskViolations";
+            render.commit();
             
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error viewing health risk violations: " + e.getMessage());
             //e.printStackTrace();
-        }
-    }
-    
-    /**
-     * helper class, creates IngredientLot object that has lot number and quantity info
-     */
-    private static class IngredientLot {
-    	// attributes
-        String lotNumber;
-        double quantity;
-        // constructor
-        IngredientLot(String lotNumber, double quantity) {
-            this.lotNumber = lotNumber;
-            this.quantity = quantity;
+        } finally {
+            sample.close();
         }
     }
 }
@@ -3,6 +3,8 @@ import java.util.Scanner;
 
 public class QueryMenu {
     private Scanner scanner;
+    // set while option 6 runs a query, the results go to this file instead of the console
+    private String exportFile;
 
     public QueryMenu(Scanner scanner) {
         this.scanner = scanner;
@@ -22,6 +24,7 @@ public class QueryMenu {
                             + "100-MFG001-B0901");
             System.out.println(
                     "5. Manufacturers not supplied by Supplier B (21)");
+            System.out.println("6. Export query results to a file");
             System.out.println("0. Exit");
             System.out.print("Select option: ");
 
@@ -44,6 +47,9 @@ public class QueryMenu {
                 case 5:
                     executeQuery5();
                     break;
+                case 6:
+                    exportQuery();
+                    break;
                 case 0:
                     System.out.println("Exiting.");
                     return;
@@ -68,7 +74,7 @@ public class QueryMenu {
                           WHERE PB2.product_id = 100 AND PB2.manufacturer_id = 'MFG001'
                       );
                 """;
-        this.executeAndPrint(query, "Ingredient", "Lot Number");
+        this.executeAndPrint("query.1", query, "Ingredient", "Lot Number");
     }
 
     private void executeQuery2() {
@@ -82,13 +88,13 @@ public class QueryMenu {
                     WHERE PB.manufacturer_id = 'MFG002'
                     GROUP BY IB.supplier_id, S.supplier_name;
                 """;
-        this.executeAndPrint(query, "Supplier ID", "Supplier Name",
+        this.executeAndPrint("query.2", query, "Supplier ID", "Supplier Name",
                 "Total Spent");
     }
 
     private void executeQuery3() {
         String query = "SELECT PB.unit_cost FROM ProductBatch PB WHERE PB.lot_number = '100-MFG001-B0901';";
-        this.executeAndPrint(query, "Unit Cost");
+        this.executeAndPrint("query.3", query, "Unit Cost");
     }
 
     private void executeQuery4() {
@@ -107,7 +113,7 @@ public class QueryMenu {
                     JOIN Ingredient I2 ON I2.ingredient_id = DNC.ingredientA_id
                     WHERE BC.product_lot_number = '100-MFG001-B0901';
                 """;
-        this.executeAndPrint(query, "Ingredient ID", "Ingredient Name");
+        this.executeAndPrint("query.4", query, "Ingredient ID", "Ingredient Name");
     }
 
     private void executeQuery5() {
@@ -122,12 +128,48 @@ public class QueryMenu {
                         WHERE IB.supplier_id = '21'
                     );
                 """;
-        this.executeAndPrint(query, "Manufacturer ID", "Manufacturer Name");
+        this.executeAndPrint("query.5", query, "Manufacturer ID", "Manufacturer Name");
     }
 
 
+    private void exportQuery() {
+        System.out.print("Enter query number (1-5): ");
+        int choice = scanner.nextInt();
+        scanner.nextLine();
+        System.out.print("Enter file (.csv for CSV, .rcol for columnar): ");
+        exportFile = scanner.nextLine().trim();
+        try {
+            switch (choice) {
+                case 1:
+                    executeQuery1();
+                    break;
+                case 2:
+                    executeQuery2();
+                    break;
+                case 3:
+                    executeQuery3();
+                    break;
+                case 4:
+                    executeQuery4();
+                    break;
+                case 5:
+                    executeQuery5();
+                    break;
+                default:
+                    System.out.println("Invalid option.");
+            }
+        } finally {
+            exportFile = null;
+        }
+    }
+
     // Helper function to execute any SQL query and print the results
-    private void executeAndPrint(String query, String... headers) {
+    private void executeAndPrint(String operation, String query, String... headers) {
+        if (exportFile != null) {
+            new ExportService().exportQuery(query, exportFile);
+            return;
+        }
+        Metrics.Sample sample = Metrics.start(operation);
         try (Connection conn = DBConnect.getConnection();
                 Statement stmt = conn.createStatement();
                 ResultSet rs = stmt.executeQuery(query)) {
@@ -149,7 +191,10 @@ public class QueryMenu {
             }
 
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error executing query: " + e.getMessage());
+        } finally {
+            sample.close();
         }
     }
 }
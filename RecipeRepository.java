@@ -0,0 +1,80 @@
+import java.sql.*;
+import java.util.*;
+
+/**
+ * recipe plan lookups on a borrowed connection
+ */
+public class RecipeRepository extends Repository {
+
+    public RecipeRepository(Connection conn) {
+        super(conn);
+    }
+
+    /**
+     * ingredient id -> quantity per unit for a recipe plan
+     */
+    public Map<Integer, Double> findIngredients(int planId) throws SQLException {
+        Map<Integer, Double> ingredients = new LinkedHashMap<>();
+        queryEach("recipe.ingredients",
+                "SELECT ingredient_id, quantity FROM RecipeIngredient WHERE plan_id = ?",
+                stmt -> stmt.setInt(1, planId),
+                rs -> ingredients.put(rs.getInt("ingredient_id"), rs.getDouble("quantity")));
+        return ingredients;
+    }
+
+    /**
+     * create_recipe_version: a new plan with all of its lines in one call and one transaction
+     * the lines of basePlanId (null for none) are copied forward with changes applied on top, ingredient id ->
+     * quantity per unit, a null or 0 quantity removes the ingredient. a null versionNo takes the next version.
+     * returns the new plan id, a do-not-combine conflict or a bad base plan rolls everything back and throws.
+     */
+    public int createVersion(int productId, String manufacturerId, Integer versionNo, Integer basePlanId,
+                             Map<Integer, Double> changes, boolean activate) throws SQLException {
+        return callForInt("recipe.createVersion", "{CALL create_recipe_version(?, ?, ?, ?, ?, ?, ?)}",
+                stmt -> {
+                    stmt.setInt(1, productId);
+                    stmt.setString(2, manufacturerId);
+                    if (versionNo == null) {
+                        stmt.setNull(3, Types.INTEGER);
+                    } else {
+                        stmt.setInt(3, versionNo);
+                    }
+                    if (basePlanId == null) {
+                        stmt.setNull(4, Types.INTEGER);
+                    } else {
+                        stmt.setInt(4, basePlanId);
+                    }
+                    stmt.setString(5, changesJson(changes));
+                    stmt.setBoolean(6, activate);
+                },
+                7);
+    }
+
+    // [{"ingredient_id": 5, "quantity": 2.5}, {"ingredient_id": 7, "quantity": null}, ...]
+    private static String changesJson(Map<Integer, Double> changes) {
+        StringBuilder json = new StringBuilder("[");
+        for (Map.Entry<Integer, Double> change : changes.entrySet()) {
+            if (json.length() > 1) {
+                json.append(", ");
+            }
+            json.append("{\"ingredient_id\": ").append(change.getKey())
+                .append(", \"quantity\": ").append(change.getValue()).append('}');
+        }
+        return json.append(']').toString();
+    }
+
+    /**
+     * active plan id for a product, -1 if none is active
+     */
+    public int findActivePlanId(int productId, String manufacturerId) throws SQLException {
+        Integer planId = queryOne("recipe.activePlan",
+                "SELECT plan_id FROM RecipePlan " +
+                "WHERE product_id = ? AND manufacturer_id = ? AND is_active = TRUE",
+                stmt -> {
+                    stmt.setInt(1, productId);
+                    stmt.setString(2, manufacturerId);
+                },
+                rs -> rs.getInt("plan_id"));
+        return planId == null ? -1 : planId;
+    }
+}
@@ -7,6 +7,7 @@ public class RecipeService {
      * Create a new recipe plan version
      */
     public int createRecipePlan(int productId, String manufacturerId, int versionNo, boolean isActive) {
+        Metrics.Sample sample = Metrics.start("recipe.createRecipePlan");
         // connect to db
     	try (Connection conn = DBConnect.getConnection()) {
     		// query, insert a recipe plan
@@ -38,18 +39,72 @@ public class RecipeService {
             }
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error creating recipe plan: " + e.getMessage());
+        } finally {
+            sample.close();
         }
     	// plan id was not successfully created
         return -1;
     }
     
+    /**
+     * create a recipe plan version with all of its ingredients in one round trip
+     * basePlanId null starts from an empty plan, otherwise its ingredients are copied forward and changes applied
+     * on top (ingredient id -> quantity, null or 0 removes it). versionNo null takes the next version number.
+     */
+    public int createRecipeVersion(int productId, String manufacturerId, Integer versionNo, Integer basePlanId,
+                                   Map<Integer, Double> changes, boolean isActive) {
+        Metrics.Sample sample = Metrics.start("recipe.createRecipeVersion");
+        // connect to db
+        try (Connection conn = DBConnect.getConnection()) {
+            RecipeRepository recipes = new RecipeRepository(conn);
+            try {
+                int planId = recipes.createVersion(productId, manufacturerId, versionNo, basePlanId, changes, isActive);
+                System.out.println("Recipe plan created with id: " + planId);
+                if (isActive) {
+                    System.out.println("Recipe plan " + planId + " is now active.");
+                }
+                return planId;
+            } catch (SQLException e) {
+                sample.failed();
+                // the procedure only says there is a conflict, which pairs comes from the ingredients it was given
+                if (e.getMessage() == null || !e.getMessage().contains("incompatible ingredients")) {
+                    throw e;
+                }
+                Map<Integer, Double> ingredients = basePlanId == null ? new HashMap<>() : recipes.findIngredients(basePlanId);
+                ingredients.putAll(changes);
+                ingredients.values().removeIf(quantity -> quantity == null || quantity == 0);
+                System.out.println("Error: Recipe plan not created, it would combine incompatible ingredients: " +
+                                   ConflictEngine.describe(ConflictEngine.shared().check(conn, ingredients.keySet())));
+            }
+        } catch (SQLException e) {
+            sample.failed();
+            System.err.println("Error creating recipe plan: " + e.getMessage());
+        } finally {
+            sample.close();
+        }
+        // plan id was not successfully created
+        return -1;
+    }
+    
     /**
      * add an ingredient to the recipe plan
      */
     public void addIngredientToRecipe(int planId, int ingredientId, double quantityOz) {
+        Metrics.Sample sample = Metrics.start("recipe.addIngredientToRecipe");
         // connect to db
     	try (Connection conn = DBConnect.getConnection()) {
+    		// the plan with the new ingredient can't contain a do-not-combine pair, checked before the insert
+            Set<Integer> ingredients = new HashSet<>(new RecipeRepository(conn).findIngredients(planId).keySet());
+            ingredients.add(ingredientId);
+            List<ConflictEngine.Conflict> conflicts = ConflictEngine.shared().check(conn, ingredients);
+            if (!conflicts.isEmpty()) {
+                System.out.println("Error: Ingredient not added, the recipe plan would combine incompatible ingredients: " +
+                                   ConflictEngine.describe(conflicts));
+                return;
+            }
+
     		// query, insert ingredient to plan
             String query = "INSERT INTO RecipeIngredient (plan_id, ingredient_id, quantity) " +
                         "VALUES (?, ?, ?)";
@@ -64,7 +119,10 @@ public class RecipeService {
             System.out.println("Ingredient has been added to recipe plan.");
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error adding ingredient to recipe plan: " + e.getMessage());
+        } finally {
+            sample.close();
         }
     }
     
@@ -72,6 +130,7 @@ public class RecipeService {
      * view recipe plans for a product based on productId and manufacturerId
      */
     public void viewRecipePlans(int productId, String manufacturerId) {
+    	Metrics.Sample sample = Metrics.start("recipe.viewRecipePlans");
     	// connect to db
         try (Connection conn = DBConnect.getConnection()) {
         	// query, selects plan info orders by plan id number descending
@@ -96,7 +155,10 @@ public class RecipeService {
             }
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error viewing recipe plans: " + e.getMessage());
+        } finally {
+            sample.close();
         }
     }
     
@@ -104,25 +166,46 @@ public class RecipeService {
      * get active plan id for a product from manufacturer
      */
     public int getActivePlanId(int productId, String manufacturerId) {
+    	Metrics.Sample sample = Metrics.start("recipe.getActivePlanId");
     	// connect to db
         try (Connection conn = DBConnect.getConnection()) {
-        	// query, get active recipe plan_id based on product and manufacturer
-            String query = "SELECT plan_id FROM RecipePlan " +
-                        "WHERE product_id = ? AND manufacturer_id = ? AND is_active = TRUE";
-            // statement object
-            PreparedStatement stmt = conn.prepareStatement(query);
-            // set query
-            stmt.setInt(1, productId);
-            stmt.setString(2, manufacturerId);
-            // results
-            ResultSet rs = stmt.executeQuery();
-            // if results contain active plan id return it
-            if (rs.next()) {
-                return rs.getInt("plan_id");
+        	// get active recipe plan_id based on product and manufacturer, -1 if none
+            return new RecipeRepository(conn).findActivePlanId(productId, manufacturerId);
+            
+        } catch (SQLException e) {
+            sample.failed();
+            System.err.println("Error getting active plan: " + e.getMessage());
+        } finally {
+            sample.close();
+        }
+        // results did not find active plan successfully
+        return -1;
+    }
+    
+    /**
+     * get active plan id for a product of the session's manufacturer, kept by the session for a short while
+     * or until it forgets the product's plan. no active plan is not kept, record_production_batch checks the
+     * plan is still active.
+     */
+    public int getActivePlanId(UserSession session, int productId) {
+        Integer cached = session.cachedActivePlan(productId);
+        if (cached != null) {
+            return cached;
+        }
+        Metrics.Sample sample = Metrics.start("recipe.getActivePlanId");
+        // connect to db
+        try (Connection conn = DBConnect.getConnection()) {
+            int planId = new RecipeRepository(conn).findActivePlanId(productId, session.userId);
+            if (planId != -1) {
+                session.cacheActivePlan(productId, planId);
             }
+            return planId;
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error getting active plan: " + e.getMessage());
+        } finally {
+            sample.close();
         }
         // results did not find active plan successfully
         return -1;
@@ -132,6 +215,7 @@ public class RecipeService {
      * set a recipe plan as active, deactivating others
      */
     public void setActivePlan(int planId, int productId, String manufacturerId) {
+        Metrics.Sample sample = Metrics.start("recipe.setActivePlan");
         // connect to db 
     	try (Connection conn = DBConnect.getConnection()) {
     		// need to deactivate all plans AND activate our specific plan. All or nothing transaction
@@ -170,8 +254,11 @@ public class RecipeService {
             System.out.println("Recipe plan " + planId + " is now active.");
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error setting active plan: " + e.getMessage());
             
+        } finally {
+            sample.close();
         }
     }
 }
\ No newline at end of file
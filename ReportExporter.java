@@ -0,0 +1,410 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * streams a report ResultSet to a file, as CSV or as a columnar binary file
+ * values go from the result set straight into one direct buffer that is written to a FileChannel whenever it
+ * fills up, no row objects are built. the columnar format keeps row groups of GROUP_ROWS rows in primitive
+ * arrays, so memory is one row group plus the string dictionaries however long the result is.
+ *
+ * CSV: RFC 4180, a header row of column labels, CRLF line ends, NULL is an empty field
+ *
+ * columnar (.rcol), little-endian:
+ *   file    "RCOL", version byte 1, column count int, per column: label string, type byte, scale byte,
+ *           then row groups, a row group of 0 rows, the total row count long
+ *   group   row count int, then per column: null bitmap of (rows + 7) / 8 bytes (bit set = NULL), then the values
+ *   values  INT64 and DECIMAL64 (unscaled, value * 10^scale): a long per row, FLOAT64: a double per row,
+ *           DATE: an int epoch day per row, STRING: the dictionary entries new in this group (int count, strings)
+ *           then an int code per row. codes number a column's entries in the order they first appear in the file.
+ *           NULL rows hold 0
+ *   string  int byte length, UTF-8 bytes
+ */
+public final class ReportExporter {
+
+    public static final byte INT64 = 1;
+    public static final byte DECIMAL64 = 2;
+    public static final byte FLOAT64 = 3;
+    public static final byte DATE = 4;
+    public static final byte STRING = 5;
+
+    private static final int GROUP_ROWS = 65_536;
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    public enum Format {
+        CSV, COLUMNAR;
+
+        /**
+         * CSV for a .csv file, columnar for a .rcol file, IllegalArgumentException for any other name
+         */
+        public static Format forFile(Path file) {
+            String name = file.getFileName().toString().toLowerCase();
+            if (name.endsWith(".csv")) {
+                return CSV;
+            }
+            if (name.endsWith(".rcol")) {
+                return COLUMNAR;
+            }
+            throw new IllegalArgumentException("Unknown export format for " + file + ", use .csv or .rcol");
+        }
+    }
+
+    private ReportExporter() {
+    }
+
+    /**
+     * write the remaining rows of rs to file, replacing it, returns the number of rows
+     * the rows go to a .tmp file next to it that replaces it in one move once all are written, so a failed
+     * export leaves the file as it was
+     */
+    public static long export(ResultSet rs, Path file, Format format) throws SQLException, IOException {
+        Path target = file.toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            long rows;
+            try (ChannelOutput out = new ChannelOutput(temp)) {
+                rows = format == Format.CSV ? writeCsv(rs, out) : writeColumnar(rs, out);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return rows;
+        } catch (SQLException | IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException deleteFailed) {
+                e.addSuppressed(deleteFailed);
+            }
+            throw e;
+        }
+    }
+
+    private static long writeCsv(ResultSet rs, ChannelOutput out) throws SQLException, IOException {
+        ResultSetMetaData meta = rs.getMetaData();
+        int columns = meta.getColumnCount();
+        for (int i = 1; i <= columns; i++) {
+            if (i > 1) {
+                out.put((byte) ',');
+            }
+            csvField(out, meta.getColumnLabel(i));
+        }
+        out.put((byte) '\r').put((byte) '\n');
+
+        long rows = 0;
+        while (rs.next()) {
+            for (int i = 1; i <= columns; i++) {
+                if (i > 1) {
+                    out.put((byte) ',');
+                }
+                String value = rs.getString(i);
+                if (value != null) {
+                    csvField(out, value);
+                }
+            }
+            out.put((byte) '\r').put((byte) '\n');
+            rows++;
+        }
+        return rows;
+    }
+
+    private static void csvField(ChannelOutput out, String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            out.putText(value);
+            return;
+        }
+        out.put((byte) '"');
+        out.putText(value.replace("\"", "\"\""));
+        out.put((byte) '"');
+    }
+
+    private static long writeColumnar(ResultSet rs, ChannelOutput out) throws SQLException, IOException {
+        ResultSetMetaData meta = rs.getMetaData();
+        Column[] columns = new Column[meta.getColumnCount()];
+        out.putText("RCOL");
+        out.put((byte) 1);
+        out.putInt(columns.length);
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new Column(meta, i + 1);
+            out.putString(meta.getColumnLabel(i + 1));
+            out.put(columns[i].type);
+            out.put((byte) columns[i].scale);
+        }
+
+        long rows = 0;
+        int groupRows = 0;
+        while (rs.next()) {
+            for (Column column : columns) {
+                column.read(rs, groupRows);
+            }
+            groupRows++;
+            rows++;
+            if (groupRows == GROUP_ROWS) {
+                writeGroup(out, columns, groupRows);
+                groupRows = 0;
+            }
+        }
+        if (groupRows > 0) {
+            writeGroup(out, columns, groupRows);
+        }
+        out.putInt(0);
+        out.putLong(rows);
+        return rows;
+    }
+
+    private static void writeGroup(ChannelOutput out, Column[] columns, int rows) throws IOException {
+        out.putInt(rows);
+        for (Column column : columns) {
+            column.write(out, rows);
+        }
+    }
+
+    /**
+     * one column of the current row group
+     */
+    private static final class Column {
+        final int index;
+        final byte type;
+        final int scale;
+        final byte[] nulls = new byte[(GROUP_ROWS + 7) / 8];
+        long[] longs;
+        double[] doubles;
+        int[] ints;
+        // STRING: value -> code, and the values that got a code in the current group
+        Map<String, Integer> dictionary;
+        List<String> added;
+
+        Column(ResultSetMetaData meta, int index) throws SQLException {
+            this.index = index;
+            int scale = 0;
+            switch (meta.getColumnType(index)) {
+                case Types.BIT:
+                case Types.BOOLEAN:
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                    type = INT64;
+                    longs = new long[GROUP_ROWS];
+                    break;
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                    // wider decimals, like SUM() results, keep their exact text
+                    if (meta.getPrecision(index) <= 18) {
+                        type = DECIMAL64;
+                        scale = Math.max(0, meta.getScale(index));
+                        longs = new long[GROUP_ROWS];
+                    } else {
+                        type = STRING;
+                    }
+                    break;
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    type = FLOAT64;
+                    doubles = new double[GROUP_ROWS];
+                    break;
+                case Types.DATE:
+                    type = DATE;
+                    ints = new int[GROUP_ROWS];
+                    break;
+                default:
+                    type = STRING;
+            }
+            if (type == STRING) {
+                ints = new int[GROUP_ROWS];
+                dictionary = new HashMap<>();
+                added = new ArrayList<>();
+            }
+            this.scale = scale;
+        }
+
+        void read(ResultSet rs, int row) throws SQLException {
+            if (row == 0) {
+                Arrays.fill(nulls, (byte) 0);
+            }
+            boolean isNull;
+            switch (type) {
+                case INT64:
+                    longs[row] = rs.getLong(index);
+                    isNull = rs.wasNull();
+                    break;
+                case DECIMAL64:
+                    java.math.BigDecimal decimal = rs.getBigDecimal(index);
+                    isNull = decimal == null;
+                    longs[row] = isNull ? 0 : decimal.setScale(scale).unscaledValue().longValueExact();
+                    break;
+                case FLOAT64:
+                    doubles[row] = rs.getDouble(index);
+                    isNull = rs.wasNull();
+                    break;
+                case DATE:
+                    java.sql.Date date = rs.getDate(index);
+                    isNull = date == null;
+                    ints[row] = isNull ? 0 : (int) date.toLocalDate().toEpochDay();
+                    break;
+                default:
+                    String value = rs.getString(index);
+                    isNull = value == null;
+                    ints[row] = isNull ? 0 : code(value);
+            }
+            if (isNull) {
+                nulls[row >>> 3] |= (byte) (1 << (row & 7));
+            }
+        }
+
+        private int code(String value) {
+            Integer code = dictionary.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.put(value, code);
+                added.add(value);
+            }
+            return code;
+        }
+
+        void write(ChannelOutput out, int rows) throws IOException {
+            out.put(nulls, 0, (rows + 7) / 8);
+            switch (type) {
+                case INT64:
+                case DECIMAL64:
+                    for (int row = 0; row < rows; row++) {
+                        out.putLong(longs[row]);
+                    }
+                    break;
+                case FLOAT64:
+                    for (int row = 0; row < rows; row++) {
+                        out.putDouble(doubles[row]);
+                    }
+                    break;
+                case STRING:
+                    out.putInt(added.size());
+                    for (String value : added) {
+                        out.putString(value);
+                    }
+                    added.clear();
+                    // then the codes
+                    for (int row = 0; row < rows; row++) {
+                        out.putInt(ints[row]);
+                    }
+                    break;
+                default:
+                    for (int row = 0; row < rows; row++) {
+                        out.putInt(ints[row]);
+                    }
+            }
+        }
+    }
+
+    /**
+     * little-endian writes into a direct buffer, drained to the file channel when full
+     */
+    private static final class ChannelOutput implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        ChannelOutput(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        private void room(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                drain();
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        ChannelOutput put(byte value) throws IOException {
+            room(1);
+            buffer.put(value);
+            return this;
+        }
+
+        void put(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                room(1);
+                int chunk = Math.min(length, buffer.remaining());
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        void putInt(int value) throws IOException {
+            room(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            room(8);
+            buffer.putLong(value);
+        }
+
+        void putDouble(double value) throws IOException {
+            room(8);
+            buffer.putDouble(value);
+        }
+
+        /**
+         * UTF-8 bytes without a length, ASCII is copied char by char without an intermediate array
+         */
+        void putText(String text) throws IOException {
+            if (text.length() <= BUFFER_BYTES && isAscii(text)) {
+                room(text.length());
+                for (int i = 0; i < text.length(); i++) {
+                    buffer.put((byte) text.charAt(i));
+                }
+            } else {
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                put(bytes, 0, bytes.length);
+            }
+        }
+
+        /**
+         * int byte length, then the UTF-8 bytes
+         */
+        void putString(String text) throws IOException {
+            if (text.length() <= BUFFER_BYTES && isAscii(text)) {
+                putInt(text.length());
+                putText(text);
+            } else {
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                putInt(bytes.length);
+                put(bytes, 0, bytes.length);
+            }
+        }
+
+        private static boolean isAscii(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) >= 0x80) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                drain();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * incremental renderer for large reports
+ * text goes into one fixed char buffer that is written out whenever it fills up, rows are appended field by
+ * field instead of concatenated into a string per line, so memory stays the size of the buffer however many
+ * rows the report has. close() flushes but leaves the underlying stream open, it is usually System.out.
+ */
+public class ReportWriter implements Closeable {
+
+    // -Dreport.bufferChars, characters kept before they are written out
+    private static final int BUFFER_CHARS = Integer.getInteger("report.bufferChars", 8192);
+
+    private final Writer out;
+
+    public ReportWriter(OutputStream out) {
+        this(out, BUFFER_CHARS);
+    }
+
+    public ReportWriter(OutputStream out, int bufferChars) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), bufferChars);
+    }
+
+    public ReportWriter text(String text) {
+        try {
+            out.write(text == null ? "null" : text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    public ReportWriter text(Object value) {
+        return text(String.valueOf(value));
+    }
+
+    public ReportWriter text(int value) {
+        return text(Integer.toString(value));
+    }
+
+    public ReportWriter text(double value) {
+        return text(Double.toString(value));
+    }
+
+    /**
+     * end the current line
+     */
+    public ReportWriter line() {
+        return text(System.lineSeparator());
+    }
+
+    /**
+     * a whole line
+     */
+    public ReportWriter line(String text) {
+        return text(text).line();
+    }
+
+    public void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+}
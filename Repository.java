@@ -0,0 +1,153 @@
+import java.sql.*;
+import java.util.*;
+
+/**
+ * base class for the repositories, runs named statements on a borrowed connection
+ * statements come from the pooled connection's StatementCache and stay open for the next call,
+ * result sets are always closed before returning.
+ * on a connection that is not pooled the statement is prepared and closed per call.
+ */
+public abstract class Repository {
+
+    /**
+     * sets the parameters of a statement
+     */
+    @FunctionalInterface
+    public interface Binder {
+        void bind(PreparedStatement stmt) throws SQLException;
+    }
+
+    /**
+     * maps the current row of a result set
+     */
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * handles the current row of a result set, for results too large to collect
+     */
+    @FunctionalInterface
+    public interface RowHandler {
+        void handle(ResultSet rs) throws SQLException;
+    }
+
+    protected static final Binder NO_PARAMS = stmt -> { };
+
+    protected final Connection conn;
+    private final StatementCache cache;
+
+    protected Repository(Connection conn) {
+        this.conn = conn;
+        this.cache = ConnectionPool.statementCacheFor(conn);
+    }
+
+    /**
+     * all rows of a query
+     */
+    protected <T> List<T> queryList(String name, String sql, Binder binder, RowMapper<T> mapper)
+            throws SQLException {
+        PreparedStatement stmt = prepare(name, sql);
+        try {
+            binder.bind(stmt);
+            List<T> rows = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(mapper.map(rs));
+                }
+            }
+            return rows;
+        } finally {
+            done(stmt);
+        }
+    }
+
+    /**
+     * every row of a query handed to handler without collecting them
+     */
+    protected void queryEach(String name, String sql, Binder binder, RowHandler handler) throws SQLException {
+        PreparedStatement stmt = prepare(name, sql);
+        try {
+            binder.bind(stmt);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    handler.handle(rs);
+                }
+            }
+        } finally {
+            done(stmt);
+        }
+    }
+
+    /**
+     * first row of a query, null if there are no rows
+     */
+    protected <T> T queryOne(String name, String sql, Binder binder, RowMapper<T> mapper)
+            throws SQLException {
+        PreparedStatement stmt = prepare(name, sql);
+        try {
+            binder.bind(stmt);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? mapper.map(rs) : null;
+            }
+        } finally {
+            done(stmt);
+        }
+    }
+
+    /**
+     * insert/update/delete, returns affected row count
+     */
+    protected int update(String name, String sql, Binder binder) throws SQLException {
+        PreparedStatement stmt = prepare(name, sql);
+        try {
+            binder.bind(stmt);
+            return stmt.executeUpdate();
+        } finally {
+            done(stmt);
+        }
+    }
+
+    /**
+     * stored procedure call without a result set
+     */
+    protected void call(String name, String sql, Binder binder) throws SQLException {
+        PreparedStatement stmt = cache != null ? cache.prepareCall(name, sql) : conn.prepareCall(sql);
+        try {
+            binder.bind(stmt);
+            stmt.execute();
+        } finally {
+            done(stmt);
+        }
+    }
+
+    /**
+     * stored procedure call without a result set, returns its INT OUT parameter at outIndex, null if NULL
+     */
+    protected Integer callForInt(String name, String sql, Binder binder, int outIndex) throws SQLException {
+        CallableStatement stmt = cache != null ? cache.prepareCall(name, sql) : conn.prepareCall(sql);
+        try {
+            binder.bind(stmt);
+            stmt.registerOutParameter(outIndex, Types.INTEGER);
+            stmt.execute();
+            int value = stmt.getInt(outIndex);
+            return stmt.wasNull() ? null : value;
+        } finally {
+            done(stmt);
+        }
+    }
+
+    private PreparedStatement prepare(String name, String sql) throws SQLException {
+        return cache != null ? cache.prepare(name, sql) : conn.prepareStatement(sql);
+    }
+
+    private void done(PreparedStatement stmt) throws SQLException {
+        if (cache != null) {
+            // keep it open for the next call, just drop the old parameter values
+            stmt.clearParameters();
+        } else {
+            stmt.close();
+        }
+    }
+}
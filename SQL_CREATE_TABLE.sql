@@ -3,19 +3,24 @@
   -- for command line client only, can delete when finished with table creation
   USE wlcarte2; -- change to your user id
 
+  DROP TABLE IF EXISTS HealthRiskViolation;
+  DROP TABLE IF EXISTS LotLineage;
   DROP TABLE IF EXISTS BatchConsumption;
 
   DROP TABLE IF EXISTS ProductBatch;
   DROP TABLE IF EXISTS IngredientBatch;
+  DROP TABLE IF EXISTS IngredientOnHand;
 
 
   DROP TABLE IF EXISTS DoNotCombine;
   DROP TABLE IF EXISTS SupplierFormulationMaterials;
+  DROP TABLE IF EXISTS FlattenedBOM;
   DROP TABLE IF EXISTS RecipeIngredient;
   DROP TABLE IF EXISTS SupplierFormulation;
   DROP TABLE IF EXISTS Recipe;
   DROP TABLE IF EXISTS RecipePlan;
   DROP TABLE IF EXISTS IngredientComposition;
+  DROP TABLE IF EXISTS ProductCatalog;
   DROP TABLE IF EXISTS Product;
   DROP TABLE IF EXISTS Supplier;
   DROP TABLE IF EXISTS Manufacturer;
@@ -65,6 +70,23 @@
     CONSTRAINT prod_category_id_fk FOREIGN KEY (category_id) REFERENCES Category(category_id)
   );
 
+  /**
+    Browse order of the catalog in one table, so a page of products is a range read of an index instead of a
+    sort of the whole Product x Manufacturer x Category join. Pages seek past the last
+    (manufacturer_name, category_name, name, product_id) shown. catalog_category_idx serves the category filter.
+    Kept current by the Product, Manufacturer and Category triggers, rows go away with their Product row.
+  */
+  CREATE TABLE ProductCatalog (
+    product_id INT PRIMARY KEY,
+    manufacturer_name VARCHAR(100) NOT NULL, -- '' for a manufacturer without a name
+    category_name VARCHAR(100) NOT NULL,
+    name VARCHAR(30) NOT NULL,
+    INDEX catalog_browse_idx (manufacturer_name, category_name, name, product_id),
+    INDEX catalog_category_idx (category_name, manufacturer_name, name, product_id),
+    CONSTRAINT catalog_product_fk FOREIGN KEY (product_id)
+      REFERENCES Product(product_id) ON DELETE CASCADE ON UPDATE CASCADE
+  );
+
   /**  
       Parent is the compound ingredient and child are all of the atomic ingredients that make up the compound ingredient.
         Example: 
@@ -115,6 +137,24 @@
     );
 
 
+
+  /**
+    Materialized flattened BOM, what flattened_product_bom used to compute on every read.
+    One row per recipe ingredient and atomic ingredient: an atomic recipe ingredient is its own row, a compound one
+    is split over its materials in proportion to the composition quantities, nested compounds level by level.
+    Kept current by the RecipeIngredient and IngredientComposition triggers through refresh_flattened_bom,
+    rows go away with their RecipeIngredient row.
+  */
+  CREATE TABLE FlattenedBOM (
+    plan_id INT NOT NULL,
+    bom_ingredient_id INT NOT NULL, -- ingredient as listed in the recipe
+    atomic_ingredient_id INT NOT NULL, -- itself when atomic, a material when compound
+    atomic_quantity_oz DECIMAL(18, 8), -- NULL for a compound without composition, like the old view
+    PRIMARY KEY (plan_id, bom_ingredient_id, atomic_ingredient_id),
+    INDEX fbom_bom_ingredient_idx (bom_ingredient_id),
+    CONSTRAINT fbom_recipe_ingredient_fk FOREIGN KEY (plan_id, bom_ingredient_id)
+      REFERENCES RecipeIngredient(plan_id, ingredient_id) ON DELETE CASCADE ON UPDATE CASCADE
+  );
     
     
 --   CREATE TABLE ProductBatch (
@@ -164,6 +204,14 @@
     CONSTRAINT check_90_day_minimum CHECK (DATEDIFF(expiration_date, intake_date) >= 90)
   );
 
+  -- running on-hand total of each ingredient, SUM(on_hand_oz) over its batches
+  -- kept by the track_on_hand triggers in the same statement as every change to IngredientBatch
+  CREATE TABLE IngredientOnHand (
+    ingredient_id INT PRIMARY KEY,
+    total_on_hand_oz DECIMAL(14, 2) NOT NULL DEFAULT 0 CHECK (total_on_hand_oz >= 0),
+    CONSTRAINT onhand_ingredient_id_fk FOREIGN KEY (ingredient_id) REFERENCES Ingredient(ingredient_id) ON DELETE CASCADE
+  );
+
   -- versioning for formulation
   CREATE TABLE SupplierFormulation (
     formulation_id INT AUTO_INCREMENT PRIMARY KEY,
@@ -202,6 +250,22 @@
     CONSTRAINT bcons_ingredient_lot_number_fk FOREIGN KEY (ingredient_lot_number) REFERENCES IngredientBatch(lot_number)
   );
 
+  /**
+    Lot level lineage for recalls, one edge per input ingredient lot -> lot made from it.
+    Product edges are written by record_lot_lineage for every BatchConsumption row, ingredient edges record which
+    ingredient lots a compound ingredient lot was made from. edge_id only grows, so readers can pull what is new.
+  */
+  CREATE TABLE LotLineage (
+    edge_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    input_lot_number VARCHAR(100) NOT NULL,
+    output_lot_number VARCHAR(100) NOT NULL, -- product lot or compound ingredient lot
+    output_type ENUM('ingredient', 'product') NOT NULL,
+    edge_date DATE NOT NULL DEFAULT CURRENT_DATE, -- consumption date for product edges
+    UNIQUE (input_lot_number, output_lot_number),
+    INDEX lineage_output_idx (output_lot_number),
+    CONSTRAINT lineage_input_lot_fk FOREIGN KEY (input_lot_number) REFERENCES IngredientBatch(lot_number)
+  );
+
   CREATE TABLE DoNotCombine (
     ingredientA_id INT,
     ingredientB_id INT,
@@ -211,6 +275,22 @@
     CONSTRAINT check_reverse_dupes CHECK (ingredientA_id < ingredientB_id) -- no duplicates i.e. (vinegar & baking soda), (baking soda & vinegar)
   );
 
+  /**
+    Do-not-combine pairs found in product batches, written when the consumption is recorded
+    (record_health_risk_violations) instead of re-joining the consumption history on every read.
+    Reports read a production_date range.
+  */
+  CREATE TABLE HealthRiskViolation (
+    product_lot_number VARCHAR(100) NOT NULL,
+    ingredientA_id INT NOT NULL,
+    ingredientB_id INT NOT NULL,
+    production_date DATE NOT NULL, -- copied from ProductBatch for the range index
+    PRIMARY KEY (product_lot_number, ingredientA_id, ingredientB_id),
+    INDEX hrv_production_date_idx (production_date, product_lot_number),
+    CONSTRAINT hrv_product_lot_number_fk FOREIGN KEY (product_lot_number) REFERENCES ProductBatch(lot_number) ON DELETE CASCADE,
+    CONSTRAINT hrv_pair_fk FOREIGN KEY (ingredientA_id, ingredientB_id) REFERENCES DoNotCombine(ingredientA_id, ingredientB_id) ON DELETE CASCADE
+  );
+
 
   -- Triggers
   -- DROP TRIGGER IF EXISTS generate_product_lot_number;
@@ -218,6 +298,20 @@
   DROP TRIGGER IF EXISTS prevent_expired_consumption;
   DROP TRIGGER IF EXISTS initialize_on_hand_oz; 
   DROP TRIGGER IF EXISTS update_on_hand_after_consumption;
+  DROP TRIGGER IF EXISTS track_on_hand_after_batch_insert;
+  DROP TRIGGER IF EXISTS track_on_hand_after_batch_update;
+  DROP TRIGGER IF EXISTS track_on_hand_after_batch_delete;
+  DROP TRIGGER IF EXISTS record_lot_lineage;
+  DROP TRIGGER IF EXISTS flatten_bom_after_recipe_insert;
+  DROP TRIGGER IF EXISTS flatten_bom_after_recipe_update;
+  DROP TRIGGER IF EXISTS flatten_bom_after_composition_insert;
+  DROP TRIGGER IF EXISTS flatten_bom_after_composition_update;
+  DROP TRIGGER IF EXISTS flatten_bom_after_composition_delete;
+  DROP TRIGGER IF EXISTS compose_no_cycle_insert;
+  DROP TRIGGER IF EXISTS compose_no_cycle_update;
+  DROP PROCEDURE IF EXISTS refresh_flattened_bom;
+  DROP TRIGGER IF EXISTS record_violations_after_consumption;
+  DROP TRIGGER IF EXISTS record_violations_after_do_not_combine;
 --   DROP TRIGGER IF EXISTS update_single_active_version;
 --   DROP TRIGGER IF EXISTS insert_single_active_version;
   
@@ -279,6 +373,7 @@
   AFTER INSERT ON BatchConsumption
   FOR EACH ROW
   BEGIN
+      -- every consumption row, record_production_batch's included, there is no way around this check
       -- decrement on_hand_oz on consumption
       UPDATE IngredientBatch
       SET on_hand_oz = on_hand_oz - NEW.quantity_consumed
@@ -291,6 +386,290 @@
       END IF;
   END//
   
+  -- IngredientOnHand follows on_hand_oz: a received batch (after initialize_on_hand_oz), every consumption
+  -- (update_on_hand_after_consumption) and removed batches
+  CREATE TRIGGER track_on_hand_after_batch_insert
+  AFTER INSERT ON IngredientBatch
+  FOR EACH ROW
+  BEGIN
+      INSERT INTO IngredientOnHand (ingredient_id, total_on_hand_oz)
+      VALUES (NEW.ingredient_id, NEW.on_hand_oz)
+      ON DUPLICATE KEY UPDATE total_on_hand_oz = total_on_hand_oz + NEW.on_hand_oz;
+  END//
+  
+  CREATE TRIGGER track_on_hand_after_batch_update
+  AFTER UPDATE ON IngredientBatch
+  FOR EACH ROW
+  BEGIN
+      IF NEW.ingredient_id = OLD.ingredient_id THEN
+          IF NEW.on_hand_oz <> OLD.on_hand_oz THEN
+              UPDATE IngredientOnHand
+              SET total_on_hand_oz = total_on_hand_oz + NEW.on_hand_oz - OLD.on_hand_oz
+              WHERE ingredient_id = NEW.ingredient_id;
+          END IF;
+      ELSE
+          -- the batch moved to another ingredient
+          UPDATE IngredientOnHand
+          SET total_on_hand_oz = total_on_hand_oz - OLD.on_hand_oz
+          WHERE ingredient_id = OLD.ingredient_id;
+          INSERT INTO IngredientOnHand (ingredient_id, total_on_hand_oz)
+          VALUES (NEW.ingredient_id, NEW.on_hand_oz)
+          ON DUPLICATE KEY UPDATE total_on_hand_oz = total_on_hand_oz + NEW.on_hand_oz;
+      END IF;
+  END//
+  
+  CREATE TRIGGER track_on_hand_after_batch_delete
+  AFTER DELETE ON IngredientBatch
+  FOR EACH ROW
+  BEGIN
+      UPDATE IngredientOnHand
+      SET total_on_hand_oz = total_on_hand_oz - OLD.on_hand_oz
+      WHERE ingredient_id = OLD.ingredient_id;
+  END//
+  
+  -- every consumption is a lineage edge ingredient lot -> product lot, also for record_production_batch's bulk insert
+  CREATE TRIGGER record_lot_lineage
+  AFTER INSERT ON BatchConsumption
+  FOR EACH ROW
+  BEGIN
+      INSERT INTO LotLineage (input_lot_number, output_lot_number, output_type, edge_date)
+      VALUES (NEW.ingredient_lot_number, NEW.product_lot_number, 'product', NEW.consumption_date);
+  END//
+  
+  -- every consumption row: the pairs of its ingredient with the ones the product lot already consumed,
+  -- so a pair is recorded when the second of its ingredients arrives and a batch costs one lookup per row
+  CREATE TRIGGER record_violations_after_consumption
+  AFTER INSERT ON BatchConsumption
+  FOR EACH ROW
+  BEGIN
+      INSERT IGNORE INTO HealthRiskViolation (product_lot_number, ingredientA_id, ingredientB_id, production_date)
+      SELECT DISTINCT pb.lot_number, dnc.ingredientA_id, dnc.ingredientB_id, pb.production_date
+      FROM IngredientBatch nb
+      JOIN DoNotCombine dnc ON nb.ingredient_id IN (dnc.ingredientA_id, dnc.ingredientB_id)
+      JOIN BatchConsumption bc ON bc.product_lot_number = NEW.product_lot_number
+      JOIN IngredientBatch ob ON ob.lot_number = bc.ingredient_lot_number
+       AND ob.ingredient_id = IF(dnc.ingredientA_id = nb.ingredient_id, dnc.ingredientB_id, dnc.ingredientA_id)
+      JOIN ProductBatch pb ON pb.lot_number = NEW.product_lot_number
+      WHERE nb.lot_number = NEW.ingredient_lot_number;
+  END//
+  
+  -- a new pair also applies to batches produced before it was added
+  CREATE TRIGGER record_violations_after_do_not_combine
+  AFTER INSERT ON DoNotCombine
+  FOR EACH ROW
+  BEGIN
+      CALL record_health_risk_violations(NULL, NEW.ingredientA_id, NEW.ingredientB_id);
+  END//
+  
+  -- rebuild the FlattenedBOM rows of one plan and/or of the recipe ingredients containing an ingredient
+  -- at any depth (itself included), NULL means all
+  -- compounds are expanded level by level down to atomic ingredients, each level split in proportion to
+  -- the composition quantities; the app's BomExpander computes the same vectors in memory
+  CREATE PROCEDURE refresh_flattened_bom(
+    IN p_plan_id INT,
+    IN p_ingredient_id INT
+  )
+  BEGIN
+      DELETE FROM FlattenedBOM
+      WHERE (p_plan_id IS NULL OR plan_id = p_plan_id)
+        AND (p_ingredient_id IS NULL OR bom_ingredient_id IN (
+            -- the ingredient and every compound it is part of
+            WITH RECURSIVE containing (ingredient_id) AS (
+                SELECT p_ingredient_id
+                UNION
+                SELECT ic.parent_ingredient_id
+                FROM containing c
+                JOIN IngredientComposition ic ON ic.child_ingredient_id = c.ingredient_id
+            )
+            SELECT ingredient_id FROM containing
+        ));
+      
+      INSERT INTO FlattenedBOM (plan_id, bom_ingredient_id, atomic_ingredient_id, atomic_quantity_oz)
+      SELECT plan_id, bom_ingredient_id, atomic_ingredient_id, SUM(atomic_quantity_oz)
+      FROM (
+          WITH RECURSIVE containing (ingredient_id) AS (
+              SELECT p_ingredient_id
+              UNION
+              SELECT ic.parent_ingredient_id
+              FROM containing c
+              JOIN IngredientComposition ic ON ic.child_ingredient_id = c.ingredient_id
+          ),
+          -- share of each ingredient in one oz of the recipe ingredient
+          expansion (bom_ingredient_id, ingredient_id, share, depth) AS (
+              SELECT DISTINCT ri.ingredient_id, ri.ingredient_id, CAST(1 AS DECIMAL(30, 18)), 0
+              FROM RecipeIngredient ri
+              WHERE (p_plan_id IS NULL OR ri.plan_id = p_plan_id)
+                AND (p_ingredient_id IS NULL OR ri.ingredient_id IN (SELECT ingredient_id FROM containing))
+              UNION ALL
+              SELECT e.bom_ingredient_id, ic.child_ingredient_id,
+                     e.share * ic.quantity / (
+                         SELECT SUM(t.quantity) FROM IngredientComposition t
+                         WHERE t.parent_ingredient_id = ic.parent_ingredient_id
+                     ),
+                     e.depth + 1
+              FROM expansion e
+              JOIN Ingredient i ON i.ingredient_id = e.ingredient_id AND i.ingredient_type = 'compound'
+              JOIN IngredientComposition ic ON ic.parent_ingredient_id = e.ingredient_id
+              WHERE e.depth < 16 -- compose_no_cycle keeps the graph acyclic, this only stops bad data
+          )
+          SELECT
+              ri.plan_id,
+              ri.ingredient_id AS bom_ingredient_id,
+              e.ingredient_id AS atomic_ingredient_id,
+              -- a compound without composition stays itself with no quantity, like the one level view did
+              CASE WHEN li.ingredient_type = 'atomic' THEN ri.quantity * e.share END AS atomic_quantity_oz
+          FROM expansion e
+          JOIN RecipeIngredient ri ON ri.ingredient_id = e.bom_ingredient_id
+          JOIN Ingredient li ON li.ingredient_id = e.ingredient_id
+          WHERE (p_plan_id IS NULL OR ri.plan_id = p_plan_id)
+            -- leaves only: atomic ingredients and compounds without composition
+            AND (li.ingredient_type = 'atomic' OR NOT EXISTS (
+                SELECT 1 FROM IngredientComposition x WHERE x.parent_ingredient_id = e.ingredient_id
+            ))
+      ) leaves
+      GROUP BY plan_id, bom_ingredient_id, atomic_ingredient_id;
+  END//
+  
+  -- ProductCatalog follows the product, its manufacturer's name and its category's name
+  CREATE TRIGGER catalog_after_product_insert
+  AFTER INSERT ON Product
+  FOR EACH ROW
+  BEGIN
+      INSERT INTO ProductCatalog (product_id, manufacturer_name, category_name, name)
+      SELECT NEW.product_id, COALESCE(m.manufacturer_name, ''), c.name, NEW.name
+      FROM Manufacturer m
+      JOIN Category c ON c.category_id = NEW.category_id
+      WHERE m.manufacturer_id = NEW.manufacturer_id;
+  END//
+  
+  CREATE TRIGGER catalog_after_product_update
+  AFTER UPDATE ON Product
+  FOR EACH ROW
+  BEGIN
+      -- a changed product_id already cascaded to the catalog row
+      UPDATE ProductCatalog pc
+      JOIN Manufacturer m ON m.manufacturer_id = NEW.manufacturer_id
+      JOIN Category c ON c.category_id = NEW.category_id
+      SET pc.manufacturer_name = COALESCE(m.manufacturer_name, ''),
+          pc.category_name = c.name,
+          pc.name = NEW.name
+      WHERE pc.product_id = NEW.product_id;
+  END//
+  
+  CREATE TRIGGER catalog_after_manufacturer_update
+  AFTER UPDATE ON Manufacturer
+  FOR EACH ROW
+  BEGIN
+      IF NOT (NEW.manufacturer_name <=> OLD.manufacturer_name) THEN
+          UPDATE ProductCatalog pc
+          JOIN Product p ON p.product_id = pc.product_id
+          SET pc.manufacturer_name = COALESCE(NEW.manufacturer_name, '')
+          WHERE p.manufacturer_id = NEW.manufacturer_id;
+      END IF;
+  END//
+  
+  CREATE TRIGGER catalog_after_category_update
+  AFTER UPDATE ON Category
+  FOR EACH ROW
+  BEGIN
+      IF NEW.name != OLD.name THEN
+          UPDATE ProductCatalog pc
+          JOIN Product p ON p.product_id = pc.product_id
+          SET pc.category_name = NEW.name
+          WHERE p.category_id = NEW.category_id;
+      END IF;
+  END//
+  
+  -- a compound can't contain itself at any depth, checked before the composition is written
+  CREATE TRIGGER compose_no_cycle_insert
+  BEFORE INSERT ON IngredientComposition
+  FOR EACH ROW
+  BEGIN
+      IF EXISTS (
+          WITH RECURSIVE contained (ingredient_id) AS (
+              SELECT NEW.child_ingredient_id
+              UNION
+              SELECT ic.child_ingredient_id
+              FROM contained c
+              JOIN IngredientComposition ic ON ic.parent_ingredient_id = c.ingredient_id
+          )
+          SELECT 1 FROM contained WHERE ingredient_id = NEW.parent_ingredient_id
+      ) THEN
+          SIGNAL SQLSTATE '45000'
+          SET MESSAGE_TEXT = 'Composition would make the compound part of itself';
+      END IF;
+  END//
+  
+  CREATE TRIGGER compose_no_cycle_update
+  BEFORE UPDATE ON IngredientComposition
+  FOR EACH ROW
+  BEGIN
+      IF EXISTS (
+          WITH RECURSIVE contained (ingredient_id) AS (
+              SELECT NEW.child_ingredient_id
+              UNION
+              SELECT ic.child_ingredient_id
+              FROM contained c
+              JOIN IngredientComposition ic ON ic.parent_ingredient_id = c.ingredient_id
+          )
+          SELECT 1 FROM contained WHERE ingredient_id = NEW.parent_ingredient_id
+      ) THEN
+          SIGNAL SQLSTATE '45000'
+          SET MESSAGE_TEXT = 'Composition would make the compound part of itself';
+      END IF;
+  END//
+  
+  -- a recipe ingredient added or changed, only its own rows change (deletes cascade through the foreign key)
+  -- bulk loads set @bulk_bom and call refresh_flattened_bom(NULL, NULL) once at the end
+  CREATE TRIGGER flatten_bom_after_recipe_insert
+  AFTER INSERT ON RecipeIngredient
+  FOR EACH ROW
+  BEGIN
+      IF @bulk_bom IS NULL THEN
+          CALL refresh_flattened_bom(NEW.plan_id, NEW.ingredient_id);
+      END IF;
+  END//
+  
+  CREATE TRIGGER flatten_bom_after_recipe_update
+  AFTER UPDATE ON RecipeIngredient
+  FOR EACH ROW
+  BEGIN
+      IF @bulk_bom IS NULL THEN
+          CALL refresh_flattened_bom(NEW.plan_id, NEW.ingredient_id);
+      END IF;
+  END//
+  
+  -- a composition changed, every recipe row using the compound, directly or inside another compound, is split again
+  CREATE TRIGGER flatten_bom_after_composition_insert
+  AFTER INSERT ON IngredientComposition
+  FOR EACH ROW
+  BEGIN
+      IF @bulk_bom IS NULL THEN
+          CALL refresh_flattened_bom(NULL, NEW.parent_ingredient_id);
+      END IF;
+  END//
+  
+  CREATE TRIGGER flatten_bom_after_composition_update
+  AFTER UPDATE ON IngredientComposition
+  FOR EACH ROW
+  BEGIN
+      IF @bulk_bom IS NULL THEN
+          CALL refresh_flattened_bom(NULL, OLD.parent_ingredient_id);
+          IF NEW.parent_ingredient_id != OLD.parent_ingredient_id THEN
+              CALL refresh_flattened_bom(NULL, NEW.parent_ingredient_id);
+          END IF;
+      END IF;
+  END//
+  
+  CREATE TRIGGER flatten_bom_after_composition_delete
+  AFTER DELETE ON IngredientComposition
+  FOR EACH ROW
+  BEGIN
+      IF @bulk_bom IS NULL THEN
+          CALL refresh_flattened_bom(NULL, OLD.parent_ingredient_id);
+      END IF;
+  END//
+  
 --   -- should only have 1 active version of recipe so we know which recipe to use
 --   CREATE TRIGGER insert_single_active_version -- new version is the active one
 --   AFTER INSERT ON RecipePlan
@@ -324,12 +703,15 @@
   
   -- Stored Procedures
   DROP PROCEDURE IF EXISTS record_production_batch;
+  DROP PROCEDURE IF EXISTS create_recipe_version;
   DROP PROCEDURE IF EXISTS trace_recall;
   DROP PROCEDURE IF EXISTS evaluate_health_risk;
+  DROP PROCEDURE IF EXISTS record_health_risk_violations;
 
   -- record production batch
   /**
     Creates the product batch, consumes declared ingredient lots atomically, computes cost, and writes finished goods inventory.
+    Set based: the lots JSON is expanded once with JSON_TABLE, then cost, consumption rows and on_hand_oz are each one statement.
   */
   CREATE PROCEDURE record_production_batch(
     -- input parameters
@@ -345,11 +727,16 @@
       DECLARE local_total_cost DECIMAL(10, 2) DEFAULT 0.0; -- total cost of all ingredients starts at 0
       DECLARE local_unit_cost DECIMAL(10, 2); -- cost per unit of final product
       DECLARE local_product_lot VARCHAR(100); -- generated lot number of product batch
-      DECLARE local_idx INT DEFAULT 0; -- counter for loop which is ingredient lot to process
-      DECLARE local_lot_count INT; -- number of total ingredients
-      DECLARE local_current_lot VARCHAR(100); -- current ingredient lot being processed
-      DECLARE local_current_qty DECIMAL(10, 2); -- how much of current ingredient used
-      DECLARE local_ingredient_cost DECIMAL(10, 2); -- cost per oz of curr ingredient
+      DECLARE local_short_lots INT; -- consumed lots that are missing or don't have enough on hand
+      DECLARE local_plan_active INT; -- 1 while the plan is the product's active plan
+      
+      -- any error after START TRANSACTION undoes the whole batch, then the error goes back to the caller
+      DECLARE EXIT HANDLER FOR SQLEXCEPTION
+      BEGIN
+          ROLLBACK;
+          DROP TEMPORARY TABLE IF EXISTS tmp_batch_consumption;
+          RESIGNAL;
+      END;
       
       SET local_product_lot = CONCAT(p_product_id, '-', p_manufacturer_id, '-', p_batch_id);
     
@@ -363,36 +750,64 @@
           SIGNAL SQLSTATE '45000'
           SET MESSAGE_TEXT = 'Invald plan_id';
       END IF;
+      
+      -- expand the JSON once, one row per lot (a lot listed twice is consumed once with the summed quantity)
+      DROP TEMPORARY TABLE IF EXISTS tmp_batch_consumption;
+      CREATE TEMPORARY TABLE tmp_batch_consumption (
+        lot_number VARCHAR(100) PRIMARY KEY,
+        quantity DECIMAL(10, 2) NOT NULL
+      );
+      INSERT INTO tmp_batch_consumption (lot_number, quantity)
+      SELECT jt.lot_number, SUM(jt.quantity)
+      FROM JSON_TABLE(p_ingredient_lots, '$[*]' COLUMNS (
+          lot_number VARCHAR(100) PATH '$.lot_number',
+          quantity DECIMAL(10, 2) PATH '$.quantity'
+      )) AS jt
+      GROUP BY jt.lot_number;
+      
       -- atomicity
       START TRANSACTION;
     
+      -- the plan must still be active, the caller may hold a plan id from before a switch
+      -- the share lock holds off a switch until the batch commits
+      SELECT COUNT(*) INTO local_plan_active
+      FROM RecipePlan
+      WHERE plan_id = p_plan_id
+      AND is_active = TRUE
+      LOCK IN SHARE MODE;
+      IF local_plan_active = 0 THEN
+          SIGNAL SQLSTATE '45000'
+          SET MESSAGE_TEXT = 'Recipe plan is not active';
+      END IF;
+      
       -- create product batch tuple
       INSERT INTO ProductBatch (batch_id, lot_number, product_id, manufacturer_id, quantity, unit_cost, expiration_date, plan_id)
       VALUES (p_batch_id, local_product_lot, p_product_id, p_manufacturer_id, p_quantity, 0.0, p_expiration_date, p_plan_id); -- unit cost will be calculated, default 0
+      
+      -- lock the consumed lots, every lot must exist and have enough on hand so on_hand_oz never goes negative
+      SELECT COUNT(*) INTO local_short_lots
+      FROM tmp_batch_consumption tc
+      LEFT JOIN IngredientBatch ib ON ib.lot_number = tc.lot_number
+      WHERE ib.lot_number IS NULL
+         OR tc.quantity <= 0
+         OR ib.on_hand_oz < tc.quantity
+      FOR UPDATE;
+      IF local_short_lots > 0 THEN
+          SIGNAL SQLSTATE '45000'
+          SET MESSAGE_TEXT = 'Not enough of ingredient in lot for consumption.';
+      END IF;
     
-      -- get count of ingredient lots to know how many runs in loop
-      SET local_lot_count = JSON_LENGTH(p_ingredient_lots);
+      -- total cost of all lots, quantity * cost per oz joined from IngredientBatch
+      SELECT COALESCE(SUM(tc.quantity * ib.unit_cost), 0) INTO local_total_cost
+      FROM tmp_batch_consumption tc
+      JOIN IngredientBatch ib ON ib.lot_number = tc.lot_number;
     
-      -- process each ingredient lot
-      WHILE local_idx < local_lot_count DO
-          -- get lot number and quantity from JSON object
-          SET local_current_lot = JSON_UNQUOTE(JSON_EXTRACT(p_ingredient_lots, CONCAT('$[', local_idx, '].lot_number'))); -- get the element at local index from the lots array and remove the quotes
-          SET local_current_qty = JSON_EXTRACT(p_ingredient_lots, CONCAT('$[', local_idx, '].quantity')); -- get the quantity
-        
-          -- get incredient cost from batch  Get cost per oz for this ingredient lot
-          SELECT unit_cost INTO local_ingredient_cost -- select unit cost and put into local var
-          FROM IngredientBatch -- grab from IngredientBatch table
-          WHERE lot_number = local_current_lot; -- filter on specific lot number
-        
-          -- add to summation of total cost. local_total_cost += qty * cost
-          SET local_total_cost = local_total_cost + (local_current_qty * local_ingredient_cost);
-        
-          -- record the consumption (triggers will execute for update_on_hand_after_consumption and prevent_expired_consumption)
-          INSERT INTO BatchConsumption (product_lot_number, ingredient_lot_number, quantity_consumed)
-          VALUES (local_product_lot, local_current_lot, local_current_qty);
-        
-          SET local_idx = local_idx + 1; -- increment counter
-      END WHILE; -- end loop after processing all lots
+      -- record all consumption rows in one insert, the BatchConsumption triggers check and apply each row:
+      -- prevent_expired_consumption, update_on_hand_after_consumption (on_hand_oz, never negative),
+      -- record_lot_lineage and record_violations_after_consumption (do-not-combine pairs)
+      INSERT INTO BatchConsumption (product_lot_number, ingredient_lot_number, quantity_consumed)
+      SELECT local_product_lot, tc.lot_number, tc.quantity
+      FROM tmp_batch_consumption tc;
     
       -- calculate unit cost
       SET local_unit_cost = local_total_cost / p_quantity;
@@ -404,16 +819,124 @@
     
       -- commit transaction to make changes permanent, does not commit if there was any error at any step
       COMMIT;
+      
+      DROP TEMPORARY TABLE IF EXISTS tmp_batch_consumption;
     
   END//
   
   
+  -- create recipe version
+  /**
+    Creates a recipe plan version with all of its ingredients in one call and one transaction.
+    Copy-forward: the lines of p_base_plan_id are cloned with INSERT ... SELECT and p_changes applied on top,
+    a change with a null or 0 quantity removes the ingredient. Without a base plan the changes are the whole recipe.
+    A NULL p_version_no takes the next version number of the product. The plan can't combine do-not-combine
+    ingredients, also inside its compounds, and becomes the only active plan of the product when p_activate is set.
+  */
+  CREATE PROCEDURE create_recipe_version(
+    IN p_product_id INT,
+    IN p_manufacturer_id VARCHAR(100),
+    IN p_version_no INT,
+    IN p_base_plan_id INT,
+    IN p_changes JSON, -- [{"ingredient_id": 5, "quantity": 2.5}, {"ingredient_id": 7, "quantity": null}, {...}]
+    IN p_activate BOOLEAN,
+    OUT p_plan_id INT
+  )
+  BEGIN
+      -- any error undoes the whole version, then the error goes back to the caller
+      DECLARE EXIT HANDLER FOR SQLEXCEPTION
+      BEGIN
+          ROLLBACK;
+          SET @bulk_bom = NULL;
+          RESIGNAL;
+      END;
+      
+      START TRANSACTION;
+      
+      IF p_base_plan_id IS NOT NULL AND NOT EXISTS (
+          SELECT * FROM RecipePlan
+          WHERE plan_id = p_base_plan_id
+          AND product_id = p_product_id
+          AND manufacturer_id = p_manufacturer_id
+      ) THEN
+          SIGNAL SQLSTATE '45000'
+          SET MESSAGE_TEXT = 'Invalid base plan_id';
+      END IF;
+      
+      -- next version, the product's plans stay locked until commit so two callers can't take the same number
+      IF p_version_no IS NULL THEN
+          SELECT COALESCE(MAX(version_no), 0) + 1 INTO p_version_no
+          FROM RecipePlan
+          WHERE product_id = p_product_id AND manufacturer_id = p_manufacturer_id
+          FOR UPDATE;
+      END IF;
+      
+      INSERT INTO RecipePlan (product_id, manufacturer_id, version_no, is_active)
+      VALUES (p_product_id, p_manufacturer_id, p_version_no, FALSE);
+      SET p_plan_id = LAST_INSERT_ID();
+      
+      -- FlattenedBOM is built once for the whole plan below instead of once per line
+      SET @bulk_bom = 1;
+      
+      -- copy forward every line of the base plan the changes don't touch
+      INSERT INTO RecipeIngredient (plan_id, ingredient_id, quantity)
+      SELECT p_plan_id, ri.ingredient_id, ri.quantity
+      FROM RecipeIngredient ri
+      WHERE ri.plan_id = p_base_plan_id
+        AND ri.ingredient_id NOT IN (
+            SELECT jt.ingredient_id
+            FROM JSON_TABLE(COALESCE(p_changes, '[]'), '$[*]' COLUMNS (
+                ingredient_id INT PATH '$.ingredient_id'
+            )) AS jt
+            WHERE jt.ingredient_id IS NOT NULL
+        );
+      
+      -- added and changed lines
+      INSERT INTO RecipeIngredient (plan_id, ingredient_id, quantity)
+      SELECT p_plan_id, jt.ingredient_id, jt.quantity
+      FROM JSON_TABLE(COALESCE(p_changes, '[]'), '$[*]' COLUMNS (
+          ingredient_id INT PATH '$.ingredient_id',
+          quantity DECIMAL(10, 2) PATH '$.quantity'
+      )) AS jt
+      WHERE jt.quantity IS NOT NULL AND jt.quantity <> 0;
+      
+      SET @bulk_bom = NULL;
+      CALL refresh_flattened_bom(p_plan_id, NULL);
+      
+      -- the plan's ingredients and the atomic materials of its compounds, like ConflictEngine.check
+      IF EXISTS (
+          SELECT * FROM DoNotCombine dnc
+          WHERE dnc.ingredientA_id IN (
+              SELECT ingredient_id FROM RecipeIngredient WHERE plan_id = p_plan_id
+              UNION SELECT atomic_ingredient_id FROM FlattenedBOM WHERE plan_id = p_plan_id
+          )
+          AND dnc.ingredientB_id IN (
+              SELECT ingredient_id FROM RecipeIngredient WHERE plan_id = p_plan_id
+              UNION SELECT atomic_ingredient_id FROM FlattenedBOM WHERE plan_id = p_plan_id
+          )
+      ) THEN
+          SIGNAL SQLSTATE '45000'
+          SET MESSAGE_TEXT = 'Recipe plan would combine incompatible ingredients';
+      END IF;
+      
+      IF p_activate THEN
+          UPDATE RecipePlan
+          SET is_active = (plan_id = p_plan_id)
+          WHERE product_id = p_product_id AND manufacturer_id = p_manufacturer_id;
+      END IF;
+      
+      COMMIT;
+  END//
+  
+  
   -- trace recall
   /** 
     Need to compute transitive closure, so follow contamination through all levels of production. 
     contaminated butter -> contaminated gravy -> contaminated steak dinner
     steak dinner is transitively contaminated by the bad butter.
     Find all products that used contaminated ingredient bc no multilevel product parent/child relationship.
+    Lots made from the recalled lot (compound ingredient lots) are followed through LotLineage at any depth.
+    The app walks the same edges in memory (LotLineageIndex), this procedure is the SQL equivalent.
   */
   CREATE PROCEDURE trace_recall (
       -- input parameters
@@ -431,59 +954,109 @@
       SET recall_end_date = DATE_ADD(p_recall_date, INTERVAL p_window DAY); -- recall end date is p_window days after the issued recall date
       
       
-      -- find products that included the recalled ingredient lot within the time frame
-      SELECT
+      -- find products that included the recalled ingredient lot, or a compound ingredient lot made from it
+      -- at any depth, within the time frame
+      WITH RECURSIVE contaminated (lot_number) AS (
+          SELECT p_ingredient_lot_number
+          UNION
+          SELECT ll.output_lot_number
+          FROM contaminated AS c
+          JOIN LotLineage AS ll ON ll.input_lot_number = c.lot_number
+          WHERE ll.output_type = 'ingredient'
+      )
+      SELECT DISTINCT
           pb.lot_number AS contaminated_product_lot -- product affected
-      FROM BatchConsumption AS bc -- info about products produced and ingredients used
+      FROM contaminated AS c
+      JOIN BatchConsumption AS bc ON bc.ingredient_lot_number = c.lot_number -- consumption of any contaminated lot
       JOIN ProductBatch AS pb ON bc.product_lot_number = pb.lot_number -- finished product batchs
-      WHERE bc.ingredient_lot_number = p_ingredient_lot_number -- filter so you get only consumption that included recalled ingredient lot
-            AND bc.consumption_date BETWEEN recall_start_date AND recall_end_date; -- fliter to get consumption within the desired window
+      WHERE bc.consumption_date BETWEEN recall_start_date AND recall_end_date; -- fliter to get consumption within the desired window
   END//
       
       
  
+  -- record health risk violations
+  /**
+    Writes the do-not-combine pairs consumed together into HealthRiskViolation.
+    For one product lot (record_production_batch, single consumption rows), or for one pair over the whole
+    history (a pair added later), or everything when all parameters are NULL (bulk loads).
+    Rows already there are kept, so it can run again for the same lot.
+  */
+  CREATE PROCEDURE record_health_risk_violations(
+    IN p_product_lot_number VARCHAR(100),
+    IN p_ingredientA_id INT,
+    IN p_ingredientB_id INT
+  )
+  BEGIN
+      IF p_product_lot_number IS NOT NULL THEN
+          -- the lot's consumption rows, pairs are stored A < B so bc1 is always the A side
+          INSERT IGNORE INTO HealthRiskViolation (product_lot_number, ingredientA_id, ingredientB_id, production_date)
+          SELECT DISTINCT pb.lot_number, dnc.ingredientA_id, dnc.ingredientB_id, pb.production_date
+          FROM ProductBatch pb
+          JOIN BatchConsumption bc1 ON bc1.product_lot_number = pb.lot_number
+          JOIN IngredientBatch ib1 ON ib1.lot_number = bc1.ingredient_lot_number
+          JOIN DoNotCombine dnc ON dnc.ingredientA_id = ib1.ingredient_id
+          JOIN BatchConsumption bc2 ON bc2.product_lot_number = pb.lot_number
+          JOIN IngredientBatch ib2 ON ib2.lot_number = bc2.ingredient_lot_number AND ib2.ingredient_id = dnc.ingredientB_id
+          WHERE pb.lot_number = p_product_lot_number;
+      ELSE
+          -- from the pairs: lots of ingredient A -> product lots that consumed them -> lots of ingredient B there
+          INSERT IGNORE INTO HealthRiskViolation (product_lot_number, ingredientA_id, ingredientB_id, production_date)
+          SELECT DISTINCT pb.lot_number, dnc.ingredientA_id, dnc.ingredientB_id, pb.production_date
+          FROM DoNotCombine dnc
+          JOIN IngredientBatch ib1 ON ib1.ingredient_id = dnc.ingredientA_id
+          JOIN BatchConsumption bc1 ON bc1.ingredient_lot_number = ib1.lot_number
+          JOIN BatchConsumption bc2 ON bc2.product_lot_number = bc1.product_lot_number
+          JOIN IngredientBatch ib2 ON ib2.lot_number = bc2.ingredient_lot_number AND ib2.ingredient_id = dnc.ingredientB_id
+          JOIN ProductBatch pb ON pb.lot_number = bc1.product_lot_number
+          WHERE p_ingredientA_id IS NULL
+             OR (dnc.ingredientA_id = p_ingredientA_id AND dnc.ingredientB_id = p_ingredientB_id);
+      END IF;
+  END//
+  
   -- evaluate health risk
+  /**
+    Fails with 'Incompatible ingredients detected: ...' naming every do-not-combine pair within the ingredient list,
+    otherwise returns the single 'No health risks detected.' row. The JSON array is expanded once into a temporary
+    table and the pairs come from one join of it with DoNotCombine. The app runs the same check in memory (ConflictEngine).
+  */
   CREATE PROCEDURE evaluate_health_risk(
     -- input parameters
     IN p_ingredient_list JSON -- array of ingredients
   )
   BEGIN
-      -- local variables
-      DECLARE ingredient_count INT; -- count of ingredients
-      DECLARE idx_a INT DEFAULT 0; -- index a (first ingredient index)
-      DECLARE idx_b INT; -- index b (second ingredient index)
-      DECLARE ingredient_a INT; -- first ingredient to compare
-      DECLARE ingredient_b INT; -- second ingredient to compare
-    
-      -- number of elements in array
-      SET ingredient_count = JSON_LENGTH(p_ingredient_list);
-    
-      -- check all pairs of ingredients
-      WHILE idx_a < ingredient_count DO -- while index is valid first ingredient
-          SET ingredient_a = JSON_EXTRACT(p_ingredient_list, CONCAT('$[', idx_a, ']')); -- pull ingredient from JSON array via path $[index]
-          SET idx_b = idx_a + 1; -- set second index to one after first so dont compare to itself
-        
-          WHILE idx_b < ingredient_count DO -- while index is valid second ingredient
-              SET ingredient_b = JSON_EXTRACT(p_ingredient_list, CONCAT('$[', idx_b, ']')); -- pull next ingredient in array
-            
-              -- check if this pair conflicts
-              IF EXISTS ( -- true if conflict exists
-                  -- query
-                  SELECT *
-                  FROM DoNotCombine AS dnc -- querying DNC table
-                  WHERE (dnc.ingredientA_id = LEAST(ingredient_a, ingredient_b) -- DNC table is set up so pairs are in sorted order (reverse dupes constraint)
-                     AND dnc.ingredientB_id = GREATEST(ingredient_a, ingredient_b))
-              ) THEN -- if true then execute this block
-                  SIGNAL SQLSTATE '45000' -- throw error
-                  SET MESSAGE_TEXT = 'Incompatible ingredients detected';
-              END IF;
-            
-              SET idx_b = idx_b + 1; -- move to next B ingredient
-          END WHILE; -- all combinations of B ingredient tested
-        
-          SET idx_a = idx_a + 1; -- move to next A ingredient
-      END WHILE; -- all combinations of ingredients tested
-    
+      DECLARE conflict_pairs TEXT; -- every incompatible pair in the list, NULL when there is none
+      DECLARE conflict_message VARCHAR(512);
+      
+      -- expand the JSON once, one row per ingredient
+      DROP TEMPORARY TABLE IF EXISTS tmp_health_risk_list;
+      CREATE TEMPORARY TABLE tmp_health_risk_list (
+        ingredient_id INT PRIMARY KEY
+      );
+      INSERT IGNORE INTO tmp_health_risk_list (ingredient_id)
+      SELECT jt.ingredient_id
+      FROM JSON_TABLE(p_ingredient_list, '$[*]' COLUMNS (ingredient_id INT PATH '$')) AS jt
+      WHERE jt.ingredient_id IS NOT NULL;
+      
+      -- pairs are stored in sorted order (reverse dupes constraint), both ingredients must be in the list
+      SELECT GROUP_CONCAT(CONCAT(ia.ingredient_name, ' (', dnc.ingredientA_id, ') + ',
+                                 ib.ingredient_name, ' (', dnc.ingredientB_id, ')')
+                          ORDER BY dnc.ingredientA_id, dnc.ingredientB_id SEPARATOR ', ')
+      INTO conflict_pairs
+      FROM tmp_health_risk_list AS a
+      JOIN DoNotCombine AS dnc ON dnc.ingredientA_id = a.ingredient_id
+      JOIN tmp_health_risk_list AS b ON b.ingredient_id = dnc.ingredientB_id
+      JOIN Ingredient AS ia ON dnc.ingredientA_id = ia.ingredient_id
+      JOIN Ingredient AS ib ON dnc.ingredientB_id = ib.ingredient_id;
+      
+      DROP TEMPORARY TABLE tmp_health_risk_list;
+      
+      IF conflict_pairs IS NOT NULL THEN
+          -- throw error, like before, with every pair instead of just the first one
+          SET conflict_message = LEFT(CONCAT('Incompatible ingredients detected: ', conflict_pairs), 512);
+          SIGNAL SQLSTATE '45000'
+          SET MESSAGE_TEXT = conflict_message;
+      END IF;
+      
       -- no conflicts found, return message of no health risks
       SELECT 'No health risks detected.' AS health_risk;
   END// 
@@ -519,7 +1092,7 @@
 
 
 
-  -- flattened bom view
+  -- flattened bom view, reads the materialized FlattenedBOM table
   CREATE VIEW flattened_product_bom AS
   SELECT 
       rp.plan_id,
@@ -535,21 +1108,17 @@
       i.ingredient_type AS bom_ingredient_type,
       ri.quantity AS bom_quantity,
       -- for atomic: show itself; for compound: show child
-      COALESCE(ic.child_ingredient_id, ri.ingredient_id) AS atomic_ingredient_id,
-      COALESCE(ai.ingredient_name, i.ingredient_name) AS atomic_ingredient_name,
-      -- calculate atomic quantity (if compound, distribute proportionally)
-      CASE 
-          WHEN i.ingredient_type = 'atomic' THEN ri.quantity
-          ELSE ri.quantity * ic.quantity / 
-             (SELECT SUM(quantity) FROM IngredientComposition WHERE parent_ingredient_id = i.ingredient_id)
-      END AS atomic_quantity_oz
+      fb.atomic_ingredient_id,
+      ai.ingredient_name AS atomic_ingredient_name,
+      -- atomic quantity (if compound, distributed proportionally)
+      fb.atomic_quantity_oz
   FROM RecipePlan rp
   JOIN Product p ON rp.product_id = p.product_id
   JOIN Manufacturer m ON rp.manufacturer_id = m.manufacturer_id
   JOIN RecipeIngredient ri ON rp.plan_id = ri.plan_id
   JOIN Ingredient i ON ri.ingredient_id = i.ingredient_id
-  LEFT JOIN IngredientComposition ic ON i.ingredient_id = ic.parent_ingredient_id AND i.ingredient_type = 'compound'
-  LEFT JOIN Ingredient ai ON ic.child_ingredient_id = ai.ingredient_id;
+  JOIN FlattenedBOM fb ON fb.plan_id = ri.plan_id AND fb.bom_ingredient_id = ri.ingredient_id
+  JOIN Ingredient ai ON fb.atomic_ingredient_id = ai.ingredient_id;
 
 
 
@@ -557,33 +1126,25 @@
 
 
 
-  -- health risk violation view
+  -- health risk violation view, a range read of HealthRiskViolation
   CREATE VIEW health_risk_violations_last_30_days AS
-  SELECT DISTINCT
-      pb.lot_number AS product_lot_number,
+  SELECT
+      v.product_lot_number,
       pb.product_id,
       p.name AS product_name,
       pb.manufacturer_id,
-      pb.production_date,
-      dnc.ingredientA_id,
+      v.production_date,
+      v.ingredientA_id,
       ia.ingredient_name AS ingredientA_name,
-      dnc.ingredientB_id,
+      v.ingredientB_id,
       ib.ingredient_name AS ingredientB_name,
     'Incompatible ingredients detected' AS violation_type
-  FROM ProductBatch pb
+  FROM HealthRiskViolation v
+  JOIN ProductBatch pb ON v.product_lot_number = pb.lot_number
   JOIN Product p ON pb.product_id = p.product_id
-  JOIN BatchConsumption bc1 ON pb.lot_number = bc1.product_lot_number
-  JOIN IngredientBatch ib1 ON bc1.ingredient_lot_number = ib1.lot_number
-  JOIN BatchConsumption bc2 ON pb.lot_number = bc2.product_lot_number
-  JOIN IngredientBatch ib2 ON bc2.ingredient_lot_number = ib2.lot_number
-  JOIN DoNotCombine dnc ON (
-      (ib1.ingredient_id = dnc.ingredientA_id AND ib2.ingredient_id = dnc.ingredientB_id) OR
-      (ib1.ingredient_id = dnc.ingredientB_id AND ib2.ingredient_id = dnc.ingredientA_id)
-  )
-  JOIN Ingredient ia ON dnc.ingredientA_id = ia.ingredient_id
-  JOIN Ingredient ib ON dnc.ingredientB_id = ib.ingredient_id
-  WHERE pb.production_date >= DATE_SUB(CURDATE(), INTERVAL 30 DAY)
-    AND bc1.ingredient_lot_number < bc2.ingredient_lot_number; -- avoid duplicates
+  JOIN Ingredient ia ON v.ingredientA_id = ia.ingredient_id
+  JOIN Ingredient ib ON v.ingredientB_id = ib.ingredient_id
+  WHERE v.production_date >= DATE_SUB(CURDATE(), INTERVAL 30 DAY);
 
 
   
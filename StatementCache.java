@@ -0,0 +1,89 @@
+import java.sql.*;
+import java.util.*;
+
+/**
+ * named prepared statements kept open on one physical connection
+ * with useServerPrepStmts the server parses/plans each statement once per connection,
+ * later calls only send parameters. least recently used statements are closed past maxSize.
+ */
+public class StatementCache {
+
+    private final Connection physical;
+    private final int maxSize;
+    private final Map<String, Entry> statements;
+
+    public StatementCache(Connection physical, int maxSize) {
+        this.physical = physical;
+        this.maxSize = maxSize;
+        // access order so the eldest entry is the least recently used
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * cached statement for name, prepared on first use
+     */
+    public synchronized PreparedStatement prepare(String name, String sql) throws SQLException {
+        return get(name, sql, false);
+    }
+
+    /**
+     * cached stored procedure call for name, prepared on first use
+     */
+    public synchronized CallableStatement prepareCall(String name, String sql) throws SQLException {
+        return (CallableStatement) get(name, sql, true);
+    }
+
+    public synchronized int size() {
+        return statements.size();
+    }
+
+    /**
+     * close every cached statement, called when the physical connection is destroyed
+     */
+    public synchronized void close() {
+        for (Entry entry : statements.values()) {
+            closeQuietly(entry.stmt);
+        }
+        statements.clear();
+    }
+
+    private PreparedStatement get(String name, String sql, boolean callable) throws SQLException {
+        Entry entry = statements.get(name);
+        if (entry != null && entry.sql.equals(sql) && !entry.stmt.isClosed()) {
+            return entry.stmt;
+        }
+        if (entry != null) {
+            // same name reused for different sql, replace it
+            statements.remove(name);
+            closeQuietly(entry.stmt);
+        }
+
+        PreparedStatement stmt = Metrics.timed(callable ? physical.prepareCall(sql) : physical.prepareStatement(sql));
+        statements.put(name, new Entry(sql, stmt));
+
+        if (statements.size() > maxSize) {
+            Iterator<Entry> eldest = statements.values().iterator();
+            closeQuietly(eldest.next().stmt);
+            eldest.remove();
+        }
+        return stmt;
+    }
+
+    private static void closeQuietly(Statement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            // connection is going away anyway
+        }
+    }
+
+    private static class Entry {
+        final String sql;
+        final PreparedStatement stmt;
+
+        Entry(String sql, PreparedStatement stmt) {
+            this.sql = sql;
+            this.stmt = stmt;
+        }
+    }
+}
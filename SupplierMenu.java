@@ -2,12 +2,14 @@ import java.sql.*;
 import java.util.Scanner;
 
 public class SupplierMenu {
+    private UserSession session;
     private String supplierId;
     private Scanner scanner;
     private IngredientService ingredientService;
 
-    public SupplierMenu(String supplierId, Scanner scanner) {
-        this.supplierId = supplierId;
+    public SupplierMenu(UserSession session, Scanner scanner) {
+        this.session = session;
+        this.supplierId = session.userId;
         this.scanner = scanner;
         this.ingredientService = new IngredientService();
     }
@@ -15,11 +17,13 @@ public class SupplierMenu {
     public void show() {
         while (true) {
             System.out.println("\n SUPPLIER MENU ");
-            System.out.println("Logged in as: " + supplierId);
+            System.out.println("Logged in as: " + session.displayName());
             System.out.println("1. Manage Ingredients Supplied");
             System.out.println("2. Create Ingredient Batch");
             System.out.println("3. View My Formulations");
             System.out.println("4. Manage Do-Not-Combine List");
+            System.out.println("5. Record Source Lots of a Compound Batch");
+            System.out.println("6. Import Ingredient Batches from a File");
             System.out.println("0. Logout");
             System.out.print("Select option: ");
             
@@ -39,6 +43,12 @@ public class SupplierMenu {
                 case 4:
                     manageDoNotCombine();
                     break;
+                case 5:
+                    recordSourceLots();
+                    break;
+                case 6:
+                    importIngredientBatches();
+                    break;
                 case 0:
                     System.out.println("Logging out.");
                     return;
@@ -193,6 +203,33 @@ public class SupplierMenu {
         ingredientService.createIngredientBatch(supplierId, ingredientId, quantity, unitCost, expirationDate, batchId);
     }
     
+    private void importIngredientBatches() {
+        System.out.println("\n Import Ingredient Batches ");
+        System.out.println("CSV with a header row, or one JSON object per line (NDJSON), fields:");
+        System.out.println("batch_id, ingredient_id, quantity_oz, unit_cost, expiration_date (YYYY-MM-DD)");
+        
+        System.out.print("Enter file name (.csv for CSV, otherwise NDJSON): ");
+        String fileName = scanner.nextLine().trim();
+        
+        ingredientService.importIngredientBatches(supplierId, fileName);
+    }
+    
+    private void recordSourceLots() {
+        System.out.println("\n Record Source Lots ");
+        
+        System.out.print("Enter compound ingredient lot number: ");
+        String compoundLot = scanner.nextLine();
+        
+        while (true) {
+            System.out.print("Enter source lot number (blank to finish): ");
+            String sourceLot = scanner.nextLine().trim();
+            if (sourceLot.isEmpty()) {
+                break;
+            }
+            ingredientService.addSourceLot(compoundLot, sourceLot);
+        }
+    }
+    
     private void viewFormulations() {
         System.out.println("\n My Formulations ");
         ingredientService.viewSupplierFormulations(supplierId);
@@ -0,0 +1,130 @@
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * hierarchical timing wheel over whole ticks (ExpirationScheduler uses epoch days)
+ * LEVELS wheels of SLOTS slots, a slot of level L covers SLOTS^L ticks. an item goes into the lowest level whose
+ * span still reaches its tick and moves down a level each time the wheel above turns over, so scheduling and
+ * firing cost O(1) per item however many items are waiting and however far out they are.
+ * ticks past the top level wait in an overflow list until it turns over. not thread safe.
+ */
+class TimingWheel<T> {
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 3;
+
+    /**
+     * an item and the tick it is due
+     */
+    private static final class Timer<T> {
+        final long tick;
+        final T item;
+
+        Timer(long tick, T item) {
+            this.tick = tick;
+            this.item = item;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final List<Timer<T>>[][] wheels = new List[LEVELS][SLOTS];
+    private final List<Timer<T>> overflow = new ArrayList<>();
+    // scheduled at or before now, fired on the next advance
+    private final List<Timer<T>> due = new ArrayList<>();
+    private long now;
+    private int size;
+
+    TimingWheel(long now) {
+        this.now = now;
+    }
+
+    long now() {
+        return now;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void schedule(long tick, T item) {
+        size++;
+        place(new Timer<>(tick, item));
+    }
+
+    /**
+     * move the wheel to tick, firing every item due on the way in tick order
+     */
+    void advanceTo(long tick, Consumer<T> fire) {
+        drainDue(fire);
+        while (now < tick) {
+            now++;
+            // turn the upper wheels over first, their items for this tick drop into level 0
+            for (int level = LEVELS - 1; level >= 1; level--) {
+                if ((now & ((1L << (BITS * level)) - 1)) == 0) {
+                    cascade(level);
+                }
+            }
+            if ((now & ((1L << (BITS * LEVELS)) - 1)) == 0 && !overflow.isEmpty()) {
+                List<Timer<T>> waiting = new ArrayList<>(overflow);
+                overflow.clear();
+                waiting.forEach(this::place);
+            }
+            List<Timer<T>> slot = wheels[0][(int) (now & MASK)];
+            if (slot != null) {
+                drain(slot, fire);
+            }
+            drainDue(fire);
+        }
+    }
+
+    private void cascade(int level) {
+        int index = (int) ((now >>> (BITS * level)) & MASK);
+        List<Timer<T>> slot = wheels[level][index];
+        if (slot != null && !slot.isEmpty()) {
+            wheels[level][index] = null;
+            slot.forEach(this::place);
+        }
+    }
+
+    private void place(Timer<T> timer) {
+        if (timer.tick <= now) {
+            due.add(timer);
+            return;
+        }
+        // the lowest level where the tick and now are in the same turn of the wheel above
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = BITS * (level + 1);
+            if ((timer.tick >>> shift) == (now >>> shift)) {
+                int index = (int) ((timer.tick >>> (BITS * level)) & MASK);
+                List<Timer<T>> slot = wheels[level][index];
+                if (slot == null) {
+                    slot = wheels[level][index] = new ArrayList<>();
+                }
+                slot.add(timer);
+                return;
+            }
+        }
+        overflow.add(timer);
+    }
+
+    // fire may schedule items that are already due
+    private void drainDue(Consumer<T> fire) {
+        while (!due.isEmpty()) {
+            drain(due, fire);
+        }
+    }
+
+    private void drain(List<Timer<T>> timers, Consumer<T> fire) {
+        if (timers.isEmpty()) {
+            return;
+        }
+        List<Timer<T>> fired = new ArrayList<>(timers);
+        timers.clear();
+        size -= fired.size();
+        for (Timer<T> timer : fired) {
+            fire.accept(timer.item);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+import java.sql.*;
+
+/**
+ * User table lookups on a borrowed connection
+ */
+public class UserRepository extends Repository {
+
+    public UserRepository(Connection conn) {
+        super(conn);
+    }
+
+    /**
+     * user row by id with the name of the manufacturer or supplier it is, null if not found
+     */
+    public UserRecord findById(String userId) throws SQLException {
+        return queryOne("user.byId",
+                "SELECT u.user_id, u.first_name, u.last_name, u.role_code, " +
+                "COALESCE(m.manufacturer_name, s.supplier_name) AS entity_name " +
+                "FROM User u " +
+                "LEFT JOIN Manufacturer m ON m.manufacturer_id = u.user_id " +
+                "LEFT JOIN Supplier s ON s.supplier_id = u.user_id " +
+                "WHERE u.user_id = ?",
+                stmt -> stmt.setString(1, userId),
+                rs -> new UserRecord(rs.getString("user_id"), rs.getString("first_name"),
+                                     rs.getString("last_name"), rs.getString("role_code"),
+                                     rs.getString("entity_name")));
+    }
+
+    /**
+     * one row of the User table
+     */
+    public static class UserRecord {
+        public final String userId;
+        public final String firstName;
+        public final String lastName;
+        public final String roleCode;
+        // manufacturer_name or supplier_name, null for a viewer
+        public final String entityName;
+
+        UserRecord(String userId, String firstName, String lastName, String roleCode, String entityName) {
+            this.userId = userId;
+            this.firstName = firstName;
+            this.lastName = lastName;
+            this.roleCode = roleCode;
+            this.entityName = entityName;
+        }
+    }
+}
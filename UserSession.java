@@ -0,0 +1,107 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * a logged in user, built by LoginManager from one lookup of the user and the manufacturer or supplier it is
+ * the menus pass it to the services instead of looking the user up again, and it holds the caches that only
+ * this user's session reads: active plan per product and the manufacturer's product list. the write paths of
+ * the session forget what they changed, another session of the same user changing the active plan is seen
+ * after -Dsession.activePlanTtlMs, changing the products after logout.
+ */
+public class UserSession {
+
+    // QueryMenu needs no user
+    public static final String QUERIES_ROLE = "VIEW QUERIES";
+
+    private static final long ACTIVE_PLAN_TTL_MS = Long.getLong("session.activePlanTtlMs", 30_000L);
+
+    public final String userId;
+    public final String firstName;
+    public final String lastName;
+    public final String roleCode;
+    // manufacturer_name or supplier_name, null for a viewer
+    public final String entityName;
+
+    // product id -> active plan id and when it was looked up, products without an active plan are not kept
+    private final Map<Integer, CachedPlan> activePlans = new ConcurrentHashMap<>();
+    private volatile List<ProductRepository.ProductRecord> products;
+    private volatile long lastUsedMs = System.currentTimeMillis();
+
+    UserSession(String userId, String firstName, String lastName, String roleCode, String entityName) {
+        this.userId = userId;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.roleCode = roleCode;
+        this.entityName = entityName;
+    }
+
+    static UserSession of(UserRepository.UserRecord user) {
+        return new UserSession(user.userId, user.firstName, user.lastName, user.roleCode, user.entityName);
+    }
+
+    static UserSession queries() {
+        return new UserSession(QUERIES_ROLE, null, null, QUERIES_ROLE, null);
+    }
+
+    /**
+     * user id and the name of the manufacturer or supplier, for the menu headers
+     */
+    public String displayName() {
+        return entityName == null ? userId : userId + " (" + entityName + ")";
+    }
+
+    /**
+     * the session was used now
+     */
+    void touch() {
+        lastUsedMs = System.currentTimeMillis();
+    }
+
+    long idleMs() {
+        return System.currentTimeMillis() - lastUsedMs;
+    }
+
+    Integer cachedActivePlan(int productId) {
+        CachedPlan cached = activePlans.get(productId);
+        if (cached == null || System.currentTimeMillis() - cached.cachedAtMs > ACTIVE_PLAN_TTL_MS) {
+            return null;
+        }
+        return cached.planId;
+    }
+
+    void cacheActivePlan(int productId, int planId) {
+        activePlans.put(productId, new CachedPlan(planId, System.currentTimeMillis()));
+    }
+
+    /**
+     * the product's active plan may have changed
+     */
+    public void forgetActivePlan(int productId) {
+        activePlans.remove(productId);
+    }
+
+    List<ProductRepository.ProductRecord> cachedProducts() {
+        return products;
+    }
+
+    void cacheProducts(List<ProductRepository.ProductRecord> products) {
+        this.products = Collections.unmodifiableList(products);
+    }
+
+    /**
+     * the manufacturer's products may have changed
+     */
+    public void forgetProducts() {
+        products = null;
+    }
+
+    private static final class CachedPlan {
+        final int planId;
+        final long cachedAtMs;
+
+        CachedPlan(int planId, long cachedAtMs) {
+            this.planId = planId;
+            this.cachedAtMs = cachedAtMs;
+        }
+    }
+}
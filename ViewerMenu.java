@@ -1,11 +1,17 @@
 import java.sql.*;
+import java.util.List;
 import java.util.Scanner;
 
 public class ViewerMenu {
+    // -Dcatalog.pageSize, products listed before asking for more
+    private static final int PAGE_SIZE = Integer.getInteger("catalog.pageSize", 20);
+
     private Scanner scanner;
+    private ProductService productService;
 
     public ViewerMenu(Scanner scanner) {
         this.scanner = scanner;
+        this.productService = new ProductService();
     }
 
     public void show() {
@@ -42,49 +48,69 @@ public class ViewerMenu {
     private void browseProducts() {
         System.out.println("\n Browse Products ");
         
-        try (Connection conn = DBConnect.getConnection()) {
-            String sql = "SELECT p.product_id, p.name, m.manufacturer_name, c.name AS category " +
-                        "FROM Product p " +
-                        "JOIN Manufacturer m ON p.manufacturer_id = m.manufacturer_id " +
-                        "JOIN Category c ON p.category_id = c.category_id " +
-                        "ORDER BY m.manufacturer_name, c.name, p.name";
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
-            
-            System.out.println("\nProducts");
-            String currentManufacturer = "";
-            while (rs.next()) {
-                String manufacturer = rs.getString("manufacturer_name");
-                if (!manufacturer.equals(currentManufacturer)) {
-                    System.out.println("\n[" + manufacturer + "]");
-                    currentManufacturer = manufacturer;
+        System.out.print("Manufacturer name (Enter for all): ");
+        String manufacturer = scanner.nextLine().trim();
+        System.out.print("Category (Enter for all): ");
+        String category = scanner.nextLine().trim();
+        
+        listProducts(manufacturer.isEmpty() ? null : manufacturer, category.isEmpty() ? null : category);
+    }
+    
+    /**
+     * list the catalog a page at a time, the next page only when asked for
+     */
+    private void listProducts(String manufacturer, String category) {
+        System.out.println("\nProducts");
+        String currentManufacturer = "";
+        ProductCatalogRepository.Entry last = null;
+        while (true) {
+            // one extra product tells whether there is another page
+            List<ProductCatalogRepository.Entry> page =
+                    productService.browseProducts(manufacturer, category, last, PAGE_SIZE + 1);
+            boolean more = page.size() > PAGE_SIZE;
+            for (ProductCatalogRepository.Entry product : page.subList(0, Math.min(page.size(), PAGE_SIZE))) {
+                if (!product.manufacturerName.equals(currentManufacturer)) {
+                    System.out.println("\n[" + product.manufacturerName + "]");
+                    currentManufacturer = product.manufacturerName;
                 }
-                System.out.println("  ID: " + rs.getInt("product_id") +
-                                 " | " + rs.getString("name") +
-                                 " | Category: " + rs.getString("category"));
+                System.out.println("  ID: " + product.productId +
+                                 " | " + product.name +
+                                 " | Category: " + product.categoryName);
+                last = product;
             }
             
-        } catch (SQLException e) {
-            System.err.println("Error browsing products: " + e.getMessage());
+            if (last == null) {
+                System.out.println("No products found.");
+            }
+            if (!more) {
+                return;
+            }
+            System.out.print("More products? (y/n): ");
+            if (!scanner.nextLine().trim().equalsIgnoreCase("y")) {
+                return;
+            }
         }
     }
     
     private void generateIngredientList() {
         System.out.println("\n Generate Ingredient List ");
         
-        browseProducts();
+        listProducts(null, null);
         
         System.out.print("\nEnter product id: ");
         int productId = scanner.nextInt();
         scanner.nextLine();
         
+        Metrics.Sample sample = Metrics.start("viewer.generateIngredientList");
         try (Connection conn = DBConnect.getConnection()) {
-            // use the flattened_product_bom view and aggregate by atomic ingredient
-            String sql = "SELECT atomic_ingredient_id, atomic_ingredient_name, " +
-                        "SUM(atomic_quantity_oz) AS total_quantity " +
-                        "FROM flattened_product_bom " +
-                        "WHERE product_id = ? AND is_active = TRUE " +
-                        "GROUP BY atomic_ingredient_id, atomic_ingredient_name " +
+            // read the materialized FlattenedBOM of the active plan and aggregate by atomic ingredient
+            String sql = "SELECT fb.atomic_ingredient_id, i.ingredient_name AS atomic_ingredient_name, " +
+                        "SUM(fb.atomic_quantity_oz) AS total_quantity " +
+                        "FROM RecipePlan rp " +
+                        "JOIN FlattenedBOM fb ON fb.plan_id = rp.plan_id " +
+                        "JOIN Ingredient i ON i.ingredient_id = fb.atomic_ingredient_id " +
+                        "WHERE rp.product_id = ? AND rp.is_active = TRUE " +
+                        "GROUP BY fb.atomic_ingredient_id, i.ingredient_name " +
                         "ORDER BY total_quantity DESC";
             PreparedStatement stmt = conn.prepareStatement(sql);
             stmt.setInt(1, productId);
@@ -105,14 +131,17 @@ public class ViewerMenu {
             }
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error generating ingredient list: " + e.getMessage());
+        } finally {
+            sample.close();
         }
     }
     
     private void compareProducts() {
         System.out.println("\n Compare Products for Incompatibilities ");
         
-        browseProducts();
+        listProducts(null, null);
         
         System.out.print("\nEnter first product id: ");
         int productId1 = scanner.nextInt();
@@ -122,42 +151,29 @@ public class ViewerMenu {
         int productId2 = scanner.nextInt();
         scanner.nextLine();
         
+        Metrics.Sample sample = Metrics.start("viewer.compareProducts");
         try (Connection conn = DBConnect.getConnection()) {
-            // Get all atomic ingredients from both products and check for conflicts
-            String sql = "SELECT DISTINCT dnc.ingredientA_id, ia.ingredient_name AS nameA, " +
-                        "dnc.ingredientB_id, ib.ingredient_name AS nameB " +
-                        "FROM ( " +
-                        "    SELECT DISTINCT atomic_ingredient_id AS ingredient_id " +
-                        "    FROM flattened_product_bom " +
-                        "    WHERE product_id = ? AND is_active = TRUE " +
-                        "    UNION " +
-                        "    SELECT DISTINCT atomic_ingredient_id AS ingredient_id " +
-                        "    FROM flattened_product_bom " +
-                        "    WHERE product_id = ? AND is_active = TRUE " +
-                        ") AS combined_ingredients " +
-                        "JOIN DoNotCombine dnc ON ( " +
-                        "    combined_ingredients.ingredient_id = dnc.ingredientA_id OR " +
-                        "    combined_ingredients.ingredient_id = dnc.ingredientB_id " +
+            // atomic ingredients of both active plans, read once from FlattenedBOM
+            // a conflict is a pair with ingredient A in the first product and B in either product
+            String sql = "WITH atoms AS ( " +
+                        "    SELECT DISTINCT rp.product_id, fb.atomic_ingredient_id AS ingredient_id " +
+                        "    FROM RecipePlan rp " +
+                        "    JOIN FlattenedBOM fb ON fb.plan_id = rp.plan_id " +
+                        "    WHERE rp.product_id IN (?, ?) AND rp.is_active = TRUE " +
                         ") " +
+                        "SELECT DISTINCT dnc.ingredientA_id, ia.ingredient_name AS nameA, " +
+                        "dnc.ingredientB_id, ib.ingredient_name AS nameB " +
+                        "FROM atoms a " +
+                        "JOIN DoNotCombine dnc ON dnc.ingredientA_id = a.ingredient_id " +
+                        "JOIN atoms b ON b.ingredient_id = dnc.ingredientB_id " +
                         "JOIN Ingredient ia ON dnc.ingredientA_id = ia.ingredient_id " +
                         "JOIN Ingredient ib ON dnc.ingredientB_id = ib.ingredient_id " +
-                        "WHERE EXISTS ( " +
-                        "    SELECT 1 FROM flattened_product_bom fpb1 " +
-                        "    WHERE fpb1.product_id = ? AND fpb1.is_active = TRUE " +
-                        "    AND fpb1.atomic_ingredient_id = dnc.ingredientA_id " +
-                        ") " +
-                        "AND EXISTS ( " +
-                        "    SELECT 1 FROM flattened_product_bom fpb2 " +
-                        "    WHERE fpb2.product_id IN (?, ?) AND fpb2.is_active = TRUE " +
-                        "    AND fpb2.atomic_ingredient_id = dnc.ingredientB_id " +
-                        ")";
+                        "WHERE a.product_id = ?";
             
             PreparedStatement stmt = conn.prepareStatement(sql);
             stmt.setInt(1, productId1);
             stmt.setInt(2, productId2);
             stmt.setInt(3, productId1);
-            stmt.setInt(4, productId1);
-            stmt.setInt(5, productId2);
             
             ResultSet rs = stmt.executeQuery();
             
@@ -174,7 +190,10 @@ public class ViewerMenu {
             }
             
         } catch (SQLException e) {
+            sample.failed();
             System.err.println("Error comparing products: " + e.getMessage());
+        } finally {
+            sample.close();
         }
     }
 }
@@ -0,0 +1,65 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/**
+ * access to the application classes from the benchmarks
+ * the application lives in the default package, which named packages cannot import,
+ * and JMH refuses benchmarks in the default package. so benchmarks reach the app through
+ * method handles looked up by class name. keep the handles in static finals so the JIT
+ * treats them as constants.
+ */
+final class App {
+
+    private App() {
+    }
+
+    static Class<?> type(String className) {
+        try {
+            // no initialization yet, DBConnect reads its db.* properties in a static initializer
+            return Class.forName(className, false, App.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Application class not on the classpath: " + className, e);
+        }
+    }
+
+    /**
+     * handle for a (possibly private) method, instance methods take the receiver as first argument
+     */
+    static MethodHandle method(String className, String name, Class<?>... parameterTypes) {
+        try {
+            Method method = type(className).getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot access " + className + "." + name, e);
+        }
+    }
+
+    /**
+     * handle for a (possibly package-private) constructor
+     */
+    static MethodHandle constructor(String className, Class<?>... parameterTypes) {
+        try {
+            Constructor<?> constructor = type(className).getDeclaredConstructor(parameterTypes);
+            constructor.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(constructor);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot access constructor of " + className, e);
+        }
+    }
+
+    /**
+     * new instance through the no-arg constructor
+     */
+    static Object newInstance(String className) {
+        try {
+            return constructor(className).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot create " + className, e);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package bench;
+
+import ch.vorburger.mariadb4j.DB;
+import ch.vorburger.mariadb4j.DBConfigurationBuilder;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * database for the benchmarks that touch MariaDB
+ *
+ * -Dbench.db.url=jdbc:mariadb://localhost:3306/bench (plus bench.db.user / bench.db.password)
+ *     use a locally started server, the schema is loaded only with -Dbench.db.loadScripts=true
+ * otherwise an embedded MariaDB (MariaDB4j) is started on a free port and loaded from
+ * SQL_CREATE_TABLE.sql and INSERTS.sql, found in -Dbench.scripts.dir or the repository root.
+ *
+ * the app's DBConnect is pointed at the same database through its db.* system properties,
+ * so start() must run before the first DBConnect call in the JVM.
+ */
+final class BenchmarkDatabase {
+
+    private static final String DATABASE = "bench";
+
+    private static DB embedded;
+    private static String url;
+    private static String user;
+    private static String password;
+
+    private BenchmarkDatabase() {
+    }
+
+    static synchronized void start() throws Exception {
+        if (url != null) {
+            return;
+        }
+        String external = System.getProperty("bench.db.url");
+        boolean loadScripts;
+        if (external != null) {
+            url = external;
+            user = System.getProperty("bench.db.user", "root");
+            password = System.getProperty("bench.db.password", "");
+            loadScripts = Boolean.getBoolean("bench.db.loadScripts");
+        } else {
+            startEmbedded();
+            loadScripts = true;
+        }
+
+        System.setProperty("db.url", url);
+        System.setProperty("db.user", user);
+        System.setProperty("db.password", password);
+
+        if (loadScripts) {
+            loadScripts();
+        }
+    }
+
+    /**
+     * (re)create the schema from SQL_CREATE_TABLE.sql and load INSERTS.sql, the create script drops every table first
+     */
+    static void loadScripts() throws IOException, SQLException {
+        Path scripts = scriptsDir();
+        try (Connection conn = connectForLoading()) {
+            SqlScript.run(conn, scripts.resolve("SQL_CREATE_TABLE.sql"), false);
+            // INSERTS.sql has fixed 2025 dates that check_90_day_minimum compares with today,
+            // load it with the session clock set back to when it was written
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("SET timestamp = UNIX_TIMESTAMP('2025-08-01')");
+                SqlScript.run(conn, scripts.resolve("INSERTS.sql"), true);
+                stmt.execute("SET timestamp = DEFAULT");
+            }
+        }
+    }
+
+    static synchronized void stop() throws Exception {
+        if (embedded != null) {
+            embedded.stop();
+            embedded = null;
+            url = null;
+        }
+    }
+
+    /**
+     * plain connection, outside of the app's pool
+     */
+    static Connection connect() throws SQLException {
+        return DriverManager.getConnection(url, user, password);
+    }
+
+    /**
+     * connection for scripts and bulk loads: the scripts send several statements at once under
+     * DELIMITER // like the command line client does, DatasetGenerator uses LOAD DATA LOCAL INFILE
+     */
+    static Connection connectForLoading() throws SQLException {
+        Properties props = new Properties();
+        props.setProperty("user", user);
+        props.setProperty("password", password);
+        props.setProperty("allowMultiQueries", "true");
+        props.setProperty("allowLocalInfile", "true");
+        return DriverManager.getConnection(url, props);
+    }
+
+    static String url() {
+        return url;
+    }
+
+    private static void startEmbedded() throws Exception {
+        DBConfigurationBuilder config = DBConfigurationBuilder.newBuilder();
+        config.setPort(0);
+        if ("root".equals(System.getProperty("user.name"))) {
+            // mariadbd refuses to run as root unless told to
+            config.addArg("--user=root");
+        }
+        embedded = DB.newEmbeddedDB(config.build());
+        embedded.start();
+
+        user = "root";
+        password = "";
+        try (Connection conn = DriverManager.getConnection(config.getURL("mysql"), user, password);
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE DATABASE IF NOT EXISTS " + DATABASE);
+        }
+        url = config.getURL(DATABASE) + "?useServerPrepStmts=true";
+    }
+
+    private static Path scriptsDir() throws IOException {
+        String configured = System.getProperty("bench.scripts.dir");
+        if (configured != null) {
+            return Paths.get(configured);
+        }
+        // run from the repository root or from benchmarks/
+        for (Path candidate : new Path[] { Paths.get("."), Paths.get("..") }) {
+            if (Files.exists(candidate.resolve("SQL_CREATE_TABLE.sql"))) {
+                return candidate;
+            }
+        }
+        throw new IOException("SQL_CREATE_TABLE.sql not found, set -Dbench.scripts.dir");
+    }
+}
@@ -0,0 +1,104 @@
+package bench;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * a recipe plan with a configurable number of ingredients, each stocked with several lots
+ * ingredient ids start at 10000, the product id is 9000 + ingredient count so fixtures of
+ * different sizes live side by side. on-hand quantities are large enough that benchmark
+ * loops never run out, lots expire a year from today.
+ * rows are inserted with INSERT IGNORE, running it again against the same database reuses them.
+ */
+final class BenchmarkFixture {
+
+    static final String MANUFACTURER = "MFG001";
+    static final String SUPPLIER = "SUP020";
+    static final int CATEGORY = 2;
+
+    final int productId;
+    final int planId;
+    final List<Integer> ingredientIds = new ArrayList<>();
+    final List<String> lotNumbers = new ArrayList<>();
+
+    private BenchmarkFixture(int productId, int planId) {
+        this.productId = productId;
+        this.planId = planId;
+    }
+
+    static BenchmarkFixture create(int ingredientCount, int lotsPerIngredient) throws SQLException {
+        int productId = 9000 + ingredientCount;
+        try (Connection conn = BenchmarkDatabase.connect()) {
+            conn.setAutoCommit(false);
+
+            update(conn, "INSERT IGNORE INTO Product (product_id, name, manufacturer_id, category_id, standard_batch_units) " +
+                         "VALUES (?, ?, ?, ?, 100)",
+                   productId, "Bench " + ingredientCount, MANUFACTURER, CATEGORY);
+            update(conn, "INSERT IGNORE INTO RecipePlan (product_id, manufacturer_id, version_no, is_active) " +
+                         "VALUES (?, ?, 1, TRUE)",
+                   productId, MANUFACTURER);
+
+            int planId;
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT plan_id FROM RecipePlan WHERE product_id = ? AND manufacturer_id = ? AND version_no = 1")) {
+                stmt.setInt(1, productId);
+                stmt.setString(2, MANUFACTURER);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    planId = rs.getInt(1);
+                }
+            }
+
+            BenchmarkFixture fixture = new BenchmarkFixture(productId, planId);
+            try (PreparedStatement ingredient = conn.prepareStatement(
+                         "INSERT IGNORE INTO Ingredient (ingredient_id, ingredient_name, ingredient_type) VALUES (?, ?, 'atomic')");
+                 PreparedStatement recipe = conn.prepareStatement(
+                         "INSERT IGNORE INTO RecipeIngredient (plan_id, ingredient_id, quantity) VALUES (?, ?, 0.5)");
+                 PreparedStatement lot = conn.prepareStatement(
+                         "INSERT IGNORE INTO IngredientBatch (batch_id, ingredient_id, supplier_id, quantity_oz, unit_cost, expiration_date) " +
+                         "VALUES (?, ?, ?, 99999999, 0.25, DATE_ADD(CURDATE(), INTERVAL ? DAY))")) {
+                for (int i = 0; i < ingredientCount; i++) {
+                    int ingredientId = 10000 + i;
+                    fixture.ingredientIds.add(ingredientId);
+
+                    ingredient.setInt(1, ingredientId);
+                    ingredient.setString(2, "Bench Ingredient " + i);
+                    ingredient.addBatch();
+
+                    recipe.setInt(1, planId);
+                    recipe.setInt(2, ingredientId);
+                    recipe.addBatch();
+
+                    for (int j = 0; j < lotsPerIngredient; j++) {
+                        String batchId = "BL" + j;
+                        lot.setString(1, batchId);
+                        lot.setInt(2, ingredientId);
+                        lot.setString(3, SUPPLIER);
+                        lot.setInt(4, 365 + j);
+                        lot.addBatch();
+                        // same format as the generate_ingredient_lot_number trigger
+                        fixture.lotNumbers.add(ingredientId + "-" + SUPPLIER + "-" + batchId);
+                    }
+                }
+                ingredient.executeBatch();
+                recipe.executeBatch();
+                lot.executeBatch();
+            }
+            conn.commit();
+            return fixture;
+        }
+    }
+
+    private static void update(Connection conn, String sql, Object... params) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+            stmt.executeUpdate();
+        }
+    }
+}
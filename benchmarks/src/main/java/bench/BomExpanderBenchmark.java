@@ -0,0 +1,136 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * in-memory BomExpander on a layered BOM: 2000 atomic ingredients, then compounds made of 3 to 8 materials
+ * of the level below, so sub-assemblies are shared by many compounds. every benchmark expands all top level
+ * compounds. no database needed
+ *
+ * naive: plain recursion without memo, what a one-query-per-level expansion does
+ * cold: a new expander, shared sub-assemblies are expanded once
+ * warm: everything memoized
+ * afterChange: one bottom level compound changed, only its ancestors are expanded again
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BomExpanderBenchmark {
+
+    private static final MethodHandle NEW_EXPANDER = App.constructor("BomExpander");
+    private static final MethodHandle SET_COMPOSITION = App.method("BomExpander", "setComposition",
+            int.class, Map.class);
+    private static final MethodHandle ATOMIC_VECTOR = App.method("BomExpander", "atomicVector", int.class);
+
+    private static final int ATOMIC_COUNT = 2000;
+    private static final int COMPOUNDS_PER_LEVEL = 300;
+
+    @Param({ "2", "4", "6" })
+    public int levels;
+
+    private final Map<Integer, Map<Integer, Double>> compositions = new LinkedHashMap<>();
+    private int[] topLevel;
+    private int[] bottomLevel;
+    private Object warm;
+    private int changes;
+
+    @Setup
+    public void setup() throws Throwable {
+        Random random = new Random(42);
+        int nextId = ATOMIC_COUNT;
+        int belowStart = 0;
+        int belowCount = ATOMIC_COUNT;
+        for (int level = 1; level <= levels; level++) {
+            int start = nextId;
+            for (int i = 0; i < COMPOUNDS_PER_LEVEL; i++) {
+                Map<Integer, Double> materials = new HashMap<>();
+                int materialCount = 3 + random.nextInt(6);
+                while (materials.size() < materialCount) {
+                    materials.put(belowStart + random.nextInt(belowCount), 1.0 + random.nextInt(20));
+                }
+                compositions.put(nextId++, materials);
+            }
+            if (level == 1) {
+                bottomLevel = range(start, nextId);
+            }
+            belowStart = start;
+            belowCount = COMPOUNDS_PER_LEVEL;
+        }
+        topLevel = range(belowStart, nextId);
+        warm = loaded();
+        expandAll(warm);
+    }
+
+    @Benchmark
+    public double naive() {
+        double sum = 0;
+        for (int id : topLevel) {
+            sum += naiveVector(id).size();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double cold() throws Throwable {
+        return expandAll(loaded());
+    }
+
+    @Benchmark
+    public double warm() throws Throwable {
+        return expandAll(warm);
+    }
+
+    @Benchmark
+    public double afterChange() throws Throwable {
+        int id = bottomLevel[changes++ % bottomLevel.length];
+        SET_COMPOSITION.invoke(warm, id, compositions.get(id));
+        return expandAll(warm);
+    }
+
+    private Object loaded() throws Throwable {
+        Object expander = NEW_EXPANDER.invoke();
+        for (Map.Entry<Integer, Map<Integer, Double>> composition : compositions.entrySet()) {
+            SET_COMPOSITION.invoke(expander, (int) composition.getKey(), composition.getValue());
+        }
+        return expander;
+    }
+
+    private double expandAll(Object expander) throws Throwable {
+        double sum = 0;
+        for (int id : topLevel) {
+            sum += ((Map<?, ?>) ATOMIC_VECTOR.invoke(expander, id)).size();
+        }
+        return sum;
+    }
+
+    private Map<Integer, Double> naiveVector(int id) {
+        Map<Integer, Double> materials = compositions.get(id);
+        if (materials == null) {
+            return Collections.singletonMap(id, 1.0);
+        }
+        double total = 0;
+        for (double quantity : materials.values()) {
+            total += quantity;
+        }
+        Map<Integer, Double> atomic = new HashMap<>();
+        for (Map.Entry<Integer, Double> material : materials.entrySet()) {
+            double weight = material.getValue() / total;
+            naiveVector(material.getKey()).forEach((atomicId, share) -> atomic.merge(atomicId, weight * share, Double::sum));
+        }
+        return atomic;
+    }
+
+    private static int[] range(int from, int to) {
+        int[] ids = new int[to - from];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = from + i;
+        }
+        return ids;
+    }
+}
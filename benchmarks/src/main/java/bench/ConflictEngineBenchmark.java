@@ -0,0 +1,83 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * in-memory ConflictEngine: 2000 do-not-combine pairs over 4000 ingredients, then every conflicting pair
+ * within an ingredient set. no database needed
+ *
+ * pairwise: one hash lookup per ingredient pair, the shape of the nested loop evaluate_health_risk used to run
+ * bitset: ConflictEngine, one and of the set mask with each member's row
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConflictEngineBenchmark {
+
+    private static final MethodHandle NEW_ENGINE = App.constructor("ConflictEngine");
+    private static final MethodHandle NEW_CONFLICT = App.constructor("ConflictEngine$Conflict",
+            int.class, String.class, int.class, String.class);
+    private static final MethodHandle SET_PAIRS = App.method("ConflictEngine", "setPairs", Collection.class);
+    private static final MethodHandle CONFLICTS = App.method("ConflictEngine", "conflicts", Collection.class);
+
+    private static final int INGREDIENTS = 4000;
+    private static final int PAIRS = 2000;
+
+    @Param({ "20", "100", "500" })
+    public int setSize;
+
+    private final Set<Long> pairKeys = new HashSet<>();
+    private List<Integer> ingredientSet;
+    private Object engine;
+
+    @Setup
+    public void setup() throws Throwable {
+        Random random = new Random(42);
+        List<Object> pairs = new ArrayList<>();
+        while (pairKeys.size() < PAIRS) {
+            int a = random.nextInt(INGREDIENTS);
+            int b = random.nextInt(INGREDIENTS);
+            if (a != b && pairKeys.add(key(Math.min(a, b), Math.max(a, b)))) {
+                pairs.add(NEW_CONFLICT.invoke(Math.min(a, b), "I" + Math.min(a, b), Math.max(a, b), "I" + Math.max(a, b)));
+            }
+        }
+        engine = NEW_ENGINE.invoke();
+        SET_PAIRS.invoke(engine, (Collection<?>) pairs);
+
+        Set<Integer> ingredients = new LinkedHashSet<>();
+        while (ingredients.size() < setSize) {
+            ingredients.add(random.nextInt(INGREDIENTS));
+        }
+        ingredientSet = new ArrayList<>(ingredients);
+    }
+
+    @Benchmark
+    public int pairwise() {
+        int found = 0;
+        for (int i = 0; i < ingredientSet.size(); i++) {
+            for (int j = i + 1; j < ingredientSet.size(); j++) {
+                int a = ingredientSet.get(i);
+                int b = ingredientSet.get(j);
+                if (pairKeys.contains(key(Math.min(a, b), Math.max(a, b)))) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int bitset() throws Throwable {
+        return ((List<?>) CONFLICTS.invoke(engine, (Collection<?>) ingredientSet)).size();
+    }
+
+    private static long key(int a, int b) {
+        return (long) a << 32 | b;
+    }
+}
@@ -0,0 +1,551 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * synthetic, referentially valid data for the food manufacturing schema at a configurable scale
+ *
+ * at scale 1: 10 manufacturers, 20 suppliers, 1000 ingredients (15% compound), 250 products with
+ * 1-3 recipe versions, 10000 product batches over the last year and about 100k consumption rows.
+ * everything grows linearly, scale 10 is about a million consumption rows and scale 100 ten million.
+ *
+ * production is simulated day by day, busier on weekdays and growing over the year. every batch
+ * uses the recipe version current on its production date and takes each ingredient FEFO from the
+ * open lots of that ingredient. when no lot has enough, a supplier delivers a new one, so intake
+ * follows demand, shelf lives are 90 days or more (check_90_day_minimum) with a long tail, and some
+ * stock expires unused. on_hand_oz ends up as quantity_oz minus what the batches consumed.
+ * a compound ingredient lot is made from the latest lot of each of its materials (LotLineage edges).
+ *
+ * generated ids start at ID_BASE (users at GMFG00001 / GSUP00001) so the rows sit next to INSERTS.sql.
+ * files are tab separated and bulk loaded with LOAD DATA LOCAL INFILE.
+ *
+ * java -cp benchmarks.jar bench.DatasetGenerator [scale] [seed]  loads into the BenchmarkDatabase
+ */
+final class DatasetGenerator {
+
+    static final int ID_BASE = 1_000_000;
+
+    private static final int MANUFACTURERS = 10;
+    private static final int SUPPLIERS = 20;
+    private static final int INGREDIENTS = 1000;
+    private static final int PRODUCTS = 250;
+    private static final int PRODUCT_BATCHES = 10_000;
+    private static final int CATEGORIES = 12;
+    private static final int HISTORY_DAYS = 365;
+
+    // table, file and column list in load order
+    private static final String[][] TABLES = {
+        { "User", "user_id, first_name, last_name, role_code" },
+        { "Manufacturer", "manufacturer_id, manufacturer_name" },
+        { "Supplier", "supplier_id, supplier_name" },
+        { "Category", "category_id, name" },
+        { "Ingredient", "ingredient_id, ingredient_name, ingredient_type" },
+        { "IngredientComposition", "parent_ingredient_id, child_ingredient_id, quantity" },
+        { "DoNotCombine", "ingredientA_id, ingredientB_id" },
+        { "SupplierFormulation", "formulation_id, supplier_id, ingredient_id, version_no, pack_size, price_per_unit, " +
+                                 "effective_period_start_date, effective_period_end_date" },
+        { "Product", "product_id, name, manufacturer_id, category_id, standard_batch_units" },
+        { "RecipePlan", "plan_id, product_id, manufacturer_id, version_no, creation_date, is_active" },
+        { "RecipeIngredient", "plan_id, ingredient_id, quantity" },
+        { "IngredientBatch", "batch_id, ingredient_id, supplier_id, lot_number, quantity_oz, on_hand_oz, unit_cost, " +
+                             "expiration_date, intake_date" },
+        // compound lot sources, the product edges come from record_lot_lineage while BatchConsumption loads
+        { "LotLineage", "input_lot_number, output_lot_number, output_type, edge_date" },
+        { "ProductBatch", "batch_id, product_id, manufacturer_id, lot_number, quantity, unit_cost, production_date, " +
+                          "expiration_date, plan_id" },
+        { "BatchConsumption", "product_lot_number, ingredient_lot_number, quantity_consumed, consumption_date" },
+    };
+
+    private final int scale;
+    private final SplittableRandom random;
+    private final LocalDate today;
+
+    // materials of each compound ingredient and the latest lot of every ingredient, for compound lot sources
+    private int[][] childrenOf;
+    private Lot[] latestLotOf;
+    private Tsv lineage;
+
+    // filled by writeFiles, parameters for the latency report
+    int busiestProductId;
+    int secondProductId;
+    String busiestManufacturerId;
+    String sampleSupplierId;
+    String latestProductLot;
+    String recallLotNumber;
+    LocalDate recallDate;
+    final Map<String, Long> rowCounts = new LinkedHashMap<>();
+
+    DatasetGenerator(int scale, long seed) {
+        this.scale = scale;
+        this.random = new SplittableRandom(seed);
+        this.today = LocalDate.now();
+    }
+
+    /**
+     * write one tab separated file per table into dir
+     */
+    void writeFiles(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        Map<String, Tsv> out = new HashMap<>();
+        for (String[] table : TABLES) {
+            out.put(table[0], new Tsv(dir.resolve(table[0] + ".tsv")));
+        }
+        try {
+            generate(out);
+        } finally {
+            for (String[] table : TABLES) {
+                Tsv tsv = out.get(table[0]);
+                tsv.close();
+                rowCounts.put(table[0], tsv.rows);
+            }
+        }
+    }
+
+    /**
+     * bulk load the files written by writeFiles, then build FlattenedBOM
+     * the BatchConsumption triggers set on_hand_oz and record the health risk violations row by row
+     */
+    void load(Connection conn, Path dir) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        try (Statement stmt = conn.createStatement()) {
+            // the data is consistent by construction, skip the per-row checks while loading
+            stmt.execute("SET foreign_key_checks = 0");
+            stmt.execute("SET unique_checks = 0");
+            // FlattenedBOM is rebuilt below in one call instead of once per recipe and composition row
+            stmt.execute("SET @bulk_bom = 1");
+            conn.setAutoCommit(false);
+            for (String[] table : TABLES) {
+                if (table[0].equals("BatchConsumption")) {
+                    // prevent_expired_consumption compares lots with NOW(), the history starts a year ago
+                    // and no lot was expired when it was first consumed
+                    stmt.execute("SET timestamp = UNIX_TIMESTAMP('" + today.minusDays(HISTORY_DAYS) + "')");
+                }
+                String file = dir.resolve(table[0] + ".tsv").toAbsolutePath().toString().replace('\\', '/');
+                stmt.execute("LOAD DATA LOCAL INFILE '" + file.replace("'", "''") + "' INTO TABLE " + table[0] +
+                             " CHARACTER SET utf8mb4 FIELDS TERMINATED BY '\\t' (" + table[1] + ")");
+                conn.commit();
+            }
+            stmt.execute("SET timestamp = DEFAULT");
+
+            stmt.execute("CALL refresh_flattened_bom(NULL, NULL)");
+            conn.commit();
+
+            stmt.execute("SET @bulk_bom = NULL");
+            stmt.execute("SET unique_checks = 1");
+            stmt.execute("SET foreign_key_checks = 1");
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    private void generate(Map<String, Tsv> out) throws IOException {
+        int manufacturers = MANUFACTURERS * scale;
+        int suppliers = SUPPLIERS * scale;
+        int ingredients = INGREDIENTS * scale;
+        int products = PRODUCTS * scale;
+        int start = (int) today.minusDays(HISTORY_DAYS).toEpochDay();
+        int end = (int) today.toEpochDay();
+
+        // users, manufacturers, suppliers
+        String[] manufacturerIds = new String[manufacturers];
+        for (int m = 0; m < manufacturers; m++) {
+            manufacturerIds[m] = String.format("GMFG%05d", m + 1);
+            out.get("User").row(manufacturerIds[m], "Gen", "Manufacturer " + (m + 1), "MANUFACTURER");
+            out.get("Manufacturer").row(manufacturerIds[m], "Generated Foods " + (m + 1));
+        }
+        String[] supplierIds = new String[suppliers];
+        for (int s = 0; s < suppliers; s++) {
+            supplierIds[s] = String.format("GSUP%05d", s + 1);
+            out.get("User").row(supplierIds[s], "Gen", "Supplier " + (s + 1), "SUPPLIER");
+            out.get("Supplier").row(supplierIds[s], "Generated Supply " + (s + 1));
+        }
+        sampleSupplierId = supplierIds[0];
+        for (int c = 0; c < CATEGORIES; c++) {
+            out.get("Category").row(ID_BASE + c, "Generated Category " + (c + 1));
+        }
+
+        // ingredients, the last 15% are compounds of earlier atomic ones
+        int atomicCount = ingredients - ingredients * 15 / 100;
+        int[] baseCostCents = new int[ingredients];
+        childrenOf = new int[ingredients][];
+        latestLotOf = new Lot[ingredients];
+        lineage = out.get("LotLineage");
+        String[][] suppliedBy = new String[ingredients][];
+        int formulationId = ID_BASE;
+        for (int i = 0; i < ingredients; i++) {
+            boolean atomic = i < atomicCount;
+            out.get("Ingredient").row(ID_BASE + i, "Gen Ingredient " + (i + 1), atomic ? "atomic" : "compound");
+            if (!atomic) {
+                int children = 2 + random.nextInt(4);
+                Set<Integer> picked = new HashSet<>();
+                while (picked.size() < children) {
+                    picked.add(random.nextInt(atomicCount));
+                }
+                childrenOf[i] = picked.stream().mapToInt(Integer::intValue).toArray();
+                for (int child : picked) {
+                    out.get("IngredientComposition").row(ID_BASE + i, ID_BASE + child, cents(10 + random.nextInt(990)));
+                }
+            }
+            baseCostCents[i] = 5 + random.nextInt(295);
+
+            // 1-3 suppliers per ingredient, each with a current formulation and sometimes an expired one
+            suppliedBy[i] = new String[1 + random.nextInt(3)];
+            for (int j = 0; j < suppliedBy[i].length; j++) {
+                suppliedBy[i][j] = supplierIds[(i * 7 + j * 13) % suppliers];
+                LocalDate since = today.minusDays(400 + random.nextInt(400));
+                int version = 1;
+                if (random.nextInt(3) == 0) {
+                    out.get("SupplierFormulation").row(formulationId++, suppliedBy[i][j], ID_BASE + i, version++,
+                            cents(1600), cents(baseCostCents[i] * 90L / 100 * 16), since.minusDays(365), since);
+                }
+                out.get("SupplierFormulation").row(formulationId++, suppliedBy[i][j], ID_BASE + i, version,
+                        cents(1600), cents(baseCostCents[i] * 16L), since, null);
+            }
+        }
+
+        // products and recipe versions, popular ingredients (low ids) show up in more recipes
+        Product[] catalog = new Product[products];
+        int planId = ID_BASE;
+        for (int p = 0; p < products; p++) {
+            Product product = new Product(ID_BASE + p, manufacturerIds[p % manufacturers],
+                                          50 * (1 + random.nextInt(10)));
+            catalog[p] = product;
+            out.get("Product").row(product.productId, "Gen Product " + (p + 1), product.manufacturerId,
+                                   ID_BASE + random.nextInt(CATEGORIES), product.standardBatchUnits);
+
+            int versions = 1 + random.nextInt(3);
+            int created = start - random.nextInt(200);
+            int[] ingredientsOf = null;
+            int[] quantitiesOf = null;
+            for (int v = 1; v <= versions; v++) {
+                if (ingredientsOf == null) {
+                    Set<Integer> picked = new LinkedHashSet<>();
+                    int size = 5 + random.nextInt(11);
+                    while (picked.size() < size) {
+                        picked.add((int) (ingredients * Math.pow(random.nextDouble(), 2)));
+                    }
+                    ingredientsOf = picked.stream().mapToInt(Integer::intValue).toArray();
+                    quantitiesOf = new int[ingredientsOf.length];
+                    for (int k = 0; k < quantitiesOf.length; k++) {
+                        quantitiesOf[k] = 5 + random.nextInt(196);
+                    }
+                } else {
+                    // next version: one ingredient replaced, quantities nudged
+                    ingredientsOf = ingredientsOf.clone();
+                    quantitiesOf = quantitiesOf.clone();
+                    int replaced = random.nextInt(ingredientsOf.length);
+                    int candidate = random.nextInt(ingredients);
+                    if (Arrays.stream(ingredientsOf).noneMatch(id -> id == candidate)) {
+                        ingredientsOf[replaced] = candidate;
+                    }
+                    for (int k = 0; k < quantitiesOf.length; k++) {
+                        quantitiesOf[k] = Math.max(1, quantitiesOf[k] + random.nextInt(21) - 10);
+                    }
+                    created = Math.min(end - 1, created + 30 + random.nextInt(150));
+                }
+                Plan plan = new Plan(planId++, created, ingredientsOf, quantitiesOf);
+                product.plans.add(plan);
+                out.get("RecipePlan").row(plan.planId, product.productId, product.manufacturerId, v,
+                                          LocalDate.ofEpochDay(created), v == versions ? 1 : 0);
+                for (int k = 0; k < ingredientsOf.length; k++) {
+                    out.get("RecipeIngredient").row(plan.planId, ID_BASE + ingredientsOf[k], cents(quantitiesOf[k]));
+                }
+            }
+        }
+
+        // do-not-combine pairs, half of them between ingredients that share a recipe so violations happen
+        Set<Long> pairs = new HashSet<>();
+        int pairCount = Math.max(1, ingredients / 50);
+        while (pairs.size() < pairCount) {
+            int a;
+            int b;
+            if (pairs.size() % 2 == 0) {
+                int[] recipe = catalog[random.nextInt(products)].plans.get(0).ingredients;
+                a = recipe[random.nextInt(recipe.length)];
+                b = recipe[random.nextInt(recipe.length)];
+            } else {
+                a = random.nextInt(ingredients);
+                b = random.nextInt(ingredients);
+            }
+            if (a != b && pairs.add((long) Math.min(a, b) << 32 | Math.max(a, b))) {
+                out.get("DoNotCombine").row(ID_BASE + Math.min(a, b), ID_BASE + Math.max(a, b));
+            }
+        }
+
+        // opening stock, delivered before the simulated year, some of it expires unused
+        List<List<Lot>> open = new ArrayList<>(ingredients);
+        List<Lot> allLots = new ArrayList<>();
+        for (int i = 0; i < ingredients; i++) {
+            open.add(new ArrayList<>());
+            for (int k = random.nextInt(3); k > 0; k--) {
+                Lot lot = deliver(i, start - random.nextInt(60), 50_000 + random.nextInt(200_000),
+                                  suppliedBy, baseCostCents, allLots);
+                open.get(i).add(lot);
+            }
+        }
+
+        // production, day by day
+        double perDay = (double) PRODUCT_BATCHES * scale / HISTORY_DAYS;
+        int[] batchesOf = new int[products];
+        long productBatchSeq = 0;
+        for (int day = start + 1; day <= end; day++) {
+            LocalDate date = LocalDate.ofEpochDay(day);
+            boolean weekend = date.getDayOfWeek() == DayOfWeek.SATURDAY || date.getDayOfWeek() == DayOfWeek.SUNDAY;
+            // volume grows from 0.6x to 1.4x over the year, weekends run at a third
+            double expected = perDay * (0.6 + 0.8 * (day - start) / HISTORY_DAYS) * (weekend ? 0.33 : 1.13);
+            int batches = (int) expected + (random.nextDouble() < expected - (int) expected ? 1 : 0);
+
+            for (int n = 0; n < batches; n++) {
+                int p = (int) (products * Math.pow(random.nextDouble(), 1.5));
+                Product product = catalog[p];
+                Plan plan = product.planOn(day);
+                if (plan == null) {
+                    continue;
+                }
+                batchesOf[p]++;
+                int units = Math.max(10, product.standardBatchUnits + 10 * (random.nextInt(11) - 5));
+                String batchId = "G" + (++productBatchSeq);
+                String productLot = product.productId + "-" + product.manufacturerId + "-" + batchId;
+                long cost = 0; // hundredths of an oz times cents per oz
+
+                for (int k = 0; k < plan.ingredients.length; k++) {
+                    int ingredient = plan.ingredients[k];
+                    long need = (long) plan.quantities[k] * units;
+                    Lot lot = fefo(open.get(ingredient), day, need);
+                    if (lot == null) {
+                        // restock: delivered in the last two weeks, enough for several batches
+                        lot = deliver(ingredient, day - random.nextInt(14),
+                                      Math.max(need * (4 + random.nextInt(16)), 50_000),
+                                      suppliedBy, baseCostCents, allLots);
+                        open.get(ingredient).add(lot);
+                    }
+                    lot.remaining -= need;
+                    lot.uses++;
+                    if (lot.firstUse == 0) {
+                        lot.firstUse = day;
+                    }
+                    cost += need * lot.unitCostCents;
+                    out.get("BatchConsumption").row(productLot, lot.lotNumber(), cents(need), date);
+                }
+
+                // unit cost = ingredient cost / units, like record_production_batch
+                long unitCostCents = Math.round(cost / 100.0 / units);
+                out.get("ProductBatch").row(batchId, product.productId, product.manufacturerId, productLot, units,
+                        cents(unitCostCents), date, date.plusDays(30 + random.nextInt(335)), plan.planId);
+                latestProductLot = productLot;
+            }
+        }
+
+        // slow movers: stock that arrived long ago and expires in the next days, never touched
+        for (int i = 0; i < ingredients; i += 1 + random.nextInt(20)) {
+            int expiration = end + 1 + random.nextInt(10);
+            int intake = expiration - 90 - random.nextInt(60);
+            Lot lot = new Lot(i, suppliedBy[i][random.nextInt(suppliedBy[i].length)], "G" + (allLots.size() + 1),
+                              10_000 + random.nextInt(40_000), lotCost(baseCostCents[i]), intake, expiration);
+            allLots.add(lot);
+        }
+
+        Lot recall = null;
+        for (Lot lot : allLots) {
+            out.get("IngredientBatch").row(lot.batchId, ID_BASE + lot.ingredient, lot.supplierId, lot.lotNumber(),
+                    cents(lot.quantity), cents(lot.quantity), cents(lot.unitCostCents),
+                    LocalDate.ofEpochDay(lot.expiration), LocalDate.ofEpochDay(lot.intake));
+            if (recall == null || lot.uses > recall.uses) {
+                recall = lot;
+            }
+        }
+        recallLotNumber = recall.lotNumber();
+        recallDate = LocalDate.ofEpochDay(recall.firstUse != 0 ? recall.firstUse : end);
+
+        int busiest = 0;
+        int second = 1;
+        for (int p = 0; p < products; p++) {
+            if (batchesOf[p] > batchesOf[busiest]) {
+                second = busiest;
+                busiest = p;
+            } else if (p != busiest && batchesOf[p] > batchesOf[second]) {
+                second = p;
+            }
+        }
+        busiestProductId = catalog[busiest].productId;
+        secondProductId = catalog[second].productId;
+        busiestManufacturerId = catalog[busiest].manufacturerId;
+    }
+
+    /**
+     * earliest-expiring open lot usable on day with at least need left, used up and expired lots are dropped
+     */
+    private static Lot fefo(List<Lot> lots, int day, long need) {
+        Lot best = null;
+        for (Iterator<Lot> it = lots.iterator(); it.hasNext(); ) {
+            Lot lot = it.next();
+            if (lot.expiration <= day || lot.remaining < 100) {
+                it.remove();
+            } else if (lot.intake <= day && lot.remaining >= need
+                       && (best == null || lot.expiration < best.expiration)) {
+                best = lot;
+            }
+        }
+        return best;
+    }
+
+    private Lot deliver(int ingredient, int intake, long quantity, String[][] suppliedBy,
+                        int[] baseCostCents, List<Lot> allLots) throws IOException {
+        // shelf life of at least 90 days, most between four and eight months with a tail past a year
+        int shelfLife = 90 + (int) Math.min(600, Math.exp(4.5 + 0.6 * random.nextGaussian()));
+        String supplier = suppliedBy[ingredient][random.nextInt(suppliedBy[ingredient].length)];
+        Lot lot = new Lot(ingredient, supplier, "G" + (allLots.size() + 1), quantity,
+                          lotCost(baseCostCents[ingredient]), intake, intake + shelfLife);
+        allLots.add(lot);
+
+        // a compound lot is made from the latest lot of each of its materials
+        if (childrenOf[ingredient] != null) {
+            for (int child : childrenOf[ingredient]) {
+                Lot source = latestLotOf[child];
+                if (source != null) {
+                    lineage.row(source.lotNumber(), lot.lotNumber(), "ingredient", LocalDate.ofEpochDay(intake));
+                }
+            }
+        }
+        latestLotOf[ingredient] = lot;
+        return lot;
+    }
+
+    // price per oz varies +-20% between lots
+    private int lotCost(int baseCents) {
+        return Math.max(1, baseCents * (80 + random.nextInt(41)) / 100);
+    }
+
+    // quantities and prices are DECIMAL(10, 2), kept as hundredths so sums are exact
+    private static String cents(long hundredths) {
+        return String.format("%d.%02d", hundredths / 100, hundredths % 100);
+    }
+
+    private static final class Product {
+        final int productId;
+        final String manufacturerId;
+        final int standardBatchUnits;
+        final List<Plan> plans = new ArrayList<>();
+
+        Product(int productId, String manufacturerId, int standardBatchUnits) {
+            this.productId = productId;
+            this.manufacturerId = manufacturerId;
+            this.standardBatchUnits = standardBatchUnits;
+        }
+
+        // the latest version created on or before day
+        Plan planOn(int day) {
+            Plan current = null;
+            for (Plan plan : plans) {
+                if (plan.created <= day) {
+                    current = plan;
+                }
+            }
+            return current;
+        }
+    }
+
+    private static final class Plan {
+        final int planId;
+        final int created;
+        final int[] ingredients;
+        final int[] quantities; // oz per unit in hundredths
+
+        Plan(int planId, int created, int[] ingredients, int[] quantities) {
+            this.planId = planId;
+            this.created = created;
+            this.ingredients = ingredients;
+            this.quantities = quantities;
+        }
+    }
+
+    private static final class Lot {
+        final int ingredient;
+        final String supplierId;
+        final String batchId;
+        final long quantity; // hundredths of an oz
+        final int unitCostCents;
+        final int intake; // epoch days
+        final int expiration;
+        long remaining;
+        int uses;
+        int firstUse;
+
+        Lot(int ingredient, String supplierId, String batchId, long quantity, int unitCostCents,
+            int intake, int expiration) {
+            this.ingredient = ingredient;
+            this.supplierId = supplierId;
+            this.batchId = batchId;
+            this.quantity = quantity;
+            this.remaining = quantity;
+            this.unitCostCents = unitCostCents;
+            this.intake = intake;
+            this.expiration = expiration;
+        }
+
+        // same format as the generate_ingredient_lot_number trigger
+        String lotNumber() {
+            return (ID_BASE + ingredient) + "-" + supplierId + "-" + batchId;
+        }
+    }
+
+    /**
+     * tab separated rows in the LOAD DATA default format, null as \N
+     */
+    private static final class Tsv implements AutoCloseable {
+        private final BufferedWriter writer;
+        long rows;
+
+        Tsv(Path file) throws IOException {
+            writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        }
+
+        void row(Object... values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    writer.write('\t');
+                }
+                writer.write(values[i] == null ? "\\N" : values[i].toString());
+            }
+            writer.write('\n');
+            rows++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int scale = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+        BenchmarkDatabase.start();
+        try {
+            DatasetGenerator generator = new DatasetGenerator(scale, seed);
+            Path dir = Files.createTempDirectory("dataset-" + scale + "x-");
+            long started = System.nanoTime();
+            generator.writeFiles(dir);
+            long written = System.nanoTime();
+            try (Connection conn = BenchmarkDatabase.connectForLoading()) {
+                generator.load(conn, dir);
+            }
+            long loaded = System.nanoTime();
+            System.out.printf("scale %dx: generated in %.1f s, loaded in %.1f s (%s)%n", scale,
+                    (written - started) / 1e9, (loaded - written) / 1e9, dir);
+            generator.rowCounts.forEach((table, rows) -> System.out.printf("  %-22s %,12d%n", table, rows));
+        } finally {
+            BenchmarkDatabase.stop();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * in-memory FefoAllocator: load the candidate lots of one ingredient, then allocate a requirement
+ * that has to be split across about a tenth of them. no database needed
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FefoAllocatorBenchmark {
+
+    private static final MethodHandle ADD_LOT = App.method("FefoAllocator", "addLot",
+            int.class, String.class, String.class, LocalDate.class, double.class);
+    private static final MethodHandle ALLOCATE = App.method("FefoAllocator", "allocate", int.class, double.class);
+    private static final MethodHandle NEW_ALLOCATOR = App.constructor("FefoAllocator");
+
+    @Param({ "100", "1000", "5000" })
+    public int lotCount;
+
+    private String[] lotNumbers;
+    private String[] batchIds;
+    private LocalDate[] expirations;
+    private double[] onHand;
+    private double required;
+
+    @Setup
+    public void setup() {
+        // random expiration dates over the next year, 50 to 500 oz per lot
+        Random random = new Random(42);
+        LocalDate today = LocalDate.now();
+        lotNumbers = new String[lotCount];
+        batchIds = new String[lotCount];
+        expirations = new LocalDate[lotCount];
+        onHand = new double[lotCount];
+        double total = 0;
+        for (int i = 0; i < lotCount; i++) {
+            batchIds[i] = String.format("B%06d", i);
+            lotNumbers[i] = "101-SUP020-" + batchIds[i];
+            expirations[i] = today.plusDays(1 + random.nextInt(365));
+            onHand[i] = 50 + random.nextInt(451);
+            total += onHand[i];
+        }
+        required = total / 10;
+    }
+
+    @Benchmark
+    public Object loadAndAllocate() throws Throwable {
+        Object allocator = NEW_ALLOCATOR.invoke();
+        for (int i = 0; i < lotCount; i++) {
+            ADD_LOT.invoke(allocator, 101, lotNumbers[i], batchIds[i], expirations[i], onHand[i]);
+        }
+        return ALLOCATE.invoke(allocator, 101, required);
+    }
+}
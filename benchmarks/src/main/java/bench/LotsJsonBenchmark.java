@@ -0,0 +1,42 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * ProductionService.buildLotsJSON, the JSON handed to record_production_batch
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LotsJsonBenchmark {
+
+    private static final MethodHandle NEW_LOT = App.constructor("IngredientLot", String.class, double.class);
+    private static final MethodHandle BUILD_LOTS_JSON = App.method("ProductionService", "buildLotsJSON", List.class);
+
+    @Param({ "2", "20", "200" })
+    public int lotCount;
+
+    private Object service;
+    private List<Object> lots;
+
+    @Setup
+    public void setup() throws Throwable {
+        service = App.newInstance("ProductionService");
+        lots = new ArrayList<>();
+        for (int i = 0; i < lotCount; i++) {
+            lots.add(NEW_LOT.invoke("1" + i + "-SUP020-B" + (1000 + i), 12.5 * (i + 1)));
+        }
+    }
+
+    @Benchmark
+    public Object buildLotsJSON() throws Throwable {
+        return BUILD_LOTS_JSON.invoke(service, lots);
+    }
+}
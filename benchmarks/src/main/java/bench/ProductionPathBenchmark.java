@@ -0,0 +1,140 @@
+package bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * database side of product batch creation, against the BenchmarkDatabase
+ *
+ * requiredIngredients  RecipeIngredient lookup + scaling (ProductionService.getRequiredIngredients)
+ * fefoPerIngredient    the old selection loop, 1 + ingredientCount round trips
+ * fefoPlanQuery        selectPlanLotsWithFEFO, 1 round trip for the whole plan plus the do-not-combine
+ *                      check (fingerprint queries only while DoNotCombine and IngredientComposition are unchanged)
+ * recordProductionBatch  ProductionService.recordProductionBatch, pool borrow + record_production_batch call
+ *                        with one lot per ingredient
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductionPathBenchmark {
+
+    private static final MethodHandle GET_CONNECTION = App.method("DBConnect", "getConnection");
+    private static final MethodHandle REQUIRED_INGREDIENTS = App.method("ProductionService", "getRequiredIngredients",
+            Connection.class, int.class, int.class);
+    private static final MethodHandle SELECT_LOTS = App.method("ProductionService", "selectLotsWithFEFO",
+            Connection.class, int.class, double.class);
+    private static final MethodHandle SELECT_PLAN_LOTS = App.method("ProductionService", "selectPlanLotsWithFEFO",
+            Connection.class, int.class, int.class);
+    private static final MethodHandle RECORD_PRODUCTION_BATCH = App.method("ProductionService", "recordProductionBatch",
+            int.class, String.class, int.class, String.class, String.class, int.class, String.class);
+
+    private static final int BATCH_QUANTITY = 100;
+
+    @Param({ "5", "20", "50" })
+    public int ingredientCount;
+
+    @Param({ "20" })
+    public int lotsPerIngredient;
+
+    private BenchmarkFixture fixture;
+    private Object service;
+    private Connection conn;
+    private String lotsJson;
+    private String expirationDate;
+    private final AtomicLong batchCounter = new AtomicLong();
+    // batch ids stay unique across runs against the same external database
+    private final String batchPrefix = "J" + Long.toString(System.currentTimeMillis(), 36) + "-";
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        BenchmarkDatabase.start();
+        fixture = BenchmarkFixture.create(ingredientCount, lotsPerIngredient);
+        service = App.newInstance("ProductionService");
+        conn = (Connection) GET_CONNECTION.invoke();
+
+        // one lot per ingredient, first lot of each
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < ingredientCount; i++) {
+            if (i > 0) {
+                json.append(", ");
+            }
+            json.append("{\"lot_number\": \"").append(fixture.lotNumbers.get(i * lotsPerIngredient))
+                .append("\", \"quantity\": 0.5}");
+        }
+        lotsJson = json.append("]").toString();
+        expirationDate = LocalDate.now().plusDays(30).toString();
+
+        System.out.println("\nplan " + fixture.planId + ": per-ingredient FEFO = " + (1 + ingredientCount) +
+                " round trips, plan query = 1 round trip");
+
+        // the services print every step, keep the measurement quiet
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        // recordProductionBatch reports errors instead of throwing, make sure the call path really works
+        long before = productBatchCount();
+        recordProductionBatch();
+        if (productBatchCount() != before + 1) {
+            throw new IllegalStateException("record_production_batch did not create a batch, check stderr");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        System.setOut(console);
+        conn.close();
+        BenchmarkDatabase.stop();
+    }
+
+    @Benchmark
+    public Object requiredIngredients() throws Throwable {
+        return REQUIRED_INGREDIENTS.invoke(service, conn, fixture.planId, BATCH_QUANTITY);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public int fefoPerIngredient() throws Throwable {
+        int selected = 0;
+        Map<Integer, Double> required = (Map<Integer, Double>) REQUIRED_INGREDIENTS.invoke(
+                service, conn, fixture.planId, BATCH_QUANTITY);
+        for (Map.Entry<Integer, Double> entry : required.entrySet()) {
+            selected += ((List<?>) SELECT_LOTS.invoke(service, conn, (int) entry.getKey(), (double) entry.getValue())).size();
+        }
+        return selected;
+    }
+
+    @Benchmark
+    public Object fefoPlanQuery() throws Throwable {
+        return SELECT_PLAN_LOTS.invoke(service, conn, fixture.planId, BATCH_QUANTITY);
+    }
+
+    @Benchmark
+    public void recordProductionBatch() throws Throwable {
+        String batchId = batchPrefix + batchCounter.incrementAndGet();
+        RECORD_PRODUCTION_BATCH.invoke(service, fixture.productId, BenchmarkFixture.MANUFACTURER, BATCH_QUANTITY,
+                expirationDate, lotsJson, fixture.planId, batchId);
+    }
+
+    private long productBatchCount() throws Exception {
+        try (Connection plain = BenchmarkDatabase.connect();
+             Statement stmt = plain.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM ProductBatch")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * latency of every report and QueryMenu query at growing data sizes
+ *
+ * for each scale the database is reset from the scripts, DatasetGenerator adds its rows and every
+ * report is run through the application code (services and menus, output discarded), once to warm
+ * up and then --runs times. the result is a markdown table of median and max milliseconds per scale.
+ * a report that prints an error or runs into --timeout is marked as failed instead of timed.
+ *
+ * java -cp benchmarks/target/benchmarks.jar bench.ReportLatency [--scales 1,10,100] [--runs 5]
+ *      [--seed 42] [--timeout 300] [--out report-latency.md]
+ */
+public final class ReportLatency {
+
+    private static final MethodHandle NEW_QUERY_MENU = App.constructor("QueryMenu", Scanner.class);
+    private static final MethodHandle NEW_VIEWER_MENU = App.constructor("ViewerMenu", Scanner.class);
+
+    private final List<Integer> scales = new ArrayList<>(List.of(1, 10, 100));
+    private int runs = 5;
+    private long seed = 42;
+    private int timeoutSec = 300;
+    private Path outFile;
+
+    // report name -> scale -> result cell
+    private final Map<String, Map<Integer, String>> results = new LinkedHashMap<>();
+    private final Map<Integer, DatasetGenerator> datasets = new LinkedHashMap<>();
+
+    private ReportLatency() {
+    }
+
+    public static void main(String[] args) throws Throwable {
+        ReportLatency report = new ReportLatency();
+        report.parse(args);
+        report.run();
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : "";
+            switch (args[i]) {
+                case "--scales":
+                    scales.clear();
+                    Stream.of(value.split(",")).map(String::trim).map(Integer::valueOf).forEach(scales::add);
+                    i++;
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(value);
+                    i++;
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    i++;
+                    break;
+                case "--timeout":
+                    timeoutSec = Integer.parseInt(value);
+                    i++;
+                    break;
+                case "--out":
+                    outFile = Paths.get(value);
+                    i++;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i] +
+                            ", expected --scales, --runs, --seed, --timeout or --out");
+            }
+        }
+    }
+
+    private void run() throws Throwable {
+        BenchmarkDatabase.start();
+        // every statement of the app gets the time limit, a runaway report fails instead of hanging the run
+        String url = BenchmarkDatabase.url();
+        System.setProperty("db.url", url + (url.contains("?") ? "&" : "?") +
+                                     "sessionVariables=max_statement_time=" + timeoutSec);
+        // a slow report is not a leaked connection
+        System.setProperty("db.pool.leakThresholdMs",
+                           System.getProperty("db.pool.leakThresholdMs", Long.toString(2000L * timeoutSec)));
+        try {
+            for (int scale : scales) {
+                loadScale(scale);
+                measure(scale);
+            }
+        } finally {
+            BenchmarkDatabase.stop();
+        }
+
+        String table = table();
+        System.out.println();
+        System.out.println(table);
+        if (outFile != null) {
+            Files.writeString(outFile, table);
+            System.out.println("written to " + outFile.toAbsolutePath());
+        }
+    }
+
+    private void loadScale(int scale) throws Exception {
+        System.out.println("scale " + scale + "x: resetting schema");
+        BenchmarkDatabase.loadScripts();
+
+        DatasetGenerator generator = new DatasetGenerator(scale, seed);
+        Path dir = Files.createTempDirectory("dataset-" + scale + "x-");
+        try {
+            long started = System.nanoTime();
+            generator.writeFiles(dir);
+            long written = System.nanoTime();
+            try (Connection conn = BenchmarkDatabase.connectForLoading();
+                 Statement stmt = conn.createStatement()) {
+                generator.load(conn, dir);
+                stmt.execute("ANALYZE TABLE IngredientBatch, ProductBatch, BatchConsumption, RecipePlan, " +
+                             "RecipeIngredient, IngredientComposition, Ingredient, Product, DoNotCombine, LotLineage, " +
+                             "FlattenedBOM, HealthRiskViolation, ProductCatalog, IngredientOnHand");
+            }
+            long loaded = System.nanoTime();
+            System.out.printf("scale %dx: generated in %.1f s, loaded in %.1f s, %,d consumption rows%n", scale,
+                    (written - started) / 1e9, (loaded - written) / 1e9, generator.rowCounts.get("BatchConsumption"));
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+        datasets.put(scale, generator);
+    }
+
+    private void measure(int scale) throws Throwable {
+        DatasetGenerator data = datasets.get(scale);
+        Object production = App.newInstance("ProductionService");
+        Object ingredients = App.newInstance("IngredientService");
+        Object products = App.newInstance("ProductService");
+        Object recipes = App.newInstance("RecipeService");
+        Object queries = NEW_QUERY_MENU.invoke(new Scanner(""));
+        String product1 = Integer.toString(data.busiestProductId);
+        String product2 = Integer.toString(data.secondProductId);
+
+        // reports of the manufacturer menu
+        time(scale, "On-hand inventory", () -> call(production, "viewOnHandInventory"));
+        time(scale, "Nearly out-of-stock", () -> call(production, "viewNearlyOutOfStock"));
+        time(scale, "Almost expired", () -> call(production, "viewAlmostExpired"));
+        time(scale, "Batch cost summary", () -> call(production, "viewBatchCostSummary", data.latestProductLot));
+        time(scale, "Health risk violations (30 days)", () -> call(production, "viewHealthRiskViolations"));
+        time(scale, "Trace recall (20 day window)",
+             () -> call(production, "traceRecall", data.recallLotNumber, data.recallDate.toString(), 20));
+        time(scale, "Trace lot sources", () -> call(production, "traceLotSources", data.latestProductLot));
+        time(scale, "Products of a manufacturer", () -> call(products, "viewProductsByManufacturer",
+                                                              data.busiestManufacturerId));
+        time(scale, "Recipe plans of a product", () -> call(recipes, "viewRecipePlans",
+                                                             data.busiestProductId, data.busiestManufacturerId));
+        // supplier menu
+        time(scale, "All ingredients", () -> call(ingredients, "viewAllIngredients"));
+        time(scale, "Supplier formulations", () -> call(ingredients, "viewSupplierFormulations", data.sampleSupplierId));
+        time(scale, "Do-not-combine list", () -> call(ingredients, "viewDoNotCombine"));
+        // viewer menu, the menus read filters, "more products?" answers and product ids from their scanner,
+        // every scale has more than one page of products
+        time(scale, "Viewer: browse products",
+             () -> call(NEW_VIEWER_MENU.invoke(new Scanner("\n\nn\n")), "browseProducts"));
+        time(scale, "Viewer: ingredient list (flattened BOM)",
+             () -> call(NEW_VIEWER_MENU.invoke(new Scanner("n\n" + product1 + "\n")), "generateIngredientList"));
+        time(scale, "Viewer: compare two products",
+             () -> call(NEW_VIEWER_MENU.invoke(new Scanner("n\n" + product1 + "\n" + product2 + "\n")), "compareProducts"));
+        // query menu
+        for (int q = 1; q <= 5; q++) {
+            String method = "executeQuery" + q;
+            time(scale, "QueryMenu " + q, () -> call(queries, method));
+        }
+    }
+
+    private void time(int scale, String name, Report report) throws Throwable {
+        PrintStream console = System.out;
+        PrintStream errors = System.err;
+        ByteArrayOutputStream errorText = new ByteArrayOutputStream();
+        long[] millis = new long[runs];
+        try {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            System.setErr(new PrintStream(errorText, true));
+            for (int i = -1; i < runs; i++) {
+                long started = System.nanoTime();
+                report.run();
+                if (i >= 0) {
+                    millis[i] = (System.nanoTime() - started) / 1_000_000;
+                }
+                if (error(errorText) != null) {
+                    break;
+                }
+            }
+        } finally {
+            System.setOut(console);
+            System.setErr(errors);
+        }
+
+        String cell;
+        String message = error(errorText);
+        if (message != null) {
+            cell = message.contains("max_statement_time") || message.contains("interrupted")
+                   ? "timeout (> " + timeoutSec + " s)" : "failed";
+            System.out.println("  " + name + ": " + message);
+        } else {
+            Arrays.sort(millis);
+            cell = millis[runs / 2] + " (" + millis[runs - 1] + ")";
+        }
+        System.out.printf("  %-42s %s ms%n", name, cell);
+        results.computeIfAbsent(name, n -> new LinkedHashMap<>()).put(scale, cell);
+    }
+
+    // the services print "Error ...: message" and carry on
+    private static String error(ByteArrayOutputStream errorText) {
+        return errorText.toString().lines().filter(line -> line.startsWith("Error")).findFirst().orElse(null);
+    }
+
+    private static void call(Object target, String method, Object... args) throws Throwable {
+        Class<?>[] types = new Class<?>[args.length];
+        for (int i = 0; i < args.length; i++) {
+            types[i] = args[i] instanceof Integer ? int.class : args[i].getClass();
+        }
+        MethodHandle handle = App.method(target.getClass().getName(), method, types);
+        Object[] receiverAndArgs = new Object[args.length + 1];
+        receiverAndArgs[0] = target;
+        System.arraycopy(args, 0, receiverAndArgs, 1, args.length);
+        handle.invokeWithArguments(receiverAndArgs);
+    }
+
+    private String table() {
+        StringBuilder md = new StringBuilder("| report | ");
+        StringBuilder rule = new StringBuilder("|---|");
+        for (int scale : scales) {
+            DatasetGenerator data = datasets.get(scale);
+            md.append(scale).append("x (").append(String.format("%,d", data.rowCounts.get("BatchConsumption")))
+              .append(" consumption rows) | ");
+            rule.append("---:|");
+        }
+        md.append('\n').append(rule).append('\n');
+        results.forEach((name, byScale) -> {
+            md.append("| ").append(name).append(" | ");
+            for (int scale : scales) {
+                md.append(byScale.getOrDefault(scale, "")).append(" | ");
+            }
+            md.append('\n');
+        });
+        md.append("\nmilliseconds, median (max) of ").append(runs).append(" runs after one warm-up run\n");
+        return md.toString();
+    }
+
+    private interface Report {
+        void run() throws Throwable;
+    }
+}
@@ -0,0 +1,131 @@
+package bench;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * on-hand inventory report over IngredientBatch with rows extra lots, rendered to a null stream
+ *
+ * fetchSize 0: the driver buffers the whole result before the first row is rendered, like the report used to
+ * fetchSize 1000: rows are streamed and rendered through ReportWriter as they arrive
+ *
+ * heapAfterGcMb is the largest heap left after any collection during the run, the memory the report holds on
+ * to. jmh sums it over the iterations, the (min, avg, max) line has one run. streamed it stays flat from 100k to
+ * 1M rows (about 17 MB), buffered it grows with the table (about 250 MB at 1M). the extra rows are STREAM-n
+ * batches added in setup and removed again in teardown. the inventory snapshot is turned off with
+ * -Dinventory.snapshot.maxLots=0, below that cap the report is served from the snapshot and neither path is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g", "-Dinventory.snapshot.maxLots=0" })
+public class ReportStreamingBenchmark {
+
+    private static final MethodHandle NEW_SERVICE = App.constructor("ProductionService");
+    private static final MethodHandle ON_HAND = App.method("ProductionService", "viewOnHandInventory",
+            OutputStream.class);
+
+    @Param({ "100000", "1000000" })
+    public int rows;
+
+    @Param({ "0", "1000" })
+    public int fetchSize;
+
+    private Object service;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        BenchmarkDatabase.start();
+        // read by InventoryRepository when it is initialized, in the first invocation
+        System.setProperty("report.fetchSize", Integer.toString(fetchSize));
+        try (Connection conn = BenchmarkDatabase.connect();
+             Statement stmt = conn.createStatement()) {
+            removeStreamRows(stmt);
+            if (rows > 0) {
+                // batch n goes to the n-th ingredient and supplier in turn, expiring 90 to 789 days out
+                stmt.executeUpdate(
+                        "INSERT INTO IngredientBatch (batch_id, ingredient_id, supplier_id, quantity_oz, on_hand_oz, " +
+                        "unit_cost, expiration_date) " +
+                        "WITH i AS (SELECT ingredient_id, ROW_NUMBER() OVER (ORDER BY ingredient_id) - 1 AS n " +
+                        "           FROM Ingredient), " +
+                        "     s AS (SELECT supplier_id, ROW_NUMBER() OVER (ORDER BY supplier_id) - 1 AS n " +
+                        "           FROM Supplier) " +
+                        "SELECT CONCAT('STREAM-', seq.seq), i.ingredient_id, s.supplier_id, 100 + seq.seq % 900, " +
+                        "       100 + seq.seq % 900, 1 + seq.seq % 20, DATE_ADD(CURDATE(), INTERVAL 90 + seq.seq % 700 DAY) " +
+                        "FROM seq_1_to_" + rows + " seq " +
+                        "JOIN i ON i.n = seq.seq % (SELECT COUNT(*) FROM Ingredient) " +
+                        "JOIN s ON s.n = seq.seq % (SELECT COUNT(*) FROM Supplier)");
+                stmt.execute("ANALYZE TABLE IngredientBatch");
+            }
+        }
+        service = NEW_SERVICE.invoke();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        try (Connection conn = BenchmarkDatabase.connect();
+             Statement stmt = conn.createStatement()) {
+            removeStreamRows(stmt);
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Heap {
+        public double heapAfterGcMb;
+
+        private volatile long maxAfterGc;
+        private NotificationListener listener;
+
+        @Setup(Level.Invocation)
+        public void start() {
+            System.gc();
+            maxAfterGc = 0;
+            listener = (notification, handback) -> {
+                if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                    GarbageCollectionNotificationInfo info =
+                            GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                    long used = 0;
+                    for (MemoryUsage pool : info.getGcInfo().getMemoryUsageAfterGc().values()) {
+                        used += pool.getUsed();
+                    }
+                    maxAfterGc = Math.max(maxAfterGc, used);
+                }
+            };
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                ((NotificationEmitter) gc).addNotificationListener(listener, null, null);
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void stop() throws Exception {
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                ((NotificationEmitter) gc).removeNotificationListener(listener);
+            }
+            heapAfterGcMb = maxAfterGc / (1024.0 * 1024.0);
+        }
+    }
+
+    @Benchmark
+    public void onHandReport(Heap heap) throws Throwable {
+        ON_HAND.invoke(service, OutputStream.nullOutputStream());
+    }
+
+    private static void removeStreamRows(Statement stmt) throws SQLException {
+        stmt.executeUpdate("DELETE FROM IngredientBatch WHERE batch_id LIKE 'STREAM-%'");
+    }
+}
@@ -0,0 +1,141 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * runs the repository's .sql scripts over JDBC the way the mariadb command line client does
+ * understands DELIMITER, -- and # line comments, block comments and quoted strings.
+ * USE statements are skipped so the scripts run against whatever database the connection points at.
+ */
+final class SqlScript {
+
+    private SqlScript() {
+    }
+
+    /**
+     * run every statement of a script, with force=true failing statements are reported and skipped
+     * (like mariadb --force), returns the number of failed statements
+     */
+    static int run(Connection conn, Path script, boolean force) throws IOException, SQLException {
+        int failures = 0;
+        try (Statement stmt = conn.createStatement()) {
+            for (String sql : split(Files.readString(script, StandardCharsets.UTF_8))) {
+                if (sql.regionMatches(true, 0, "USE ", 0, 4)) {
+                    continue;
+                }
+                try {
+                    stmt.execute(sql);
+                } catch (SQLException e) {
+                    if (!force) {
+                        throw e;
+                    }
+                    failures++;
+                    System.err.println("[" + script.getFileName() + "] skipped failing statement: " + e.getMessage());
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * split a script into statements, comments removed
+     */
+    static List<String> split(String script) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        String delimiter = ";";
+        int i = 0;
+        int n = script.length();
+        boolean lineStart = true;
+
+        while (i < n) {
+            char c = script.charAt(i);
+
+            // DELIMITER directive, only between statements at the start of a line
+            if (lineStart && current.toString().isBlank()) {
+                int lineEnd = script.indexOf('\n', i);
+                if (lineEnd < 0) {
+                    lineEnd = n;
+                }
+                String line = script.substring(i, lineEnd).trim();
+                if (line.toUpperCase(Locale.ROOT).startsWith("DELIMITER ")) {
+                    delimiter = line.substring("DELIMITER ".length()).trim().split("\\s+")[0];
+                    current.setLength(0);
+                    i = lineEnd;
+                    continue;
+                }
+            }
+
+            if (c == '\'' || c == '"' || c == '`') {
+                // copy a quoted string or identifier, doubled and backslash-escaped quotes included
+                int end = i + 1;
+                while (end < n) {
+                    char d = script.charAt(end);
+                    if (d == '\\' && c != '`') {
+                        end += 2;
+                        continue;
+                    }
+                    if (d == c) {
+                        if (end + 1 < n && script.charAt(end + 1) == c) {
+                            end += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    end++;
+                }
+                end = Math.min(end + 1, n);
+                current.append(script, i, end);
+                i = end;
+                lineStart = false;
+                continue;
+            }
+
+            if ((c == '-' && script.startsWith("--", i)
+                    && (i + 2 >= n || Character.isWhitespace(script.charAt(i + 2))))
+                    || c == '#') {
+                // line comment
+                int lineEnd = script.indexOf('\n', i);
+                i = lineEnd < 0 ? n : lineEnd;
+                continue;
+            }
+
+            if (c == '/' && script.startsWith("/*", i)) {
+                int end = script.indexOf("*/", i + 2);
+                i = end < 0 ? n : end + 2;
+                current.append(' ');
+                continue;
+            }
+
+            if (script.startsWith(delimiter, i)) {
+                addStatement(statements, current);
+                i += delimiter.length();
+                lineStart = false;
+                continue;
+            }
+
+            current.append(c);
+            lineStart = c == '\n' || (lineStart && Character.isWhitespace(c));
+            i++;
+        }
+        addStatement(statements, current);
+        return statements;
+    }
+
+    private static void addStatement(List<String> statements, StringBuilder current) {
+        String sql = current.toString().trim();
+        if (!sql.isEmpty()) {
+            statements.add(sql);
+        }
+        current.setLength(0);
+    }
+}